@@ -115,13 +115,17 @@ abstract class AbstractRedisRegionFactory implements RegionFactory {
                                           Properties properties,
                                           CacheDataDescription metadata) throws CacheException {
         regionNames.add(regionName);
-        return new RedisEntityRegion(accessStrategyFactory,
-                                     redis,
-                                     regionName,
-                                     settings,
-                                     metadata,
-                                     loadCacheProperties(properties),
-                                     timestamper);
+        RedisEntityRegion region = new RedisEntityRegion(accessStrategyFactory,
+                                                         redis,
+                                                         regionName,
+                                                         settings,
+                                                         metadata,
+                                                         loadCacheProperties(properties),
+                                                         timestamper);
+        if (region.getAggregateRegion() != null) {
+            regionNames.add(region.getAggregateRegion().getName());
+        }
+        return region;
     }
 
     @Override
@@ -210,6 +214,9 @@ abstract class AbstractRedisRegionFactory implements RegionFactory {
                                 }
                             }
                         }
+                        if (redis != null) {
+                            redis.reclaimRetiredRegions();
+                        }
                     } catch (InterruptedException ignored) {
                         break;
                     } catch (Exception ignored) {
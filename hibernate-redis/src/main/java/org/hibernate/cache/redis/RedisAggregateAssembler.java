@@ -0,0 +1,221 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.hibernate.cache.redis;
+
+import org.hibernate.cache.redis.regions.RedisAggregateRegion;
+import org.hibernate.cache.redis.regions.RedisCollectionRegion;
+import org.hibernate.cache.redis.regions.RedisEntityRegion;
+import org.hibernate.cache.redis.regions.RedisTransactionalDataRegion;
+import org.hibernate.cache.spi.CacheKey;
+import org.hibernate.cache.spi.entry.CollectionCacheEntry;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.type.*;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Resolves the members of the aggregates cached in {@link RedisAggregateRegion}s, and assembles aggregate entries.
+ * <p/>
+ * The members of an aggregate are the root entity, its collections named by {@code redis.aggregate.<region name>}
+ * which are cached in {@link RedisCollectionRegion}s and keyed by the owner id, and the entities of these collections
+ * (bags, sets and lists referencing cached entities by id). An aggregate entry is assembled when the root entity
+ * is read from the cache and all members are cached.
+ *
+ * @see RedisLoadEventListener
+ */
+final class RedisAggregateAssembler {
+
+    private static final CollectionPersister[] EMPTY = new CollectionPersister[0];
+
+    private static final Map<EntityPersister, CollectionPersister[]> aggregateCollections =
+            Collections.synchronizedMap(new WeakHashMap<EntityPersister, CollectionPersister[]>());
+
+    private RedisAggregateAssembler() {}
+
+    /**
+     * Resolve the members of all aggregates of the session factory, so that their regions invalidate the aggregates
+     * as soon as the session factory is created, whether or not this node reads the aggregates.
+     */
+    static void resolve(SessionFactoryImplementor factory) {
+        for (EntityPersister persister : factory.getEntityPersisters().values()) {
+            if (getAggregateRegion(persister) != null) {
+                getAggregateCollections(persister);
+            }
+        }
+    }
+
+    /**
+     * Get the aggregate region of which the entity is the root
+     *
+     * @return the aggregate region, or null if the entity is not cached as aggregate root
+     */
+    static RedisAggregateRegion getAggregateRegion(EntityPersister persister) {
+        if (persister.hasCache() && persister.getCacheAccessStrategy().getRegion() instanceof RedisEntityRegion) {
+            return ((RedisEntityRegion) persister.getCacheAccessStrategy().getRegion()).getAggregateRegion();
+        }
+        return null;
+    }
+
+    /**
+     * Store the aggregate of the specified root entity, if all its members are cached.
+     * The collections are read first to find the member entities, and compared with the stored ones afterwards,
+     * since they may change in the meantime.
+     *
+     * @param aggregate aggregate region of the root entity
+     * @param id        id of the root entity
+     * @param key       cache key of the root entity
+     */
+    static void assemble(SessionImplementor session,
+                         EntityPersister persister,
+                         RedisAggregateRegion aggregate,
+                         Serializable id,
+                         CacheKey key) {
+        final CollectionPersister[] collections = getAggregateCollections(persister);
+        final Map<RedisTransactionalDataRegion, Collection<Object>> collectionKeys =
+                new LinkedHashMap<RedisTransactionalDataRegion, Collection<Object>>();
+        final CacheKey[] keys = new CacheKey[collections.length];
+        for (int i = 0; i < collections.length; i++) {
+            keys[i] = session.generateCacheKey(id, collections[i].getKeyType(), collections[i].getRole());
+            addKey(collectionKeys, getRegion(collections[i]), keys[i]);
+        }
+
+        final Map<Object, Object> entries = RedisTransactionalDataRegion.getAll(collectionKeys);
+        final Map<RedisTransactionalDataRegion, Collection<Object>> members =
+                new LinkedHashMap<RedisTransactionalDataRegion, Collection<Object>>(collectionKeys);
+        addKey(members, (RedisTransactionalDataRegion) persister.getCacheAccessStrategy().getRegion(), key);
+        final Serializable[][] states = new Serializable[collections.length][];
+        for (int i = 0; i < collections.length; i++) {
+            states[i] = getState(collections[i], entries.get(keys[i]));
+            if (states[i] == null)
+                return;
+            EntityPersister element = getElementPersister(collections[i]);
+            if (element != null) {
+                addElementKeys(session, element, states[i], members);
+            }
+        }
+
+        final Map<String, Map<String, Object>> stored = aggregate.put(key, members);
+        if (stored == null)
+            return;
+        for (int i = 0; i < collections.length; i++) {
+            Map<String, Object> regionItems = stored.get(getRegion(collections[i]).getName());
+            Serializable[] state = getState(collections[i], (regionItems != null) ? regionItems.get(keys[i].toString()) : null);
+            if (state == null || !Arrays.deepEquals(state, states[i])) {
+                aggregate.remove(key);
+                return;
+            }
+        }
+    }
+
+    /**
+     * get the disassembled state of a collection cache entry, structured or not
+     */
+    private static Serializable[] getState(CollectionPersister collection, Object entry) {
+        if (entry == null)
+            return null;
+        Object destructured = collection.getCacheEntryStructure().destructure(entry, collection.getFactory());
+        return (destructured instanceof CollectionCacheEntry) ? ((CollectionCacheEntry) destructured).getState() : null;
+    }
+
+    private static void addElementKeys(SessionImplementor session,
+                                       EntityPersister element,
+                                       Serializable[] state,
+                                       Map<RedisTransactionalDataRegion, Collection<Object>> members) {
+        final RedisTransactionalDataRegion region =
+                (RedisTransactionalDataRegion) element.getCacheAccessStrategy().getRegion();
+        final Type idType = element.getIdentifierType();
+        for (Serializable disassembled : state) {
+            if (disassembled != null) {
+                Serializable elementId = (Serializable) idType.assemble(disassembled, session, null);
+                addKey(members, region, session.generateCacheKey(elementId, idType, element.getRootEntityName()));
+            }
+        }
+    }
+
+    private static void addKey(Map<RedisTransactionalDataRegion, Collection<Object>> keysByRegion,
+                               RedisTransactionalDataRegion region,
+                               Object key) {
+        Collection<Object> keys = keysByRegion.get(region);
+        if (keys == null) {
+            keys = new LinkedHashSet<Object>();
+            keysByRegion.put(region, keys);
+        }
+        keys.add(key);
+    }
+
+    private static RedisCollectionRegion getRegion(CollectionPersister collection) {
+        return (RedisCollectionRegion) collection.getCacheAccessStrategy().getRegion();
+    }
+
+    private static CollectionPersister[] getAggregateCollections(EntityPersister persister) {
+        CollectionPersister[] collections = aggregateCollections.get(persister);
+        if (collections == null) {
+            collections = resolveAggregateCollections(persister);
+            aggregateCollections.put(persister, collections);
+        }
+        return collections;
+    }
+
+    private static CollectionPersister[] resolveAggregateCollections(EntityPersister persister) {
+        SessionFactoryImplementor factory = persister.getFactory();
+        RedisAggregateRegion aggregate = getAggregateRegion(persister);
+        List<CollectionPersister> collections = new ArrayList<CollectionPersister>();
+
+        for (Object role : factory.getAllCollectionMetadata().keySet()) {
+            CollectionPersister collection = factory.getCollectionPersister((String) role);
+            if (!collection.hasCache()
+                    || !(collection.getCacheAccessStrategy().getRegion() instanceof RedisCollectionRegion)
+                    || collection.getCollectionType().getLHSPropertyName() != null
+                    || !collection.getOwnerEntityPersister().isSubclassEntityName(persister.getEntityName())) {
+                continue;
+            }
+            String property = collection.getRole().substring(collection.getOwnerEntityPersister().getEntityName().length() + 1);
+            if (!aggregate.getCollectionProperties().contains(property))
+                continue;
+
+            aggregate.addMember(getRegion(collection));
+            EntityPersister element = getElementPersister(collection);
+            if (element != null) {
+                aggregate.addMember((RedisTransactionalDataRegion) element.getCacheAccessStrategy().getRegion());
+            }
+            collections.add(collection);
+        }
+        return collections.isEmpty() ? EMPTY : collections.toArray(new CollectionPersister[collections.size()]);
+    }
+
+    /**
+     * Get the persister of the entities of the collection, if they are members of the aggregate
+     */
+    private static EntityPersister getElementPersister(CollectionPersister collection) {
+        Type elementType = collection.getElementType();
+        CollectionType type = collection.getCollectionType();
+        if (!elementType.isEntityType()
+                || !((EntityType) elementType).isReferenceToPrimaryKey()
+                || !(type instanceof BagType || type instanceof SetType || type instanceof ListType)) {
+            return null;
+        }
+        EntityPersister element = collection.getFactory()
+                                            .getEntityPersister(((EntityType) elementType).getAssociatedEntityName());
+        return (element.hasCache() && element.getCacheAccessStrategy().getRegion() instanceof RedisEntityRegion)
+               ? element
+               : null;
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.hibernate.cache.redis;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.SessionFactoryObserver;
+import org.hibernate.cache.redis.serializer.CacheEntryRedisSerializer;
+import org.hibernate.cache.redis.serializer.FstRedisSerializer;
+import org.hibernate.cache.redis.util.JedisTool;
+import org.hibernate.cfg.BaselineSessionEventsListenerBuilder;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.internal.DefaultInitializeCollectionEventListener;
+import org.hibernate.event.internal.DefaultLoadEventListener;
+import org.hibernate.event.service.spi.EventListenerGroup;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.mapping.Property;
+import org.hibernate.metamodel.binding.EntityBinding;
+import org.hibernate.metamodel.source.MetadataImplementor;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Registers the event listeners used by hibernate-redis when the session factory uses a redis region factory,
+ * the session factory to {@link CacheEntryRedisSerializer},
+ * the classes written to the cache to the FST class registry ({@link FstRedisSerializer#registerClasses}),
+ * the session listener which flushes deferred invalidations when a region defers them ({@link RedisInvalidationSessionListener}),
+ * and resolves the members of the cached aggregates once the session factory is created ({@link RedisAggregateAssembler}).
+ * <p/>
+ * Registered by META-INF/services/org.hibernate.integrator.spi.Integrator
+ */
+public class RedisCacheIntegrator implements Integrator {
+
+    private static final List<String> CACHE_ENTRY_CLASS_NAMES =
+            Arrays.asList("org.hibernate.cache.spi.entry.StandardCacheEntryImpl",
+                          "org.hibernate.cache.spi.entry.ReferenceCacheEntryImpl",
+                          "org.hibernate.cache.spi.entry.CollectionCacheEntry",
+                          "org.hibernate.cache.spi.NaturalIdCacheKey",
+                          "org.hibernate.engine.spi.TypedValue");
+    private static final Logger log = LoggerFactory.getLogger(RedisCacheIntegrator.class);
+
+    @Override
+    public void integrate(Configuration configuration,
+                          SessionFactoryImplementor sessionFactory,
+                          SessionFactoryServiceRegistry serviceRegistry) {
+        Map<String, Integer> batchSizes = new HashMap<String, Integer>();
+        Set<String> classNames = new LinkedHashSet<String>();
+        Iterator<PersistentClass> classMappings = configuration.getClassMappings();
+        while (classMappings.hasNext()) {
+            PersistentClass persistentClass = classMappings.next();
+            batchSizes.put(persistentClass.getEntityName(), persistentClass.getBatchSize());
+            addClassNames(persistentClass, classNames);
+        }
+        integrate(sessionFactory, serviceRegistry, batchSizes, classNames);
+    }
+
+    @Override
+    public void integrate(MetadataImplementor metadata,
+                          SessionFactoryImplementor sessionFactory,
+                          SessionFactoryServiceRegistry serviceRegistry) {
+        Map<String, Integer> batchSizes = new HashMap<String, Integer>();
+        Set<String> classNames = new LinkedHashSet<String>();
+        for (EntityBinding entityBinding : metadata.getEntityBindings()) {
+            batchSizes.put(entityBinding.getEntity().getName(), entityBinding.getBatchSize());
+            if (entityBinding.getEntity().getClassName() != null) {
+                classNames.add(entityBinding.getEntity().getClassName());
+            }
+        }
+        integrate(sessionFactory, serviceRegistry, batchSizes, classNames);
+    }
+
+    @Override
+    public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+        CacheEntryRedisSerializer.unregister(sessionFactory);
+    }
+
+    private void integrate(SessionFactoryImplementor sessionFactory,
+                           SessionFactoryServiceRegistry serviceRegistry,
+                           Map<String, Integer> batchSizes,
+                           Set<String> classNames) {
+        if (!(sessionFactory.getSettings().getRegionFactory() instanceof AbstractRedisRegionFactory))
+            return;
+
+        CacheEntryRedisSerializer.register(sessionFactory);
+        classNames.addAll(CACHE_ENTRY_CLASS_NAMES);
+        FstRedisSerializer.registerClasses(classNames);
+
+        EventListenerRegistry listeners = serviceRegistry.getService(EventListenerRegistry.class);
+
+        replaceDefaultListener(listeners.getEventListenerGroup(EventType.LOAD),
+                               DefaultLoadEventListener.class,
+                               new RedisLoadEventListener(batchSizes));
+        replaceDefaultListener(listeners.getEventListenerGroup(EventType.INIT_COLLECTION),
+                               DefaultInitializeCollectionEventListener.class,
+                               new RedisInitializeCollectionEventListener());
+
+        if (JedisTool.isDeferredInvalidationEnabled(JedisTool.loadCacheProperties(sessionFactory.getProperties()))) {
+            BaselineSessionEventsListenerBuilder sessionListeners =
+                    sessionFactory.getSettings().getBaselineSessionEventsListenerBuilder();
+            if (sessionListeners.getAutoListener() == null) {
+                sessionListeners.setAutoListener(RedisInvalidationSessionListener.class);
+            } else if (sessionListeners.getAutoListener() != RedisInvalidationSessionListener.class) {
+                log.info("Deferred invalidation is disabled, since another auto session listener is configured. listener=[{}]",
+                         sessionListeners.getAutoListener().getName());
+            }
+        }
+
+        sessionFactory.addObserver(new SessionFactoryObserver() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void sessionFactoryCreated(SessionFactory factory) {
+                RedisAggregateAssembler.resolve((SessionFactoryImplementor) factory);
+            }
+
+            @Override
+            public void sessionFactoryClosed(SessionFactory factory) { }
+        });
+
+        if (sessionFactory.getSettings().isQueryCacheEnabled()) {
+            listeners.appendListeners(EventType.POST_INSERT, new RedisQueryInvalidationListener.PreCommit());
+            listeners.appendListeners(EventType.POST_COMMIT_INSERT, new RedisQueryInvalidationListener.PostCommit());
+        }
+    }
+
+    /**
+     * add the classes of the entity and its properties, which are written to the cache
+     */
+    private static void addClassNames(PersistentClass persistentClass, Set<String> classNames) {
+        if (persistentClass.getMappedClass() != null) {
+            classNames.add(persistentClass.getMappedClass().getName());
+        }
+        Iterator<?> properties = persistentClass.getPropertyClosureIterator();
+        while (properties.hasNext()) {
+            Property property = (Property) properties.next();
+            try {
+                Class<?> returnedClass = property.getType().getReturnedClass();
+                if (returnedClass != null && Serializable.class.isAssignableFrom(returnedClass)) {
+                    classNames.add(returnedClass.getName());
+                }
+            } catch (Exception e) {
+                log.debug("Fail to resolve the type of property. property=[{}]", property.getName());
+            }
+        }
+    }
+
+    /**
+     * replace the default listener of hibernate, leaving custom listeners as is.
+     */
+    private static <T> void replaceDefaultListener(EventListenerGroup<T> group, Class<?> defaultListenerClass, T listener) {
+        List<T> replaced = new ArrayList<T>();
+        boolean found = false;
+        for (T existing : group.listeners()) {
+            if (existing.getClass() == defaultListenerClass) {
+                replaced.add(listener);
+                found = true;
+            } else {
+                replaced.add(existing);
+            }
+        }
+        if (found) {
+            group.clear();
+            for (T existing : replaced) {
+                group.appendListener(existing);
+            }
+        }
+    }
+}
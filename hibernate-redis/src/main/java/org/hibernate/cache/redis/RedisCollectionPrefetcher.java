@@ -0,0 +1,105 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.hibernate.cache.redis;
+
+import org.hibernate.cache.redis.regions.RedisCollectionRegion;
+import org.hibernate.cache.redis.regions.RedisPrefetchBuffer;
+import org.hibernate.cache.redis.regions.RedisTransactionalDataRegion;
+import org.hibernate.cache.spi.CacheKey;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.EntityPersister;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Resolves the cached collections which are fetched together with their owner entity.
+ * <p/>
+ * Candidates are the collection roles of the entity (and of its super classes) cached in {@link RedisCollectionRegion}s
+ * and keyed by the owner id, and they are enabled by {@link RedisCollectionRegion#isPrefetchedWithOwner(String, String)}.
+ *
+ * @see RedisLoadEventListener
+ * @see RedisQueryCache
+ */
+final class RedisCollectionPrefetcher {
+
+    private static final CollectionPersister[] EMPTY = new CollectionPersister[0];
+
+    private static final Map<EntityPersister, CollectionPersister[]> prefetchedCollections =
+            Collections.synchronizedMap(new WeakHashMap<EntityPersister, CollectionPersister[]>());
+
+    private RedisCollectionPrefetcher() {}
+
+    /**
+     * Get the collections which are fetched together with the specified entity
+     */
+    static CollectionPersister[] getPrefetchedCollections(EntityPersister persister) {
+        CollectionPersister[] collections = prefetchedCollections.get(persister);
+        if (collections == null) {
+            collections = resolvePrefetchedCollections(persister);
+            prefetchedCollections.put(persister, collections);
+        }
+        return collections;
+    }
+
+    /**
+     * Add the cache keys of the prefetched collections of the specified entity, which are not in the prefetch buffer.
+     *
+     * @param keysByRegion cache keys by region to add to
+     */
+    static void addCollectionKeys(SessionImplementor session,
+                                  CollectionPersister[] collections,
+                                  Serializable ownerId,
+                                  Map<RedisTransactionalDataRegion, Collection<Object>> keysByRegion) {
+        for (CollectionPersister collection : collections) {
+            RedisCollectionRegion region = (RedisCollectionRegion) collection.getCacheAccessStrategy().getRegion();
+            CacheKey key = session.generateCacheKey(ownerId, collection.getKeyType(), collection.getRole());
+            if (RedisPrefetchBuffer.contains(region.getName(), key))
+                continue;
+
+            Collection<Object> keys = keysByRegion.get(region);
+            if (keys == null) {
+                keys = new LinkedHashSet<Object>();
+                keysByRegion.put(region, keys);
+            }
+            keys.add(key);
+        }
+    }
+
+    private static CollectionPersister[] resolvePrefetchedCollections(EntityPersister persister) {
+        SessionFactoryImplementor factory = persister.getFactory();
+        List<CollectionPersister> collections = new ArrayList<CollectionPersister>();
+
+        for (Object role : factory.getAllCollectionMetadata().keySet()) {
+            CollectionPersister collection = factory.getCollectionPersister((String) role);
+            if (!collection.hasCache()
+                    || !(collection.getCacheAccessStrategy().getRegion() instanceof RedisCollectionRegion)
+                    || collection.getCollectionType().getLHSPropertyName() != null
+                    || !collection.getOwnerEntityPersister().isSubclassEntityName(persister.getEntityName())) {
+                continue;
+            }
+
+            RedisCollectionRegion region = (RedisCollectionRegion) collection.getCacheAccessStrategy().getRegion();
+            if (region.isPrefetchedWithOwner(collection.getRole(), collection.getOwnerEntityPersister().getEntityName())) {
+                collections.add(collection);
+            }
+        }
+        return collections.isEmpty() ? EMPTY : collections.toArray(new CollectionPersister[collections.size()]);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.hibernate.cache.redis;
+
+import org.hibernate.HibernateException;
+import org.hibernate.cache.redis.regions.RedisCollectionRegion;
+import org.hibernate.cache.redis.regions.RedisPrefetchBuffer;
+import org.hibernate.cache.spi.CacheKey;
+import org.hibernate.engine.spi.CollectionEntry;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.internal.DefaultInitializeCollectionEventListener;
+import org.hibernate.event.spi.InitializeCollectionEvent;
+import org.hibernate.persister.collection.CollectionPersister;
+
+/**
+ * Initialize collection event listener which serves the collection cache entries
+ * prefetched together with their owner entity from the {@link RedisPrefetchBuffer} of the session.
+ *
+ * @see RedisCollectionPrefetcher
+ */
+class RedisInitializeCollectionEventListener extends DefaultInitializeCollectionEventListener {
+
+    @Override
+    public void onInitializeCollection(InitializeCollectionEvent event) throws HibernateException {
+        final SessionImplementor session = event.getSession();
+        final CollectionEntry entry = session.getPersistenceContext().getCollectionEntry(event.getCollection());
+        final CollectionPersister persister = (entry != null) ? entry.getLoadedPersister() : null;
+
+        if (persister == null
+                || !persister.hasCache()
+                || !(persister.getCacheAccessStrategy().getRegion() instanceof RedisCollectionRegion)) {
+            super.onInitializeCollection(event);
+            return;
+        }
+
+        final String regionName = persister.getCacheAccessStrategy().getRegion().getName();
+        final CacheKey key = session.generateCacheKey(entry.getLoadedKey(), persister.getKeyType(), persister.getRole());
+
+        RedisPrefetchBuffer previous = RedisPrefetchBuffer.bindExisting(session);
+        try {
+            super.onInitializeCollection(event);
+        } finally {
+            RedisPrefetchBuffer.discard(regionName, key);
+            RedisPrefetchBuffer.unbind(previous);
+        }
+    }
+
+    private static final long serialVersionUID = 52234283894992781L;
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.hibernate.cache.redis;
+
+import org.hibernate.BaseSessionEventListener;
+import org.hibernate.cache.redis.regions.RedisInvalidationBatch;
+
+/**
+ * Flushes the {@link RedisInvalidationBatch} of the current thread when the transaction of the session completes,
+ * or when the session ends.
+ * <p/>
+ * Installed as the auto session listener by {@link RedisCacheIntegrator} when a region defers its invalidations
+ * ({@code redis.invalidation.deferred}), unless another one is configured.
+ */
+public class RedisInvalidationSessionListener extends BaseSessionEventListener {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public void transactionCompletion(boolean successful) {
+        RedisInvalidationBatch.flush();
+    }
+
+    @Override
+    public void end() {
+        RedisInvalidationBatch.flush();
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.hibernate.cache.redis;
+
+import org.hibernate.LockMode;
+import org.hibernate.cache.redis.regions.RedisAggregateRegion;
+import org.hibernate.cache.redis.regions.RedisEntityRegion;
+import org.hibernate.cache.redis.regions.RedisPrefetchBuffer;
+import org.hibernate.cache.redis.regions.RedisTransactionalDataRegion;
+import org.hibernate.cache.spi.CacheKey;
+import org.hibernate.engine.spi.EntityKey;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.internal.DefaultLoadEventListener;
+import org.hibernate.event.spi.LoadEvent;
+import org.hibernate.event.spi.LoadEventListener;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.EntityPersister;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Load event listener which looks up the second level cache entries of a batch fetch in one round trip.
+ * <p/>
+ * Hibernate checks the second level cache key by key before batch loading entities from database.
+ * When an entity of batch loadable ({@code @BatchSize}) type is loaded from a {@link RedisEntityRegion},
+ * the cache entries of the entity and of the other entities queued for batch loading are fetched by one HMGET
+ * into the {@link RedisPrefetchBuffer} of the transaction, so only the missing entities go to the database,
+ * and the other entities are served from the buffer when their proxies are initialized in the same transaction.
+ * The cache entries of the collections configured to be fetched with the entity are fetched in the same pipeline.
+ * (see {@link RedisCollectionPrefetcher})
+ * Entities loaded in the prefetch buffer of the transaction are also served by this listener. (see {@link RedisQueryCache})
+ * The members of an aggregate root entity are read in one round trip from its {@link RedisAggregateRegion},
+ * or the aggregate entry is assembled after the entity is read from the cache. (see {@link RedisAggregateAssembler})
+ *
+ * @see RedisCacheIntegrator
+ */
+class RedisLoadEventListener extends DefaultLoadEventListener {
+
+    /**
+     * max round trips to look up the cache entries of a batch before loading it from database.
+     * cached entities do not count toward the batch, so the batch loader may look further than the first lookup.
+     */
+    private static final int MAX_PREFETCH_ROUNDS = 3;
+
+    /**
+     * batch sizes by entity name
+     */
+    private final Map<String, Integer> batchSizes;
+
+    RedisLoadEventListener(Map<String, Integer> batchSizes) {
+        this.batchSizes = batchSizes;
+    }
+
+    @Override
+    protected Object loadFromSecondLevelCache(LoadEvent event,
+                                              EntityPersister persister,
+                                              LoadEventListener.LoadType options) {
+        final RedisEntityRegion region = getRegion(event, persister);
+        if (region == null) {
+            return super.loadFromSecondLevelCache(event, persister, options);
+        }
+
+        final SessionImplementor session = event.getSession();
+        final CacheKey key = generateCacheKey(session, persister, event.getEntityId());
+        final CollectionPersister[] collections = RedisCollectionPrefetcher.getPrefetchedCollections(persister);
+        final RedisAggregateRegion aggregate = region.getAggregateRegion();
+        final boolean prefetch = isBatchLoadable(persister) || collections.length > 0 || aggregate != null;
+
+        RedisPrefetchBuffer previous = prefetch ? RedisPrefetchBuffer.bind(session) : RedisPrefetchBuffer.bindExisting(session);
+        try {
+            final boolean buffered = RedisPrefetchBuffer.contains(region.getName(), key);
+            if (aggregate != null && !buffered) {
+                // the whole aggregate in one round trip, or assemble it once the entity is read
+                if (aggregate.prefetch(key))
+                    return super.loadFromSecondLevelCache(event, persister, options);
+
+                Object entity = super.loadFromSecondLevelCache(event, persister, options);
+                if (entity != null) {
+                    RedisAggregateAssembler.assemble(session, persister, aggregate, event.getEntityId(), key);
+                }
+                return entity;
+            }
+            if (prefetch && !buffered) {
+                // fetch the entity, the batch and the collections of the entity in one pipeline
+                Map<RedisTransactionalDataRegion, Collection<Object>> keys =
+                        new LinkedHashMap<RedisTransactionalDataRegion, Collection<Object>>();
+                keys.put(region, isBatchLoadable(persister)
+                                 ? getUnbufferedBatchKeys(event, persister, region, true)
+                                 : Collections.<Object>singletonList(key));
+                RedisCollectionPrefetcher.addCollectionKeys(session, collections, event.getEntityId(), keys);
+                RedisTransactionalDataRegion.prefetch(keys);
+            }
+            return super.loadFromSecondLevelCache(event, persister, options);
+        } finally {
+            RedisPrefetchBuffer.discard(region.getName(), key);
+            RedisPrefetchBuffer.unbind(previous);
+        }
+    }
+
+    @Override
+    protected Object loadFromDatasource(LoadEvent event,
+                                        EntityPersister persister,
+                                        EntityKey keyToLoad,
+                                        LoadEventListener.LoadType options) {
+        final RedisEntityRegion region = getRegion(event, persister);
+        if (region == null || !isBatchLoadable(persister)) {
+            return super.loadFromDatasource(event, persister, keyToLoad, options);
+        }
+
+        // batch loader checks the cache entries of the batch in the prefetch buffer
+        RedisPrefetchBuffer previous = RedisPrefetchBuffer.bind(event.getSession());
+        try {
+            for (int round = 0; round < MAX_PREFETCH_ROUNDS; round++) {
+                List<Object> keys = getUnbufferedBatchKeys(event, persister, region, false);
+                if (keys.isEmpty())
+                    break;
+                region.prefetch(keys);
+            }
+            return super.loadFromDatasource(event, persister, keyToLoad, options);
+        } finally {
+            RedisPrefetchBuffer.unbind(previous);
+        }
+    }
+
+    private static RedisEntityRegion getRegion(LoadEvent event, EntityPersister persister) {
+        if (persister.hasCache()
+                && event.getSession().getCacheMode().isGetEnabled()
+                && event.getLockMode().lessThan(LockMode.READ)
+                && persister.getCacheAccessStrategy().getRegion() instanceof RedisEntityRegion) {
+            return (RedisEntityRegion) persister.getCacheAccessStrategy().getRegion();
+        }
+        return null;
+    }
+
+    private boolean isBatchLoadable(EntityPersister persister) {
+        Integer batchSize = batchSizes.get(persister.getEntityName());
+        return batchSize != null && batchSize > 1;
+    }
+
+    /**
+     * Get the cache keys of the entity and of the entities which the batch loader would load together,
+     * which are not in the prefetch buffer yet.
+     */
+    private List<Object> getUnbufferedBatchKeys(LoadEvent event,
+                                                EntityPersister persister,
+                                                RedisEntityRegion region,
+                                                boolean includeRequested) {
+        final SessionImplementor session = event.getSession();
+
+        // ask the batch fetch queue for the ids the batch loader would load, without cache lookups
+        Serializable[] ids;
+        RedisPrefetchBuffer.beginDryRun();
+        try {
+            ids = session.getPersistenceContext()
+                         .getBatchFetchQueue()
+                         .getEntityBatch(persister,
+                                         event.getEntityId(),
+                                         batchSizes.get(persister.getEntityName()),
+                                         persister.getEntityMode());
+        } finally {
+            RedisPrefetchBuffer.endDryRun();
+        }
+
+        // NOTE: the first id is the requested one
+        List<Object> keys = new ArrayList<Object>(ids.length);
+        for (int i = includeRequested ? 0 : 1; i < ids.length; i++) {
+            if (ids[i] != null) {
+                CacheKey key = generateCacheKey(session, persister, ids[i]);
+                if (!RedisPrefetchBuffer.contains(region.getName(), key)) {
+                    keys.add(key);
+                }
+            }
+        }
+        return keys;
+    }
+
+    private static CacheKey generateCacheKey(SessionImplementor session, EntityPersister persister, Serializable id) {
+        return session.generateCacheKey(id, persister.getIdentifierType(), persister.getRootEntityName());
+    }
+
+    private static final long serialVersionUID = -2891730451262084417L;
+}
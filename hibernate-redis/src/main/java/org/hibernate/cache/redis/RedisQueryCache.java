@@ -0,0 +1,363 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.hibernate.cache.redis;
+
+import org.hibernate.HibernateException;
+import org.hibernate.UnresolvableObjectException;
+import org.hibernate.cache.internal.StandardQueryCache;
+import org.hibernate.cache.redis.regions.RedisEntityRegion;
+import org.hibernate.cache.redis.regions.RedisPrefetchBuffer;
+import org.hibernate.cache.redis.regions.RedisQueryResultsRegion;
+import org.hibernate.cache.redis.regions.RedisTransactionalDataRegion;
+import org.hibernate.cache.spi.QueryKey;
+import org.hibernate.cache.spi.UpdateTimestampsCache;
+import org.hibernate.cfg.Settings;
+import org.hibernate.engine.internal.ForeignKeys;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.Type;
+import org.hibernate.type.TypeHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.persistence.EntityNotFoundException;
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Query cache which keeps track of the entities a cached query result depends on.
+ * <p/>
+ * Hibernate treats a cached query result as stale whenever any row of its query spaces changes.
+ * If dependency tracking is enabled for the region ({@code redis.query.trackDependencies}), results of queries
+ * returning only cached entities record the entity cache keys they contain in a reverse index in Redis instead.
+ * The entity regions must enable it as well, since only they maintain the index (e.g. by the global property,
+ * or {@code redis.query.trackDependencies.<entity region>}), otherwise the results are cached as usual.
+ * Updating or deleting one of these entities evicts only the dependent results, while inserts and bulk operations
+ * still invalidate every tracked result of the entity region (table level fallback, see {@link RedisQueryInvalidationListener}).
+ * Query spaces which do not belong to a returned entity (e.g. joined tables) are checked as usual.
+ * A result is not put if one of its entities was invalidated since the session timestamp,
+ * since the rows may have been read before the change was committed.
+ * <p/>
+ * NOTE: an update which makes a row start matching a query is not detected, so only enable tracking
+ * for regions whose queries filter on columns that do not change.
+ * <p/>
+ * On a cache hit, the cache entries of the returned entities are fetched from their entity regions in one round trip
+ * before the result is assembled, instead of one request per row. ({@code redis.query.prefetch}, enabled by default)
+ * <p/>
+ * Configure by {@code hibernate.cache.query_cache_factory=org.hibernate.cache.redis.RedisQueryCacheFactory}
+ */
+public class RedisQueryCache extends StandardQueryCache {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisQueryCache.class);
+
+    public RedisQueryCache(Settings settings,
+                           Properties props,
+                           UpdateTimestampsCache updateTimestampsCache,
+                           String regionName) {
+        super(settings, props, updateTimestampsCache, regionName);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public boolean put(QueryKey key,
+                       Type[] returnTypes,
+                       List result,
+                       boolean isNaturalKeyLookup,
+                       SessionImplementor session) throws HibernateException {
+        RedisQueryResultsRegion region = trackingRegion();
+        if (region == null || getTrackedPersisters(returnTypes, session) == null) {
+            return super.put(key, returnTypes, result, isNaturalKeyLookup, session);
+        }
+        if (isNaturalKeyLookup && result.isEmpty())
+            return false;
+
+        // same as StandardQueryCache#put, except that the result is put with its dependencies in one script call,
+        // unless one of them was invalidated since the session timestamp, i.e. possibly after the rows were read.
+        final long timestamp = region.nextTimestamp();
+        final List<Object> cacheable = new ArrayList<Object>(result.size() + 1);
+        cacheable.add(timestamp);
+        final boolean singleResult = returnTypes.length == 1;
+        for (Object row : result) {
+            cacheable.add(singleResult
+                          ? returnTypes[0].disassemble(row, session, null)
+                          : TypeHelper.disassemble((Object[]) row, returnTypes, null, session, null));
+        }
+
+        boolean put = false;
+        try {
+            session.getEventListenerManager().cachePutStart();
+            put = region.putDependent(key, cacheable, getDependencies(returnTypes, result, session), session.getTimestamp());
+        } finally {
+            session.getEventListenerManager().cachePutEnd();
+        }
+        if (!put) {
+            log.debug("Query results were not cached, since their entities changed. key=[{}]", key);
+        }
+        return put;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public List get(QueryKey key,
+                    Type[] returnTypes,
+                    boolean isNaturalKeyLookup,
+                    Set<Serializable> spaces,
+                    SessionImplementor session) throws HibernateException {
+        if (trackingRegion() != null) {
+            EntityPersister[] persisters = getTrackedPersisters(returnTypes, session);
+            if (persisters != null) {
+                spaces = new TrackedSpaces(spaces, persisters);
+            }
+        }
+
+        EntityPersister[] prefetchPersisters = getPrefetchPersisters(returnTypes, session);
+        if (prefetchPersisters == null) {
+            return super.get(key, returnTypes, isNaturalKeyLookup, spaces, session);
+        }
+
+        // same as StandardQueryCache#get, except that the entities are fetched ahead before assembling results.
+        final List<?> cacheable = getCachedResults(key, session);
+        if (cacheable == null) {
+            log.debug("Query results were not found in cache. key=[{}]", key);
+            return null;
+        }
+
+        final Long timestamp = (Long) cacheable.get(0);
+        if (!isNaturalKeyLookup && !isUpToDate(spaces, timestamp, session)) {
+            log.debug("Cached query results were not up-to-date. key=[{}]", key);
+            return null;
+        }
+
+        RedisPrefetchBuffer previous = RedisPrefetchBuffer.bind(session);
+        try {
+            prefetch(prefetchPersisters, cacheable, session);
+            return assemble(key, returnTypes, isNaturalKeyLookup, cacheable, session);
+        } finally {
+            RedisPrefetchBuffer.unbind(previous);
+        }
+    }
+
+    private List<?> getCachedResults(QueryKey key, SessionImplementor session) {
+        List<?> cacheable = null;
+        try {
+            session.getEventListenerManager().cacheGetStart();
+            cacheable = (List<?>) getRegion().get(key);
+        } finally {
+            session.getEventListenerManager().cacheGetEnd(cacheable != null);
+        }
+        return cacheable;
+    }
+
+    private List<Object> assemble(QueryKey key,
+                                  Type[] returnTypes,
+                                  boolean isNaturalKeyLookup,
+                                  List<?> cacheable,
+                                  SessionImplementor session) {
+        final boolean singleResult = returnTypes.length == 1;
+        for (int i = 1; i < cacheable.size(); i++) {
+            if (singleResult) {
+                returnTypes[0].beforeAssemble((Serializable) cacheable.get(i), session);
+            } else {
+                TypeHelper.beforeAssemble((Serializable[]) cacheable.get(i), returnTypes, session);
+            }
+        }
+
+        final List<Object> result = new ArrayList<Object>(cacheable.size() - 1);
+        for (int i = 1; i < cacheable.size(); i++) {
+            try {
+                if (singleResult) {
+                    result.add(returnTypes[0].assemble((Serializable) cacheable.get(i), session, null));
+                } else {
+                    result.add(TypeHelper.assemble((Serializable[]) cacheable.get(i), returnTypes, session, null));
+                }
+            } catch (RuntimeException e) {
+                if (isNaturalKeyLookup
+                        && (e instanceof UnresolvableObjectException || e instanceof EntityNotFoundException)) {
+                    log.debug("Unable to reassemble cached natural-id query result. key=[{}]", key);
+                    getRegion().evict(key);
+                    return null;
+                }
+                throw e;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Fetch the cache entries of all entities referenced by the cached query result (and of their prefetched collections)
+     * in one pipeline, instead of one by one while assembling the result.
+     */
+    private static void prefetch(EntityPersister[] persisters, List<?> cacheable, SessionImplementor session) {
+        if (!session.getCacheMode().isGetEnabled())
+            return;
+
+        Map<RedisTransactionalDataRegion, Collection<Object>> keysByRegion =
+                new HashMap<RedisTransactionalDataRegion, Collection<Object>>();
+        final boolean singleResult = persisters.length == 1;
+
+        for (int i = 1; i < cacheable.size(); i++) {
+            for (int j = 0; j < persisters.length; j++) {
+                if (persisters[j] == null)
+                    continue;
+                Serializable id = singleResult
+                                  ? (Serializable) cacheable.get(i)
+                                  : ((Serializable[]) cacheable.get(i))[j];
+                if (id == null || session.getPersistenceContext()
+                                         .containsEntity(session.generateEntityKey(id, persisters[j]))) {
+                    continue;
+                }
+                RedisEntityRegion region = (RedisEntityRegion) persisters[j].getCacheAccessStrategy().getRegion();
+                Collection<Object> keys = keysByRegion.get(region);
+                if (keys == null) {
+                    keys = new LinkedHashSet<Object>();
+                    keysByRegion.put(region, keys);
+                }
+                keys.add(session.generateCacheKey(id,
+                                                  persisters[j].getIdentifierType(),
+                                                  persisters[j].getRootEntityName()));
+                RedisCollectionPrefetcher.addCollectionKeys(session,
+                                                            RedisCollectionPrefetcher.getPrefetchedCollections(persisters[j]),
+                                                            id,
+                                                            keysByRegion);
+            }
+        }
+        RedisTransactionalDataRegion.prefetch(keysByRegion);
+    }
+
+    @Override
+    protected boolean isUpToDate(Set<Serializable> spaces, Long timestamp, SessionImplementor session) {
+        if (spaces instanceof TrackedSpaces) {
+            TrackedSpaces trackedSpaces = (TrackedSpaces) spaces;
+            if (!trackingRegion().isUpToDate(trackedSpaces.entityRegions, timestamp)) {
+                log.debug("entity regions of cached query results were invalidated. regions=[{}]",
+                          trackedSpaces.entityRegions);
+                return false;
+            }
+        }
+        return super.isUpToDate(spaces, timestamp, session);
+    }
+
+    private RedisQueryResultsRegion trackingRegion() {
+        if (getRegion() instanceof RedisQueryResultsRegion) {
+            RedisQueryResultsRegion region = (RedisQueryResultsRegion) getRegion();
+            return region.isDependencyTrackingEnabled() ? region : null;
+        }
+        return null;
+    }
+
+    /**
+     * Get the persisters of the returned entities cached in {@link RedisEntityRegion}s (null for other return types),
+     * or null if nothing of the query result can be prefetched.
+     */
+    private EntityPersister[] getPrefetchPersisters(Type[] returnTypes, SessionImplementor session) {
+        if (!(getRegion() instanceof RedisQueryResultsRegion)
+                || !((RedisQueryResultsRegion) getRegion()).isPrefetchEnabled()
+                || returnTypes == null) {
+            return null;
+        }
+
+        EntityPersister[] persisters = new EntityPersister[returnTypes.length];
+        boolean found = false;
+        for (int i = 0; i < returnTypes.length; i++) {
+            if (!returnTypes[i].isEntityType() || !((EntityType) returnTypes[i]).isReferenceToPrimaryKey())
+                continue;
+
+            String entityName = ((EntityType) returnTypes[i]).getAssociatedEntityName();
+            EntityPersister persister = session.getFactory().getEntityPersister(entityName);
+            if (persister.hasCache() && persister.getCacheAccessStrategy().getRegion() instanceof RedisEntityRegion) {
+                persisters[i] = persister;
+                found = true;
+            }
+        }
+        return found ? persisters : null;
+    }
+
+    /**
+     * Get the persisters of the returned entities, or null if the query result can not be tracked.
+     * Only results which consist of entities cached in {@link RedisEntityRegion}s tracking their dependents are tracked.
+     */
+    private static EntityPersister[] getTrackedPersisters(Type[] returnTypes, SessionImplementor session) {
+        if (returnTypes == null || returnTypes.length == 0)
+            return null;
+
+        EntityPersister[] persisters = new EntityPersister[returnTypes.length];
+        for (int i = 0; i < returnTypes.length; i++) {
+            if (!returnTypes[i].isEntityType())
+                return null;
+
+            String entityName = ((EntityType) returnTypes[i]).getAssociatedEntityName();
+            EntityPersister persister = session.getFactory().getEntityPersister(entityName);
+            if (!persister.hasCache()
+                    || persister.isCacheInvalidationRequired()
+                    || persister.getIdentifierType().isComponentType()
+                    || !(persister.getCacheAccessStrategy().getRegion() instanceof RedisEntityRegion)
+                    || !((RedisEntityRegion) persister.getCacheAccessStrategy().getRegion()).isDependencyTrackingEnabled()) {
+                return null;
+            }
+            persisters[i] = persister;
+        }
+        return persisters;
+    }
+
+    /**
+     * Get the dependency keys of all entities contained in the query result
+     */
+    private static Set<String> getDependencies(Type[] returnTypes, List<?> result, SessionImplementor session) {
+        EntityPersister[] persisters = getTrackedPersisters(returnTypes, session);
+        Set<String> dependencies = new HashSet<String>();
+
+        for (Object row : result) {
+            Object[] entities = (returnTypes.length == 1) ? new Object[] { row } : (Object[]) row;
+            for (int i = 0; i < persisters.length; i++) {
+                Serializable id =
+                        ForeignKeys.getEntityIdentifierIfNotUnsaved(persisters[i].getEntityName(), entities[i], session);
+                if (id != null) {
+                    RedisEntityRegion region = (RedisEntityRegion) persisters[i].getCacheAccessStrategy().getRegion();
+                    dependencies.add(region.getDependencyKey(session.generateCacheKey(id,
+                                                                                      persisters[i].getIdentifierType(),
+                                                                                      persisters[i].getRootEntityName())));
+                }
+            }
+        }
+        return dependencies;
+    }
+
+    @Override
+    public String toString() {
+        return "RedisQueryCache(" + getRegion().getName() + ')';
+    }
+
+    /**
+     * Query spaces whose changes are tracked through the dependency index.
+     * Holds the remaining spaces which are checked against the update timestamps as usual.
+     */
+    private static final class TrackedSpaces extends HashSet<Serializable> {
+
+        private final Set<String> entityRegions = new HashSet<String>();
+
+        TrackedSpaces(Set<Serializable> spaces, EntityPersister[] persisters) {
+            super(spaces);
+            for (EntityPersister persister : persisters) {
+                entityRegions.add(persister.getCacheAccessStrategy().getRegion().getName());
+                removeAll(Arrays.asList(persister.getQuerySpaces()));
+            }
+        }
+
+        private static final long serialVersionUID = 4172893417362935122L;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.hibernate.cache.redis;
+
+import org.hibernate.cache.spi.QueryCache;
+import org.hibernate.cache.spi.QueryCacheFactory;
+import org.hibernate.cache.spi.UpdateTimestampsCache;
+import org.hibernate.cfg.Settings;
+
+import java.util.Properties;
+
+/**
+ * Factory for {@link RedisQueryCache}
+ * <p/>
+ * Configure by {@code hibernate.cache.query_cache_factory=org.hibernate.cache.redis.RedisQueryCacheFactory}
+ */
+public class RedisQueryCacheFactory implements QueryCacheFactory {
+
+    @Override
+    public QueryCache getQueryCache(String regionName,
+                                    UpdateTimestampsCache updateTimestampsCache,
+                                    Settings settings,
+                                    Properties props) {
+        return new RedisQueryCache(settings, props, updateTimestampsCache, regionName);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.hibernate.cache.redis;
+
+import org.hibernate.cache.redis.regions.RedisEntityRegion;
+import org.hibernate.event.spi.PostCommitInsertEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+
+/**
+ * Invalidates the tracked query results of an entity region when an entity is inserted.
+ * <p/>
+ * Inserts are handled by event listeners rather than access strategies,
+ * since identity inserts do not go through the second level cache at all.
+ * The region is marked stale on insert, and once more after the transaction completes
+ * (same as {@link org.hibernate.cache.spi.UpdateTimestampsCache#preInvalidate} and
+ * {@link org.hibernate.cache.spi.UpdateTimestampsCache#invalidate}).
+ *
+ * @see RedisQueryCache
+ */
+class RedisQueryInvalidationListener {
+
+    private RedisQueryInvalidationListener() {}
+
+    static RedisEntityRegion getTrackingRegion(EntityPersister persister) {
+        if (persister.hasCache() && persister.getCacheAccessStrategy().getRegion() instanceof RedisEntityRegion) {
+            RedisEntityRegion region = (RedisEntityRegion) persister.getCacheAccessStrategy().getRegion();
+            return region.isDependencyTrackingEnabled() ? region : null;
+        }
+        return null;
+    }
+
+    /**
+     * Marks the region stale while the inserting transaction is in progress
+     */
+    static class PreCommit implements PostInsertEventListener {
+
+        @Override
+        public void onPostInsert(PostInsertEvent event) {
+            RedisEntityRegion region = getTrackingRegion(event.getPersister());
+            if (region != null)
+                region.preInvalidateQueries();
+        }
+
+        @Override
+        public boolean requiresPostCommitHanding(EntityPersister persister) {
+            return false;
+        }
+
+        private static final long serialVersionUID = -3719035432093163457L;
+    }
+
+    /**
+     * Marks the region stale after the inserting transaction completes
+     */
+    static class PostCommit implements PostCommitInsertEventListener {
+
+        @Override
+        public void onPostInsert(PostInsertEvent event) {
+            RedisEntityRegion region = getTrackingRegion(event.getPersister());
+            if (region != null)
+                region.invalidateQueries();
+        }
+
+        @Override
+        public void onPostInsertCommitFailed(PostInsertEvent event) {
+            onPostInsert(event);
+        }
+
+        @Override
+        public boolean requiresPostCommitHanding(EntityPersister persister) {
+            return getTrackingRegion(persister) != null;
+        }
+
+        private static final long serialVersionUID = 6203378519627390522L;
+    }
+}
@@ -16,20 +16,34 @@
 
 package org.hibernate.cache.redis.jedis;
 
+import org.hibernate.cache.redis.serializer.CacheEntryProperties;
 import org.hibernate.cache.redis.serializer.RedisSerializer;
 import org.hibernate.cache.redis.serializer.SerializationTool;
 import org.hibernate.cache.redis.serializer.SnappyRedisSerializer;
 import org.hibernate.cache.redis.serializer.StringRedisSerializer;
+import org.hibernate.cache.redis.serializer.ValueEnvelope;
+import org.hibernate.cache.spi.entry.StandardCacheEntryImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
 import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
 import redis.clients.jedis.Transaction;
 import redis.clients.util.Pool;
+import redis.clients.util.SafeEncoder;
 
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * RedisClient implements using Jedis library
@@ -44,6 +58,396 @@ public class JedisClient {
     public static final int DEFAULT_EXPIRY_IN_SECONDS = 120;
     public static final String DEFAULT_REGION_NAME = "hibernate";
     private static final int MAX_TIMESTAMP_UPDATE_ATTEMPTS = 5;
+    private static final byte DEPENDENT_SEPARATOR = 0;
+    private static final String DICTIONARY_VERSION_FIELD = "version";
+    private static final String CLASS_NAMES_KEY = "f:classes";
+    private static final String RETIRED_REGIONS_KEY = "x:retired";
+    private static final int RECLAIM_BATCH_SIZE = 1000;
+    private static final String LEASE_PREFIX = "m:";
+    private static final String LEASE_PATTERN = LEASE_PREFIX + "*";
+    private static final byte[] LEASE_NX = SafeEncoder.encode("NX");
+    private static final byte[] LEASE_PX = SafeEncoder.encode("PX");
+    private static final int RECLAIM_MAX_BATCHES = 10;
+    /**
+     * soft lock entry : "\xE5L" timeout ':' lock id ':' lock count ':' concurrent (0/1) ':' unlock time ':' version
+     */
+    private static final String LOCK_PREFIX = "\\229L";
+    /**
+     * field of a cache entry stored by properties : "\xE5P" version, the properties are in the hash p:region:key
+     */
+    private static final String PROPERTIES_PREFIX = "\\229P";
+    private static final long PROPERTIES_MIN_TTL = 60 * 60 * 1000L;
+    private static final String LUA_PARSE_LOCK =
+            "local function parseLock(v)\n" +
+            "  return string.match(v, '^" + LOCK_PREFIX + "(%d+):(%d+):(%d+):([01]):(%d+):(%-?%d*)$')\n" +
+            "end\n";
+    private static final String LUA_RELEASE_LOCK =
+            "local function releaseLock(v)\n" +
+            "  local t, i, c, cc, u, ver = parseLock(v or '')\n" +
+            "  if t and i == ARGV[3] then\n" +
+            "    local count = tonumber(c) - 1\n" +
+            "    if count <= 0 then count = 0; u = ARGV[2] end\n" +
+            "    redis.call('HSET', KEYS[1], ARGV[1], '" + LOCK_PREFIX + "' .. t .. ':' .. i .. ':' .. count .. ':' .. cc .. ':' .. u .. ':' .. ver)\n" +
+            "    return 1\n" +
+            "  end\n" +
+            "  -- the lock timed out or was evicted: keep stale values out until the new timeout\n" +
+            "  redis.call('HSET', KEYS[1], ARGV[1], '" + LOCK_PREFIX + "' .. ARGV[4] .. ':' .. ARGV[3] .. ':0:1:' .. ARGV[4] .. ':')\n" +
+            "  redis.call('ZADD', KEYS[2], ARGV[4], ARGV[1])\n" +
+            "  return 0\n" +
+            "end\n";
+    private static final String LUA_SET_VALUE =
+            "local function setValue(value, expiration)\n" +
+            "  redis.call('HSET', KEYS[1], ARGV[1], value)\n" +
+            "  if tonumber(expiration) > 0 then\n" +
+            "    redis.call('ZADD', KEYS[2], expiration, ARGV[1])\n" +
+            "  else\n" +
+            "    redis.call('ZREM', KEYS[2], ARGV[1])\n" +
+            "  end\n" +
+            "end\n";
+    private static final String LUA_VALUE_VERSION =
+            "local function valueVersion(v)\n" +
+            "  if string.sub(v, 1, 2) == '" + PROPERTIES_PREFIX + "' then return tonumber(string.sub(v, 3)) end\n" +
+            "  if string.len(v) > 21 and string.sub(v, 1, 3) == '\\229z\\1' and math.floor(string.byte(v, 5) / 2) % 2 == 1 then\n" +
+            "    local n = 0\n" +
+            "    for k = 14, 21 do n = n * 256 + string.byte(v, k) end\n" +
+            "    return n\n" +
+            "  end\n" +
+            "  return nil\n" +
+            "end\n";
+    /**
+     * KEYS[k] : region lock
+     */
+    private static final String LUA_REGION_LOCKED =
+            "local function regionLocked(k)\n" +
+            "  return redis.call('EXISTS', KEYS[k]) == 1\n" +
+            "end\n";
+    /**
+     * track the access of the fields in the access zset {@code akey}, and evict the items of the region (KEYS[1], KEYS[2])
+     * over its bound, by the access policy ARGV[p .. p + 3] : time, decay time of the access frequency
+     * (0 to order by last access), max entries, max evictions. Returns the evicted fields.
+     * <p/>
+     * The score of a field in the access zset is its last access time, or its access frequency decayed with time,
+     * as log(sum(exp(accessTime / decay))), so the fields of the head of the zset are the ones to evict.
+     * <p/>
+     * {@code tracked} returns the result of a script which set ARGV[1], followed by the evicted fields
+     * when the access zset KEYS[k] is given (the region is bounded).
+     */
+    private static final String LUA_TRACK_ACCESS =
+            "local function trackAccess(akey, p, fields)\n" +
+            "  local now, decay = tonumber(ARGV[p]), tonumber(ARGV[p + 1])\n" +
+            "  for _, field in ipairs(fields) do\n" +
+            "    local score = now\n" +
+            "    if decay > 0 then\n" +
+            "      score = now / decay\n" +
+            "      local s = tonumber(redis.call('ZSCORE', akey, field) or '')\n" +
+            "      if s then\n" +
+            "        local hi, lo = math.max(s, score), math.min(s, score)\n" +
+            "        score = hi + math.log(1 + math.exp(lo - hi))\n" +
+            "      end\n" +
+            "    end\n" +
+            "    redis.call('ZADD', akey, score, field)\n" +
+            "  end\n" +
+            "  local evicted = {}\n" +
+            "  local excess = math.min(redis.call('ZCARD', akey) - tonumber(ARGV[p + 2]), tonumber(ARGV[p + 3]))\n" +
+            "  if excess <= 0 then return evicted end\n" +
+            "  for _, field in ipairs(redis.call('ZRANGE', akey, 0, excess - 1)) do\n" +
+            "    local v = redis.call('HGET', KEYS[1], field)\n" +
+            "    -- soft locks are kept, they are tracked again when the item is set\n" +
+            "    if v and not parseLock(v) then\n" +
+            "      redis.call('HDEL', KEYS[1], field)\n" +
+            "      redis.call('ZREM', KEYS[2], field)\n" +
+            "      evicted[#evicted + 1] = field\n" +
+            "    end\n" +
+            "    redis.call('ZREM', akey, field)\n" +
+            "  end\n" +
+            "  return evicted\n" +
+            "end\n" +
+            "local function tracked(result, k, p)\n" +
+            "  if not KEYS[k] then return result end\n" +
+            "  local reply = trackAccess(KEYS[k], p, {ARGV[1]})\n" +
+            "  table.insert(reply, 1, result)\n" +
+            "  return reply\n" +
+            "end\n";
+    /**
+     * retire the region hash and expiration zset from KEYS[r], KEYS[r + 1] under the next generation (KEYS[r + 2]),
+     * the retired keys (KEYS[r + 3]) are deleted little by little by {@link #reclaimRetiredRegions()},
+     * and the access zset (KEYS[r + 4], bounded by the max entries of the region) is deleted
+     */
+    private static final String LUA_RETIRE_REGION =
+            "local function retireRegion(r)\n" +
+            "  local generation\n" +
+            "  for i = r, r + 1 do\n" +
+            "    if redis.call('EXISTS', KEYS[i]) == 1 then\n" +
+            "      generation = generation or redis.call('INCR', KEYS[r + 2])\n" +
+            "      local retired = 'x:' .. generation .. ':' .. KEYS[i]\n" +
+            "      redis.call('RENAME', KEYS[i], retired)\n" +
+            "      redis.call('SADD', KEYS[r + 3], retired)\n" +
+            "    end\n" +
+            "  end\n" +
+            "  if KEYS[r + 4] then redis.call('DEL', KEYS[r + 4]) end\n" +
+            "  return generation or 0\n" +
+            "end\n";
+    /**
+     * KEYS : region, expiration zset, generation, retired regions, access zset
+     */
+    private static final RedisScript RETIRE_REGION_SCRIPT = new RedisScript(
+            LUA_RETIRE_REGION +
+            "return retireRegion(1)\n");
+    /**
+     * KEYS : region lock, region, expiration zset, generation, retired regions, access zset / ARGV : timeout in milliseconds
+     */
+    private static final RedisScript LOCK_REGION_SCRIPT = new RedisScript(
+            LUA_RETIRE_REGION +
+            "local count = redis.call('INCR', KEYS[1])\n" +
+            "redis.call('PEXPIRE', KEYS[1], ARGV[1])\n" +
+            "retireRegion(2)\n" +
+            "return count\n");
+    /**
+     * KEYS : region lock, region, expiration zset, generation, retired regions, access zset
+     */
+    private static final RedisScript UNLOCK_REGION_SCRIPT = new RedisScript(
+            LUA_RETIRE_REGION +
+            "if tonumber(redis.call('GET', KEYS[1]) or '0') > 1 then\n" +
+            "  redis.call('DECR', KEYS[1])\n" +
+            "  return 0\n" +
+            "end\n" +
+            "redis.call('DEL', KEYS[1])\n" +
+            "retireRegion(2)\n" +
+            "return 1\n");
+    /**
+     * KEYS : region, expiration zset, properties, region lock, access zset of a bounded region /
+     * ARGV : field, entry field, expiration, properties expiration, previous state ('' to replace all properties),
+     * state, digest, count, subclass, unfetched, version, the access policy of a bounded region,
+     * then the changed properties (index, value)
+     */
+    private static final RedisScript SET_PROPERTIES_SCRIPT = new RedisScript(
+            LUA_PARSE_LOCK + LUA_SET_VALUE + LUA_REGION_LOCKED + LUA_TRACK_ACCESS +
+            "if regionLocked(4) then return 0 end\n" +
+            "if ARGV[5] ~= '' then\n" +
+            "  local v = redis.call('HGET', KEYS[1], ARGV[1])\n" +
+            "  if not v or string.sub(v, 1, 2) ~= '" + PROPERTIES_PREFIX + "'\n" +
+            "      or redis.call('HGET', KEYS[3], '" + CacheEntryProperties.STATE_FIELD + "') ~= ARGV[5] then\n" +
+            "    return 0\n" +
+            "  end\n" +
+            "else\n" +
+            "  redis.call('DEL', KEYS[3])\n" +
+            "end\n" +
+            "redis.call('HMSET', KEYS[3], '" + CacheEntryProperties.STATE_FIELD + "', ARGV[6], '" +
+            CacheEntryProperties.DIGEST_FIELD + "', ARGV[7], '" + CacheEntryProperties.COUNT_FIELD + "', ARGV[8], '" +
+            CacheEntryProperties.SUBCLASS_FIELD + "', ARGV[9], '" + CacheEntryProperties.UNFETCHED_FIELD + "', ARGV[10], '" +
+            CacheEntryProperties.VERSION_FIELD + "', ARGV[11])\n" +
+            "for i = KEYS[5] and 16 or 12, #ARGV, 2 do\n" +
+            "  redis.call('HSET', KEYS[3], ARGV[i], ARGV[i + 1])\n" +
+            "end\n" +
+            "redis.call('PEXPIREAT', KEYS[3], ARGV[4])\n" +
+            "setValue(ARGV[2], ARGV[3])\n" +
+            "return tracked(1, 5, 12)\n");
+    /**
+     * KEYS : region, properties / ARGV : field, properties expiration
+     */
+    private static final RedisScript GET_PROPERTIES_SCRIPT = new RedisScript(
+            "local v = redis.call('HGET', KEYS[1], ARGV[1])\n" +
+            "if not v then return {} end\n" +
+            "if string.sub(v, 1, 2) ~= '" + PROPERTIES_PREFIX + "' then return {v} end\n" +
+            "redis.call('PEXPIREAT', KEYS[2], ARGV[2])\n" +
+            "return {v, redis.call('HGETALL', KEYS[2])}\n");
+    /**
+     * KEYS : aggregate region, expiration zset, then the region of each member /
+     * ARGV : field, expiration, then the field of each member (ARGV[i] for KEYS[i])
+     * <p/>
+     * the aggregate entry is the list of (region, field, value) of its members, each as length ':' bytes
+     */
+    private static final RedisScript SET_AGGREGATE_SCRIPT = new RedisScript(
+            LUA_PARSE_LOCK + LUA_SET_VALUE +
+            "local parts = {}\n" +
+            "for i = 3, #KEYS do\n" +
+            "  local v = redis.call('HGET', KEYS[i], ARGV[i])\n" +
+            "  if not v or parseLock(v) or string.sub(v, 1, 2) == '" + PROPERTIES_PREFIX + "' then return false end\n" +
+            "  for _, s in ipairs({KEYS[i], ARGV[i], v}) do\n" +
+            "    parts[#parts + 1] = string.len(s) .. ':' .. s\n" +
+            "  end\n" +
+            "end\n" +
+            "local value = table.concat(parts)\n" +
+            "setValue(value, ARGV[2])\n" +
+            "return value\n");
+    /**
+     * KEYS : region, expiration zset, access zset /
+     * ARGV : expiration time to set (0 to keep it), the access policy ({@link #LUA_TRACK_ACCESS}), fields...
+     */
+    private static final RedisScript ACCESS_SCRIPT = new RedisScript(
+            LUA_PARSE_LOCK + LUA_TRACK_ACCESS +
+            "local fields = {}\n" +
+            "for i = 6, #ARGV do\n" +
+            "  fields[#fields + 1] = ARGV[i]\n" +
+            "  if tonumber(ARGV[1]) > 0 then redis.call('ZADD', KEYS[2], ARGV[1], ARGV[i]) end\n" +
+            "end\n" +
+            "return trackAccess(KEYS[3], 2, fields)\n");
+    /**
+     * KEYS : region, expiration zset, region lock, access zset of a bounded region /
+     * ARGV : field, value, expiration, the access policy of a bounded region
+     */
+    private static final RedisScript SET_SCRIPT = new RedisScript(
+            LUA_PARSE_LOCK + LUA_SET_VALUE + LUA_REGION_LOCKED + LUA_TRACK_ACCESS +
+            "if regionLocked(3) then return 0 end\n" +
+            "setValue(ARGV[2], ARGV[3])\n" +
+            "return tracked(1, 4, 4)\n");
+    /**
+     * KEYS : region, expiration zset, dependency indexes (n), dependency invalidation times (n),
+     * access zset of a bounded region /
+     * ARGV : field, value, expiration, timestamp, dependent, dependency index timeout in seconds, n,
+     * the access policy of a bounded region
+     */
+    private static final RedisScript SET_DEPENDENT_SCRIPT = new RedisScript(
+            LUA_PARSE_LOCK + LUA_SET_VALUE + LUA_TRACK_ACCESS +
+            "local n = tonumber(ARGV[7])\n" +
+            "for i = 1, n do\n" +
+            "  if tonumber(redis.call('GET', KEYS[2 + n + i]) or '0') >= tonumber(ARGV[4]) then return 0 end\n" +
+            "end\n" +
+            "for i = 1, n do\n" +
+            "  redis.call('SADD', KEYS[2 + i], ARGV[5])\n" +
+            "  if tonumber(ARGV[6]) > 0 then redis.call('EXPIRE', KEYS[2 + i], ARGV[6]) end\n" +
+            "end\n" +
+            "setValue(ARGV[2], ARGV[3])\n" +
+            "return tracked(1, 3 + 2 * n, 8)\n");
+    /**
+     * KEYS : invalidation time and index of each dependency (KEYS[i], KEYS[i + 1]) /
+     * ARGV : timestamp, time to keep the invalidation time
+     */
+    private static final RedisScript INVALIDATE_DEPENDENCY_SCRIPT = new RedisScript(
+            "local dependents = {}\n" +
+            "for i = 1, #KEYS, 2 do\n" +
+            "  if tonumber(ARGV[1]) > tonumber(redis.call('GET', KEYS[i]) or '0') then\n" +
+            "    redis.call('SET', KEYS[i], ARGV[1], 'PX', ARGV[2])\n" +
+            "  else\n" +
+            "    redis.call('PEXPIRE', KEYS[i], ARGV[2])\n" +
+            "  end\n" +
+            "  for _, dependent in ipairs(redis.call('SMEMBERS', KEYS[i + 1])) do\n" +
+            "    dependents[#dependents + 1] = dependent\n" +
+            "  end\n" +
+            "end\n" +
+            "return dependents\n");
+    /**
+     * KEYS : region, expiration zset, access zset of a bounded region /
+     * ARGV : field, expiration time when the item was picked for early expiration
+     */
+    private static final RedisScript EXPIRE_EARLY_SCRIPT = new RedisScript(
+            "if tonumber(redis.call('ZSCORE', KEYS[2], ARGV[1])) ~= tonumber(ARGV[2]) then return 0 end\n" +
+            "redis.call('HDEL', KEYS[1], ARGV[1])\n" +
+            "redis.call('ZREM', KEYS[2], ARGV[1])\n" +
+            "if KEYS[3] then redis.call('ZREM', KEYS[3], ARGV[1]) end\n" +
+            "return 1\n");
+    /**
+     * KEYS : miss lease, which is also the channel notified of its release
+     */
+    private static final RedisScript RELEASE_LEASE_SCRIPT = new RedisScript(
+            "if redis.call('DEL', KEYS[1]) == 1 then\n" +
+            "  redis.call('PUBLISH', KEYS[1], '1')\n" +
+            "end\n" +
+            "return 1\n");
+    /**
+     * KEYS : region, expiration zset, access zset of a bounded region /
+     * ARGV : field, digest of the value ({@link ValueEnvelope#digest}), expiration, the access policy of a bounded region
+     */
+    private static final RedisScript TOUCH_IF_UNCHANGED_SCRIPT = new RedisScript(
+            LUA_PARSE_LOCK + LUA_TRACK_ACCESS +
+            "local v = redis.call('HGET', KEYS[1], ARGV[1])\n" +
+            "if not v then return 0 end\n" +
+            "if string.len(v) > 21 and string.sub(v, 1, 3) == '\\229z\\1' then\n" +
+            "  v = string.sub(v, 1, 5) .. string.sub(v, 14)\n" +
+            "end\n" +
+            "if redis.sha1hex(v) ~= ARGV[2] then return 0 end\n" +
+            "if tonumber(ARGV[3]) > 0 then\n" +
+            "  redis.call('ZADD', KEYS[2], ARGV[3], ARGV[1])\n" +
+            "end\n" +
+            "return tracked(1, 3, 4)\n");
+    /**
+     * KEYS : region, expiration zset, properties hash of the item in a region storing entries by properties /
+     * ARGV : field, timestamp, timeout, new lock id, version
+     */
+    private static final RedisScript LOCK_SCRIPT = new RedisScript(
+            LUA_PARSE_LOCK +
+            "local v = redis.call('HGET', KEYS[1], ARGV[1])\n" +
+            "local id, count, concurrent, version = ARGV[4], 0, 0, ARGV[5]\n" +
+            "if v then\n" +
+            "  local t, i, c, cc, u, ver = parseLock(v)\n" +
+            "  if t then\n" +
+            "    concurrent = 1\n" +
+            "    if tonumber(t) >= tonumber(ARGV[2]) and tonumber(c) > 0 then\n" +
+            "      id, count, version = i, tonumber(c), ver\n" +
+            "    end\n" +
+            "  end\n" +
+            "end\n" +
+            "redis.call('HSET', KEYS[1], ARGV[1], '" + LOCK_PREFIX + "' .. ARGV[3] .. ':' .. id .. ':' .. (count + 1) .. ':' .. concurrent .. ':0:' .. version)\n" +
+            "redis.call('ZADD', KEYS[2], ARGV[3], ARGV[1])\n" +
+            "if KEYS[3] then redis.call('DEL', KEYS[3]) end\n" +
+            "return id\n");
+    /**
+     * ARGV : field, timestamp, lock id, timeout
+     */
+    private static final RedisScript UNLOCK_SCRIPT = new RedisScript(
+            LUA_PARSE_LOCK + LUA_RELEASE_LOCK +
+            "return releaseLock(redis.call('HGET', KEYS[1], ARGV[1]))\n");
+    /**
+     * KEYS : region, expiration zset, region lock, access zset of a bounded region /
+     * ARGV : field, timestamp, lock id, timeout, value, expiration, the access policy of a bounded region
+     */
+    private static final RedisScript UNLOCK_AND_SET_SCRIPT = new RedisScript(
+            LUA_PARSE_LOCK + LUA_RELEASE_LOCK + LUA_SET_VALUE + LUA_REGION_LOCKED + LUA_TRACK_ACCESS +
+            "local v = redis.call('HGET', KEYS[1], ARGV[1])\n" +
+            "local t, i, c, cc = parseLock(v or '')\n" +
+            "if t and i == ARGV[3] and cc == '0' and not regionLocked(3) then\n" +
+            "  setValue(ARGV[5], ARGV[6])\n" +
+            "  return tracked(1, 4, 7)\n" +
+            "end\n" +
+            "releaseLock(v)\n" +
+            "return 0\n");
+    /**
+     * KEYS : region, expiration zset, region lock, access zset of a bounded region /
+     * ARGV : field, transaction timestamp, value, expiration, version, minimal put (0/1), the access policy of a bounded region
+     */
+    private static final RedisScript SET_IF_WRITEABLE_SCRIPT = new RedisScript(
+            LUA_PARSE_LOCK + LUA_SET_VALUE + LUA_VALUE_VERSION + LUA_REGION_LOCKED + LUA_TRACK_ACCESS +
+            "if regionLocked(3) then return 0 end\n" +
+            "local v = redis.call('HGET', KEYS[1], ARGV[1])\n" +
+            "if v then\n" +
+            "  if ARGV[6] == '1' then return 0 end\n" +
+            "  local t, i, c, cc, u, ver = parseLock(v)\n" +
+            "  if t then\n" +
+            "    local ts = tonumber(ARGV[2])\n" +
+            "    if ts <= tonumber(t) then\n" +
+            "      if tonumber(c) > 0 then return 0 end\n" +
+            "      if ver ~= '' and ARGV[5] ~= '' then\n" +
+            "        if tonumber(ARGV[5]) <= tonumber(ver) then return 0 end\n" +
+            "      elseif ts <= tonumber(u) then\n" +
+            "        return 0\n" +
+            "      end\n" +
+            "    end\n" +
+            "  else\n" +
+            "    local current = valueVersion(v)\n" +
+            "    if ARGV[5] == '' or current == nil or tonumber(ARGV[5]) <= current then return 0 end\n" +
+            "  end\n" +
+            "end\n" +
+            "setValue(ARGV[3], ARGV[4])\n" +
+            "return tracked(1, 4, 7)\n");
+    /**
+     * KEYS : region, expiration zset, region lock, access zset of a bounded region /
+     * ARGV : field, value, expiration, version, minimal put (0/1), the access policy of a bounded region
+     */
+    private static final RedisScript SET_IF_ABSENT_OR_NEWER_SCRIPT = new RedisScript(
+            LUA_PARSE_LOCK + LUA_SET_VALUE + LUA_VALUE_VERSION + LUA_REGION_LOCKED + LUA_TRACK_ACCESS +
+            "if regionLocked(3) then return 0 end\n" +
+            "if ARGV[5] == '1' then\n" +
+            "  if redis.call('HEXISTS', KEYS[1], ARGV[1]) == 1 then return 0 end\n" +
+            "elseif ARGV[4] ~= '' then\n" +
+            "  local v = redis.call('HGET', KEYS[1], ARGV[1])\n" +
+            "  if v then\n" +
+            "    if parseLock(v) then return 0 end\n" +
+            "    local current = valueVersion(v)\n" +
+            "    if current and tonumber(ARGV[4]) <= current then return 0 end\n" +
+            "  end\n" +
+            "end\n" +
+            "setValue(ARGV[2], ARGV[3])\n" +
+            "return tracked(1, 4, 6)\n");
     private static final Logger log = LoggerFactory.getLogger(JedisClient.class);
 
     private final Pool<Jedis> jedisPool;
@@ -52,7 +456,37 @@ public class JedisClient {
 
     private final StringRedisSerializer regionSerializer = new StringRedisSerializer();
     private final StringRedisSerializer keySerializer = new StringRedisSerializer();
-    private final RedisSerializer<Object> valueSerializer = new SnappyRedisSerializer<Object>();
+    private volatile RedisSerializer<Object> valueSerializer = new SnappyRedisSerializer<Object>();
+    private final ConcurrentMap<String, RedisSerializer<Object>> regionValueSerializers =
+            new ConcurrentHashMap<String, RedisSerializer<Object>>();
+    private final ConcurrentMap<Integer, RedisSerializer<Object>> codecs =
+            new ConcurrentHashMap<Integer, RedisSerializer<Object>>();
+    private final ConcurrentMap<RedisSerializer<Object>, Integer> codecIds =
+            new ConcurrentHashMap<RedisSerializer<Object>, Integer>();
+    private volatile boolean envelope;
+    private final ConcurrentMap<String, Map<String, String>> writeDigests =
+            new ConcurrentHashMap<String, Map<String, String>>();
+    private final ConcurrentMap<String, Map<String, byte[]>> propertyDigests =
+            new ConcurrentHashMap<String, Map<String, byte[]>>();
+    /**
+     * fraction of the expiration timeout randomly taken off when an item is written, by region name
+     */
+    private final ConcurrentMap<String, Double> expiryJitters = new ConcurrentHashMap<String, Double>();
+    /**
+     * expected reload time multiplied by the early expiration factor in milliseconds, by region name
+     */
+    private final ConcurrentMap<String, Double> earlyExpirations = new ConcurrentHashMap<String, Double>();
+    private final ConcurrentMap<String, EvictionPolicy> evictionPolicies = new ConcurrentHashMap<String, EvictionPolicy>();
+    private final AtomicLong lockIds = new AtomicLong(new SecureRandom().nextLong() >>> 2);
+    /**
+     * misses waiting for the release of a lease, by lease key
+     */
+    private final Map<String, List<CountDownLatch>> leaseWaiters = new HashMap<String, List<CountDownLatch>>();
+    private LeaseSubscriber leaseSubscriber;
+    /**
+     * pool of the connection held by the lease subscription, null to take it from the pool of the commands
+     */
+    private volatile Pool<Jedis> subscriptionPool;
 
     public JedisClient() {
         this(new JedisPool("localhost"), DEFAULT_EXPIRY_IN_SECONDS);
@@ -87,6 +521,152 @@ public class JedisClient {
         this.expiryInSeconds = expiryInSeconds;
     }
 
+    /**
+     * Set the pool of the connection held by the subscription to lease releases ({@link #awaitLease}),
+     * which is destroyed with this client. If not set, the subscription holds a connection of the pool of the commands.
+     */
+    public void setSubscriptionPool(Pool<Jedis> subscriptionPool) {
+        this.subscriptionPool = subscriptionPool;
+    }
+
+    /**
+     * get the value serializer of the specified region
+     *
+     * @param region region name
+     * @return the serializer set for the region, or the default value serializer
+     */
+    public RedisSerializer<Object> getValueSerializer(final String region) {
+        RedisSerializer<Object> serializer = (region != null) ? regionValueSerializers.get(region) : null;
+        return (serializer != null) ? serializer : valueSerializer;
+    }
+
+    /**
+     * set the default value serializer used by regions without their own serializer
+     */
+    public void setValueSerializer(final RedisSerializer<Object> valueSerializer) {
+        assert (valueSerializer != null);
+        this.valueSerializer = valueSerializer;
+    }
+
+    /**
+     * set the value serializer of the specified region
+     */
+    public void setValueSerializer(final String region, final RedisSerializer<Object> valueSerializer) {
+        assert (valueSerializer != null);
+        log.debug("set value serializer. region=[{}], serializer=[{}]", region, valueSerializer);
+        regionValueSerializers.put(region, valueSerializer);
+    }
+
+    public boolean isEnvelope() {
+        return envelope;
+    }
+
+    /**
+     * write values in a {@link ValueEnvelope}. values with or without envelope are read either way.
+     */
+    public void setEnvelope(boolean envelope) {
+        this.envelope = envelope;
+    }
+
+    /**
+     * register the serializer of the specified codec id, written in the {@link ValueEnvelope} of values.
+     * values written by another codec than the serializer of their region are read by the first serializer
+     * registered for the codec.
+     *
+     * @param codecId    codec id (1 ~ 255)
+     * @param serializer serializer of the codec
+     */
+    public void setCodec(final int codecId, final RedisSerializer<Object> serializer) {
+        assert (codecId > 0 && codecId < 256 && serializer != null);
+        log.debug("set codec. codecId=[{}], serializer=[{}]", codecId, serializer);
+        codecs.putIfAbsent(codecId, serializer);
+        codecIds.put(serializer, codecId);
+    }
+
+    /**
+     * Skip writing the values of the region which are unchanged since this client wrote them :
+     * the digests of the last written values are kept for the specified number of keys, and when the same value
+     * is set again, only its digest is sent, and the expiration is updated if the cached value still matches it.
+     *
+     * @param region  region name
+     * @param maxSize max number of keys whose digest is kept, 0 to write all values
+     */
+    public void setWriteDigests(final String region, final int maxSize) {
+        if (maxSize > 0) {
+            writeDigests.put(region, JedisClient.<String>newDigestCache(maxSize));
+        } else {
+            writeDigests.remove(region);
+        }
+    }
+
+    /**
+     * Store the entity cache entries of the region as one hash per entity, with a field per property
+     * ({@link CacheEntryProperties}), so that setting a new state writes only the properties which changed.
+     * The digests of the states last written or read are kept for the specified number of keys;
+     * the properties of an entry whose state is unknown, or was changed by another client, are all written.
+     *
+     * @param region  region name
+     * @param maxSize max number of keys whose state digest is kept, 0 to store entries as single values
+     */
+    public void setPropertyHashes(final String region, final int maxSize) {
+        if (maxSize > 0) {
+            propertyDigests.put(region, JedisClient.<byte[]>newDigestCache(maxSize));
+        } else {
+            propertyDigests.remove(region);
+        }
+    }
+
+    /**
+     * Randomly shorten the expiration timeout of the items written to the region by up to the specified fraction,
+     * so that items loaded together don't expire together.
+     *
+     * @param region region name
+     * @param jitter fraction of the expiration timeout, 0 to expire items after the exact timeout
+     */
+    public void setExpiryJitter(final String region, final double jitter) {
+        if (jitter > 0) {
+            expiryJitters.put(region, Math.min(jitter, 1.0));
+        } else {
+            expiryJitters.remove(region);
+        }
+    }
+
+    /**
+     * Expire the items of the region probabilistically before their expiration time (XFetch) :
+     * an item read {@code t} milliseconds before it expires is removed and read as missing when
+     * {@code -reloadMillis * beta * ln(random) >= t}, so reads of items close to expiration reload them one by one.
+     *
+     * @param region       region name
+     * @param reloadMillis expected time to reload an item, 0 to expire items only after their expiration time
+     * @param beta         early expiration factor, greater than 1 to favor earlier reloads
+     */
+    public void setEarlyExpiration(final String region, final long reloadMillis, final double beta) {
+        if (reloadMillis > 0 && beta > 0) {
+            earlyExpirations.put(region, reloadMillis * beta);
+        } else {
+            earlyExpirations.remove(region);
+        }
+    }
+
+    /**
+     * Bound the number of items of the region : the accesses of its items are tracked in the zset a:region,
+     * and each write evicts at most {@code maxEvictions} of the least recently (or least frequently) used items
+     * over {@code maxEntries}.
+     *
+     * @param region       region name
+     * @param maxEntries   max number of items, 0 for no bound
+     * @param decayMillis  time after which the weight of an access is divided by e to order items by frequency (LFU),
+     *                     0 to order them by last access (LRU)
+     * @param maxEvictions max number of items evicted by a write
+     */
+    public void setEvictionPolicy(final String region, final int maxEntries, final long decayMillis, final int maxEvictions) {
+        if (maxEntries > 0) {
+            evictionPolicies.put(region, new EvictionPolicy(maxEntries, decayMillis, Math.max(maxEvictions, 1)));
+        } else {
+            evictionPolicies.remove(region);
+        }
+    }
+
     /**
      * ping test for server alive
      */
@@ -152,41 +732,130 @@ public class JedisClient {
         final byte[] rawRegion = rawRegion(region);
         final byte[] rawKey = rawKey(key);
 
+        final List<?> properties;
+        final byte[] rawValue;
+        if (propertyDigests.containsKey(region)) {
+            final List<byte[]> keys = Arrays.asList(rawRegion, rawPkey(region, rawKey));
+            final List<byte[]> args = Arrays.asList(rawKey, rawNumber(getPropertiesExpiration(region, expirationInSeconds)));
+            List<?> result = run(new JedisCallback<List<?>>() {
+                @Override
+                public List<?> execute(Jedis jedis) {
+                    return (List<?>) GET_PROPERTIES_SCRIPT.eval(jedis, keys, args);
+                }
+            });
+            rawValue = (result != null && !result.isEmpty()) ? (byte[]) result.get(0) : null;
+            properties = (result != null && result.size() > 1) ? (List<?>) result.get(1) : null;
+        } else {
+            properties = null;
+            rawValue = run(new JedisCallback<byte[]>() {
+                @Override
+                public byte[] execute(Jedis jedis) {
+                    return jedis.hget(rawRegion, rawKey);
+                }
+            });
+        }
+
         // NOTE: expire 된 캐시 정보라면 삭제하고, null 값을 반환합니다.
-        if (expirationInSeconds > 0 && isExpired(region, key)) {
+        // the expiration time of z: is never earlier than the one written in the envelope, so it is checked only after that
+        if (rawValue != null && rawValue.length > 0
+                && expirationInSeconds > 0 && !isLive(rawValue) && isExpired(region, key)) {
             runWithPipeline(new JedisPipelinedCallback() {
                 @Override
                 public void execute(Pipeline pipeline) {
                     final byte[] rawZkey = rawZkey(region);
                     pipeline.zrem(rawZkey, rawKey);
                     pipeline.hdel(rawRegion, rawKey);
+                    if (evictionPolicies.containsKey(region)) {
+                        pipeline.zrem(rawAkey(region), rawKey);
+                    }
                 }
             });
             return null;
         }
 
-        byte[] rawValue = run(new JedisCallback<byte[]>() {
-            @Override
-            public byte[] execute(Jedis jedis) {
-                return jedis.hget(rawRegion, rawKey);
-            }
-        });
+        if (rawValue != null && rawValue.length > 0 && expirationInSeconds > 0 && !isLock(rawValue)
+                && earlyExpirations.containsKey(region) && expireEarly(region, rawKey)) {
+            return null;
+        }
 
         // after get, update expiration time
-        if (rawValue != null && rawValue.length > 0) {
-            if (expirationInSeconds > 0 && !region.contains("UpdateTimestampsCache")) {
+        if (rawValue != null && rawValue.length > 0 && !isLock(rawValue)) {
+            // jittered as when the item is written, so the items written together don't expire together
+            final long score = getExpiration(region, expirationInSeconds);
+            if (evictionPolicies.containsKey(region)) {
+                // the expiration time is updated by the script tracking the access
+                touch(region, score, rawKey);
+            } else if (score > 0) {
                 run(new JedisCallback<Object>() {
                     @Override
                     public Object execute(Jedis jedis) {
-                        final byte[] rawZkey = rawZkey(region);
-                        final long score = System.currentTimeMillis() + expirationInSeconds * 1000L;
-                        return jedis.zadd(rawZkey, score, rawKey);
+                        return jedis.zadd(rawZkey(region), score, rawKey);
                     }
                 });
             }
         }
 
-        return deserializeValue(rawValue);
+        if (isPropertiesField(rawValue)) {
+            Map<String, byte[]> fields = new HashMap<String, byte[]>();
+            if (properties != null) {
+                for (int i = 0; i + 1 < properties.size(); i += 2) {
+                    fields.put(keySerializer.deserialize((byte[]) properties.get(i)), (byte[]) properties.get(i + 1));
+                }
+            }
+            return readProperties(region, key.toString(), fields);
+        }
+        return deserializeValue(region, rawValue);
+    }
+
+    /**
+     * whether the value is in an envelope whose expiration time has not passed yet
+     */
+    private static boolean isLive(final byte[] rawValue) {
+        if (!ValueEnvelope.isEnvelope(rawValue))
+            return false;
+        long expiration = ValueEnvelope.getExpiration(rawValue);
+        return expiration > 0 && System.currentTimeMillis() <= expiration;
+    }
+
+    /**
+     * remove the cache item if it is picked for early expiration ({@link #setEarlyExpiration}),
+     * unless its expiration time changed since it was checked (e.g. it was written or locked)
+     *
+     * @return true if the item is removed
+     */
+    private boolean expireEarly(final String region, final byte[] rawKey) {
+        final byte[] rawZkey = rawZkey(region);
+        Double timestamp = run(new JedisCallback<Double>() {
+            @Override
+            public Double execute(Jedis jedis) {
+                return jedis.zscore(rawZkey, rawKey);
+            }
+        });
+        return expireEarly(region, rawKey, timestamp);
+    }
+
+    /**
+     * remove the cache item if it is picked for early expiration, by the expiration time read with it
+     *
+     * @param timestamp expiration time of the item, null if it has none
+     * @return true if the item is removed
+     */
+    private boolean expireEarly(final String region, final byte[] rawKey, final Double timestamp) {
+        final Double earlyExpiration = earlyExpirations.get(region);
+        if (earlyExpiration == null || timestamp == null)
+            return false;
+
+        final double remaining = timestamp - System.currentTimeMillis();
+        final double random = 1.0 - ThreadLocalRandom.current().nextDouble();  // (0, 1]
+        if (-earlyExpiration * Math.log(random) < remaining)
+            return false;
+
+        final List<byte[]> keys = new ArrayList<byte[]>(Arrays.asList(rawRegion(region), rawZkey(region)));
+        if (evictionPolicies.containsKey(region)) {
+            keys.add(rawAkey(region));
+        }
+        final List<byte[]> args = Arrays.asList(rawKey, rawNumber(timestamp.longValue()));
+        return evalBoolean(EXPIRE_EARLY_SCRIPT, keys, args);
     }
 
     private Boolean isExpired(final String region, final Object key) {
@@ -255,11 +924,17 @@ public class JedisClient {
             }
         });
 
-        Map<Object, Object> map = new HashMap<Object, Object>();
+        List<byte[]> rawKeys = new ArrayList<byte[]>(rawMap.size());
+        List<byte[]> rawValues = new ArrayList<byte[]>(rawMap.size());
         for (Map.Entry<byte[], byte[]> entry : rawMap.entrySet()) {
-            Object key = deserializeKey(entry.getKey());
-            Object value = deserializeValue(entry.getValue());
-            map.put(key, value);
+            rawKeys.add(entry.getKey());
+            rawValues.add(entry.getValue());
+        }
+        List<Object> values = resolveProperties(region, rawKeys, rawValues, deserializeValues(region, rawValues));
+
+        Map<Object, Object> map = new HashMap<Object, Object>(rawMap.size() * 4 / 3 + 1);
+        for (int i = 0; i < rawKeys.size(); i++) {
+            map.put(deserializeKey(rawKeys.get(i)), values.get(i));
         }
         return map;
     }
@@ -281,7 +956,124 @@ public class JedisClient {
                 return jedis.hmget(rawRegion, rawKeys);
             }
         });
-        return deserializeValues(rawValues);
+        touchFound(region, rawKeys, rawValues);
+        return resolveProperties(region, Arrays.asList(rawKeys), rawValues, deserializeValues(region, rawValues));
+    }
+
+    /**
+     * multiple get cache items in specified region, in one pipeline.
+     * like {@link #get(String, Object, int)}, expired items (or the ones picked for early expiration) are returned as null
+     * and expiration time of found items is updated.
+     *
+     * @param region              region name
+     * @param keys                cache key collection to retrieve
+     * @param expirationInSeconds expiration timeout in seconds
+     * @return cache items (same order with keys)
+     */
+    public List<Object> mget(final String region, final Collection<?> keys, final int expirationInSeconds) {
+        if (expirationInSeconds <= 0)
+            return mget(region, keys);
+
+        return mget(Collections.singletonMap(region, keys),
+                    Collections.singletonMap(region, expirationInSeconds)).get(region);
+    }
+
+    /**
+     * multiple get cache items in several regions, in one pipeline.
+     * like {@link #get(String, Object, int)}, expired items (or the ones picked for early expiration) are returned as null
+     * and expiration time of found items is updated.
+     *
+     * @param keysByRegion         cache key collections to retrieve by region name
+     * @param expirationsInSeconds expiration timeout in seconds by region name
+     * @return cache items by region name (same order with keys)
+     */
+    public Map<String, List<Object>> mget(final Map<String, ? extends Collection<?>> keysByRegion,
+                                          final Map<String, Integer> expirationsInSeconds) {
+        final List<String> regions = new ArrayList<String>(keysByRegion.keySet());
+        final List<byte[][]> rawKeys = new ArrayList<byte[][]>(regions.size());
+        final List<Response<List<byte[]>>> responses = new ArrayList<Response<List<byte[]>>>(regions.size());
+        final List<List<Response<Double>>> scores = new ArrayList<List<Response<Double>>>(regions.size());
+
+        for (String region : regions) {
+            rawKeys.add(rawKeys(keysByRegion.get(region)));
+        }
+
+        runWithPipeline(new JedisPipelinedCallback() {
+            @Override
+            public void execute(Pipeline pipeline) {
+                for (int r = 0; r < regions.size(); r++) {
+                    final String region = regions.get(r);
+                    responses.add(pipeline.hmget(rawRegion(region), rawKeys.get(r)));
+
+                    List<Response<Double>> regionScores = new ArrayList<Response<Double>>();
+                    if (getExpiration(expirationsInSeconds, region) > 0) {
+                        final byte[] rawZkey = rawZkey(region);
+                        for (byte[] rawKey : rawKeys.get(r)) {
+                            regionScores.add(pipeline.zscore(rawZkey, rawKey));
+                        }
+                    }
+                    scores.add(regionScores);
+                }
+            }
+        });
+
+        final long now = System.currentTimeMillis();
+        final Map<String, List<byte[]>> foundKeys = new HashMap<String, List<byte[]>>();
+        final Map<String, List<Object>> values = new HashMap<String, List<Object>>(regions.size());
+
+        for (int r = 0; r < regions.size(); r++) {
+            final String region = regions.get(r);
+            final byte[][] regionKeys = rawKeys.get(r);
+            final List<byte[]> rawValues = new ArrayList<byte[]>(responses.get(r).get());
+            final List<Response<Double>> regionScores = scores.get(r);
+
+            if (!regionScores.isEmpty()) {
+                final List<byte[]> found = new ArrayList<byte[]>(regionKeys.length);
+                for (int i = 0; i < regionKeys.length; i++) {
+                    Double timestamp = regionScores.get(i).get();
+                    if (timestamp != null && now > timestamp.longValue()) {
+                        // NOTE: expired items are removed by #get or expiration thread
+                        rawValues.set(i, null);
+                    } else if (rawValues.get(i) != null && rawValues.get(i).length > 0 && !isLock(rawValues.get(i))) {
+                        if (expireEarly(region, regionKeys[i], timestamp)) {
+                            rawValues.set(i, null);
+                        } else {
+                            found.add(regionKeys[i]);
+                        }
+                    }
+                }
+                if (!found.isEmpty() && !region.contains("UpdateTimestampsCache")) {
+                    foundKeys.put(region, found);
+                }
+            }
+            touchFound(region, regionKeys, rawValues);
+            values.put(region, resolveProperties(region, Arrays.asList(regionKeys), rawValues,
+                                                 deserializeValues(region, rawValues)));
+        }
+
+        // after get, update expiration time
+        if (!foundKeys.isEmpty()) {
+            runWithPipeline(new JedisPipelinedCallback() {
+                @Override
+                public void execute(Pipeline pipeline) {
+                    for (Map.Entry<String, List<byte[]>> entry : foundKeys.entrySet()) {
+                        final String region = entry.getKey();
+                        final byte[] rawZkey = rawZkey(region);
+                        final int expirationInSeconds = getExpiration(expirationsInSeconds, region);
+                        for (byte[] rawKey : entry.getValue()) {
+                            // jittered by item, as in #get
+                            pipeline.zadd(rawZkey, getExpiration(region, expirationInSeconds), rawKey);
+                        }
+                    }
+                }
+            });
+        }
+        return values;
+    }
+
+    private static int getExpiration(final Map<String, Integer> expirationsInSeconds, final String region) {
+        Integer expiration = expirationsInSeconds.get(region);
+        return (expiration != null) ? expiration : 0;
     }
 
     /**
@@ -308,7 +1100,7 @@ public class JedisClient {
     }
 
     /**
-     * save cache item
+     * save cache item, unless the region is locked ({@link #lockRegion})
      *
      * @param region  region name
      * @param key     cache key to save
@@ -319,46 +1111,323 @@ public class JedisClient {
     public void set(final String region, final Object key, final Object value, long timeout, TimeUnit unit) {
         final byte[] rawRegion = rawRegion(region);
         final byte[] rawKey = rawKey(key);
-        final byte[] rawValue = rawValue(value);
-        final int seconds = (int) unit.toSeconds(timeout);
+        final long expiration = getExpiration(region, (int) unit.toSeconds(timeout));
 
-        runWithTx(new JedisTransactionalCallback() {
-            @Override
-            public void execute(Transaction tx) {
-                tx.hset(rawRegion, rawKey, rawValue);
-                if (seconds > 0 && !region.contains("UpdateTimestampsCache")) {
-                    final byte[] rawZkey = rawZkey(region);
-                    final long score = System.currentTimeMillis() + seconds * 1000L;
-                    tx.zadd(rawZkey, score, rawKey);
+        final Map<String, byte[]> states = propertyDigests.get(region);
+        if (states != null && CacheEntryProperties.isSupported(value)) {
+            setProperties(region, key, (StandardCacheEntryImpl) value, expiration,
+                          getPropertiesExpiration(region, (int) unit.toSeconds(timeout)), states);
+            return;
+        }
+
+        final byte[] rawValue = rawValue(region, value, expiration);
+
+        final Map<String, String> digests = writeDigests.get(region);
+        String digest = null;
+        if (digests != null && rawValue != null) {
+            digest = ValueEnvelope.digest(rawValue);
+            if (digest.equals(digests.get(key.toString()))) {
+                final List<byte[]> keys = newList(rawRegion, rawZkey(region));
+                final List<byte[]> args = newList(rawKey, rawKey(digest), rawNumber(expiration));
+                if (evalTracked(region, TOUCH_IF_UNCHANGED_SCRIPT, keys, args)) {
+                    return;
                 }
             }
-        });
+        }
+
+        // rejected while the region is locked, as the other writes
+        evalTracked(region, SET_SCRIPT, newList(rawRegion, rawZkey(region), rawLkey(region)),
+                    newList(rawKey, rawValue, rawNumber(expiration)));
+        if (digest != null) {
+            digests.put(key.toString(), digest);
+        }
     }
 
     /**
-     * delete cache item which is expired in region
+     * soft lock the cache item, which is read as missing until the lock is released and a new value is set.
+     * a lock which is already held is shared, and marked as concurrent so no value is set when it is released.
      *
-     * @param region region name
+     * @param region    region name
+     * @param key       cache key to lock
+     * @param timestamp current timestamp
+     * @param timeout   time after which the lock is ignored
+     * @param version   entity version of the locked item, or null
+     * @return lock id, to release the lock
      */
-    public void expire(final String region) {
+    public String lock(final String region, final Object key, final long timestamp, final long timeout, final Long version) {
+        final List<byte[]> keys = newList(rawRegion(region), rawZkey(region));
+        if (propertyDigests.containsKey(region)) {
+            // the properties are written again with the next value
+            forgetDigests(region, Collections.singleton(key));
+            keys.add(rawPkey(region, rawKey(key)));
+        }
+        final List<byte[]> args = Arrays.asList(rawKey(key),
+                                                rawNumber(timestamp),
+                                                rawNumber(timeout),
+                                                rawNumber(lockIds.incrementAndGet()),
+                                                rawNumber(version));
+        byte[] lockId = run(new JedisCallback<byte[]>() {
+            @Override
+            public byte[] execute(Jedis jedis) {
+                return (byte[]) LOCK_SCRIPT.eval(jedis, keys, args);
+            }
+        });
+        return keySerializer.deserialize(lockId);
+    }
 
-        try {
-            final byte[] rawZkey = rawZkey(region);
-            final byte[] rawRegion = rawRegion(region);
-            final long score = System.currentTimeMillis();
+    /**
+     * release a soft lock without setting a value. values loaded before the lock is released can't be set
+     * until the lock times out (or until their version is newer than the locked one).
+     *
+     * @param timestamp current timestamp
+     * @param timeout   timeout of a new lock, if the lock has timed out already
+     * @return true if the lock was held
+     */
+    public boolean unlock(final String region, final Object key, final String lockId, final long timestamp, final long timeout) {
+        final List<byte[]> keys = Arrays.asList(rawRegion(region), rawZkey(region));
+        final List<byte[]> args = Arrays.asList(rawKey(key), rawNumber(timestamp), rawKey(lockId), rawNumber(timeout));
+        return evalBoolean(UNLOCK_SCRIPT, keys, args);
+    }
 
-            // get key which score is less than current time
-            final Set<byte[]> rawKeys = run(new JedisCallback<Set<byte[]>>() {
-                @Override
-                public Set<byte[]> execute(Jedis jedis) {
-                    return jedis.zrangeByScore(rawZkey, 0, score);
-                }
-            });
+    /**
+     * release a soft lock and set the new value of the cache item, unless the lock was held concurrently,
+     * timed out or the region is locked, in which case the lock is released as {@link #unlock} does.
+     *
+     * @return true if the value is set
+     */
+    public boolean unlockAndSet(final String region,
+                                final Object key,
+                                final String lockId,
+                                final Object value,
+                                final long timestamp,
+                                final long timeout,
+                                final int expirationInSeconds) {
+        final long expiration = getExpiration(region, expirationInSeconds);
+        final List<byte[]> keys = newList(rawRegion(region), rawZkey(region), rawLkey(region));
+        final List<byte[]> args = newList(rawKey(key), rawNumber(timestamp), rawKey(lockId), rawNumber(timeout),
+                                          rawValue(region, value, expiration), rawNumber(expiration));
+        return evalTracked(region, UNLOCK_AND_SET_SCRIPT, keys, args);
+    }
 
-            if (rawKeys != null && rawKeys.size() > 0) {
-                log.debug("delete expired cache item in region[{}] expire time=[{}]", region, score);
+    /**
+     * set a value loaded from the database, unless the region or the cache item is soft locked, was unlocked after the
+     * transaction started, or holds the same or a newer version (read from the {@link ValueEnvelope} of the value).
+     * items without version are not replaced.
+     *
+     * @param txTimestamp         timestamp of the transaction which loaded the value
+     * @param version             entity version of the value, or null
+     * @param minimalPut          set only if there is no cache item
+     * @param expirationInSeconds expiration timeout in seconds
+     * @return true if the value is set
+     */
+    public boolean setIfWriteable(final String region,
+                                  final Object key,
+                                  final Object value,
+                                  final long txTimestamp,
+                                  final Long version,
+                                  final boolean minimalPut,
+                                  final int expirationInSeconds) {
+        final long expiration = getExpiration(region, expirationInSeconds);
+        final List<byte[]> keys = newList(rawRegion(region), rawZkey(region), rawLkey(region));
+        final List<byte[]> args = newList(rawKey(key), rawNumber(txTimestamp), rawValue(region, value, expiration),
+                                          rawNumber(expiration), rawNumber(version), rawNumber(minimalPut ? 1L : 0L));
+        return evalTracked(region, SET_IF_WRITEABLE_SCRIPT, keys, args);
+    }
 
-                runWithPipeline(new JedisPipelinedCallback() {
+    /**
+     * set a value loaded from the database in one round trip : if there is no cache item when minimal put is on,
+     * otherwise unless the region or the cache item is soft locked, or holds the same or a newer version
+     * (read from the {@link ValueEnvelope} of the value).
+     *
+     * @param version             entity version of the value, or null to set it regardless of the cached version
+     * @param minimalPut          set only if there is no cache item
+     * @param expirationInSeconds expiration timeout in seconds
+     * @return true if the value is set
+     */
+    public boolean setIfAbsentOrNewer(final String region,
+                                      final Object key,
+                                      final Object value,
+                                      final Long version,
+                                      final boolean minimalPut,
+                                      final int expirationInSeconds) {
+        final long expiration = getExpiration(region, expirationInSeconds);
+        final List<byte[]> keys = newList(rawRegion(region), rawZkey(region), rawLkey(region));
+        final List<byte[]> args = newList(rawKey(key), rawValue(region, value, expiration), rawNumber(expiration),
+                                          rawNumber(version), rawNumber(minimalPut ? 1L : 0L));
+        return evalTracked(region, SET_IF_ABSENT_OR_NEWER_SCRIPT, keys, args);
+    }
+
+    /**
+     * track the access of the found items of a region
+     */
+    private void touchFound(final String region, final byte[][] rawKeys, final List<byte[]> rawValues) {
+        if (!evictionPolicies.containsKey(region) || rawValues == null)
+            return;
+        final List<byte[]> found = new ArrayList<byte[]>(rawKeys.length);
+        for (int i = 0; i < rawKeys.length && i < rawValues.size(); i++) {
+            byte[] rawValue = rawValues.get(i);
+            if (rawValue != null && rawValue.length > 0 && !isLock(rawValue)) {
+                found.add(rawKeys[i]);
+            }
+        }
+        touch(region, 0L, found.toArray(new byte[found.size()][]));
+    }
+
+    /**
+     * track the access of items of a bounded region ({@link #setEvictionPolicy}), and evict the items over its bound
+     *
+     * @param expiration expiration time to set to the items, 0 to keep it
+     */
+    private void touch(final String region, final long expiration, final byte[]... rawKeys) {
+        if (rawKeys.length == 0)
+            return;
+        final List<byte[]> keys = newList(rawRegion(region), rawZkey(region));
+        final List<byte[]> args = newList(rawNumber(expiration));
+        if (!track(region, keys, args))
+            return;
+        args.addAll(Arrays.asList(rawKeys));
+        try {
+            List<?> evicted = run(new JedisCallback<List<?>>() {
+                @Override
+                public List<?> execute(Jedis jedis) {
+                    return (List<?>) ACCESS_SCRIPT.eval(jedis, keys, args);
+                }
+            });
+            evicted(region, evicted);
+        } catch (Exception e) {
+            log.warn("Fail to track access of cache items... region=" + region, e);
+        }
+    }
+
+    /**
+     * append the access zset and the access policy of a bounded region to the keys and args of a script,
+     * which then tracks the access of the item it sets (see {@code LUA_TRACK_ACCESS})
+     *
+     * @return false if the region is not bounded
+     */
+    private boolean track(final String region, final List<byte[]> keys, final List<byte[]> args) {
+        final EvictionPolicy policy = evictionPolicies.get(region);
+        if (policy == null)
+            return false;
+        keys.add(rawAkey(region));
+        args.add(rawNumber(System.currentTimeMillis()));
+        args.add(rawNumber(policy.decayMillis));
+        args.add(rawNumber((long) policy.maxEntries));
+        args.add(rawNumber((long) policy.maxEvictions));
+        return true;
+    }
+
+    /**
+     * run a script which sets a cache item, tracking its access if the region is bounded
+     *
+     * @return true if the item is set
+     */
+    private boolean evalTracked(final String region, final RedisScript script,
+                                final List<byte[]> keys, final List<byte[]> args) {
+        track(region, keys, args);
+        return evalSet(region, script, keys, args);
+    }
+
+    /**
+     * run a script which sets a cache item, and handle the items evicted by it (see {@link #track})
+     *
+     * @return true if the item is set
+     */
+    private boolean evalSet(final String region, final RedisScript script,
+                            final List<byte[]> keys, final List<byte[]> args) {
+        Object result = run(new JedisCallback<Object>() {
+            @Override
+            public Object execute(Jedis jedis) {
+                return script.eval(jedis, keys, args);
+            }
+        });
+        if (result instanceof List) {
+            List<?> reply = (List<?>) result;
+            evicted(region, reply.subList(1, reply.size()));
+            result = reply.get(0);
+        }
+        return Long.valueOf(1L).equals(result);
+    }
+
+    /**
+     * forget the digests of the items evicted from a bounded region, and delete their properties hashes
+     *
+     * @param rawFields evicted fields
+     */
+    private void evicted(final String region, final List<?> rawFields) {
+        if (rawFields == null || rawFields.isEmpty())
+            return;
+        log.trace("evicted cache items. region=[{}], count=[{}]", region, rawFields.size());
+
+        final List<String> keys = new ArrayList<String>(rawFields.size());
+        final byte[][] rawKeys = new byte[rawFields.size()][];
+        for (int i = 0; i < rawKeys.length; i++) {
+            rawKeys[i] = (byte[]) rawFields.get(i);
+            keys.add(keySerializer.deserialize(rawKeys[i]));
+        }
+        forgetDigests(region, keys);
+        if (propertyDigests.containsKey(region)) {
+            run(new JedisCallback<Long>() {
+                @Override
+                public Long execute(Jedis jedis) {
+                    return jedis.del(rawPkeys(region, rawKeys));
+                }
+            });
+        }
+    }
+
+    private boolean evalBoolean(final RedisScript script, final List<byte[]> keys, final List<byte[]> args) {
+        Long result = run(new JedisCallback<Long>() {
+            @Override
+            public Long execute(Jedis jedis) {
+                return (Long) script.eval(jedis, keys, args);
+            }
+        });
+        return result != null && result == 1L;
+    }
+
+    /**
+     * keys and args of a script which tracks access can grow, see {@link #track}
+     */
+    private static List<byte[]> newList(final byte[]... items) {
+        return new ArrayList<byte[]>(Arrays.asList(items));
+    }
+
+    private long getExpiration(final String region, final int expirationInSeconds) {
+        if (expirationInSeconds <= 0 || region.contains("UpdateTimestampsCache"))
+            return 0L;
+        long timeout = expirationInSeconds * 1000L;
+        final Double jitter = expiryJitters.get(region);
+        if (jitter != null) {
+            timeout -= (long) (timeout * jitter * ThreadLocalRandom.current().nextDouble());
+        }
+        return System.currentTimeMillis() + timeout;
+    }
+
+    /**
+     * delete cache item which is expired in region
+     *
+     * @param region region name
+     */
+    public void expire(final String region) {
+
+        try {
+            final byte[] rawZkey = rawZkey(region);
+            final byte[] rawRegion = rawRegion(region);
+            final long score = System.currentTimeMillis();
+
+            // get key which score is less than current time
+            final Set<byte[]> rawKeys = run(new JedisCallback<Set<byte[]>>() {
+                @Override
+                public Set<byte[]> execute(Jedis jedis) {
+                    return jedis.zrangeByScore(rawZkey, 0, score);
+                }
+            });
+
+            if (rawKeys != null && rawKeys.size() > 0) {
+                log.debug("delete expired cache item in region[{}] expire time=[{}]", region, score);
+
+                runWithPipeline(new JedisPipelinedCallback() {
                     @Override
                     public void execute(Pipeline pipeline) {
                         // delete cache item
@@ -366,6 +1435,9 @@ public class JedisClient {
                             pipeline.hdel(rawRegion, rawKey);
                         }
                         pipeline.zremrangeByScore(rawZkey, 0, score);
+                        if (evictionPolicies.containsKey(region)) {
+                            pipeline.zrem(rawAkey(region), rawKeys.toArray(new byte[rawKeys.size()][]));
+                        }
                     }
                 });
 
@@ -383,6 +1455,7 @@ public class JedisClient {
      * @return count of deleted key
      */
     public Long del(final String region, final Object key) {
+        forgetDigests(region, Collections.singleton(key));
         final byte[] rawRegion = rawRegion(region);
         final byte[] rawKey = rawKey(key);
         final byte[] rawZkey = rawZkey(region);
@@ -392,6 +1465,12 @@ public class JedisClient {
             public void execute(Transaction tx) {
                 tx.hdel(rawRegion, rawKey);
                 tx.zrem(rawZkey, rawKey);
+                if (evictionPolicies.containsKey(region)) {
+                    tx.zrem(rawAkey(region), rawKey);
+                }
+                if (propertyDigests.containsKey(region)) {
+                    tx.del(rawPkey(region, rawKey));
+                }
             }
         });
 
@@ -404,6 +1483,9 @@ public class JedisClient {
      * @param keys key collection to delete
      */
     public void mdel(final String region, final Collection<?> keys) {
+        if (keys.isEmpty())
+            return;
+        forgetDigests(region, keys);
 
         final byte[] rawRegion = rawRegion(region);
         final byte[] rawZkey = rawZkey(region);
@@ -412,32 +1494,711 @@ public class JedisClient {
         runWithTx(new JedisTransactionalCallback() {
             @Override
             public void execute(Transaction tx) {
-                for (byte[] rawKey : rawKeys) {
-                    tx.hdel(rawRegion, rawKey);
-                    tx.zrem(rawZkey, rawKey);
+                tx.hdel(rawRegion, rawKeys);
+                tx.zrem(rawZkey, rawKeys);
+                if (evictionPolicies.containsKey(region)) {
+                    tx.zrem(rawAkey(region), rawKeys);
+                }
+                if (propertyDigests.containsKey(region)) {
+                    tx.del(rawPkeys(region, rawKeys));
+                }
+            }
+        });
+    }
+
+    /**
+     * delete cache items of several regions in one pipeline, by one HDEL and one ZREM per region.
+     *
+     * @param keysByRegion keys to delete by region name
+     */
+    public void mdel(final Map<String, ? extends Collection<?>> keysByRegion) {
+        final Map<String, byte[][]> rawKeys = new HashMap<String, byte[][]>(keysByRegion.size());
+        for (Map.Entry<String, ? extends Collection<?>> entry : keysByRegion.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                forgetDigests(entry.getKey(), entry.getValue());
+                rawKeys.put(entry.getKey(), rawKeys(entry.getValue()));
+            }
+        }
+        if (rawKeys.isEmpty())
+            return;
+
+        runWithPipeline(new JedisPipelinedCallback() {
+            @Override
+            public void execute(Pipeline pipeline) {
+                for (Map.Entry<String, byte[][]> entry : rawKeys.entrySet()) {
+                    pipeline.hdel(rawRegion(entry.getKey()), entry.getValue());
+                    pipeline.zrem(rawZkey(entry.getKey()), entry.getValue());
+                    if (evictionPolicies.containsKey(entry.getKey())) {
+                        pipeline.zrem(rawAkey(entry.getKey()), entry.getValue());
+                    }
+                    if (propertyDigests.containsKey(entry.getKey())) {
+                        pipeline.del(rawPkeys(entry.getKey(), entry.getValue()));
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * register the specified cache item as dependent of the given dependencies
+     * (e.g. entity cache keys qualified by their region), so that it is deleted by {@link #delDependents(Object)} when one of them changes.
+     *
+     * @param region           region name of the dependent cache item
+     * @param key              cache key of the dependent cache item
+     * @param dependencies     keys the cache item depends on
+     * @param timeoutInSeconds expire timeout of the dependency index in seconds
+     */
+    public void addDependents(final String region,
+                              final Object key,
+                              final Collection<?> dependencies,
+                              final int timeoutInSeconds) {
+        if (dependencies == null || dependencies.isEmpty())
+            return;
+
+        final byte[] rawDependent = rawDependent(region, key);
+        final List<byte[]> rawDkeys = new ArrayList<byte[]>(dependencies.size());
+        for (Object dependency : dependencies) {
+            rawDkeys.add(rawDkey(dependency));
+        }
+
+        runWithPipeline(new JedisPipelinedCallback() {
+            @Override
+            public void execute(Pipeline pipeline) {
+                for (byte[] rawDkey : rawDkeys) {
+                    pipeline.sadd(rawDkey, rawDependent);
+                    if (timeoutInSeconds > 0) {
+                        pipeline.expire(rawDkey, timeoutInSeconds);
+                    }
                 }
             }
         });
     }
 
     /**
-     * delete region
+     * save a cache item with the dependencies it depends on ({@link #addDependents}) in one script call,
+     * unless one of the dependencies was invalidated ({@link #delDependents(Object, long, long)}) at or after the given
+     * timestamp, as the value may have been read before the change then.
+     *
+     * @param region              region name
+     * @param key                 cache key to save
+     * @param value               cache value to save
+     * @param expirationInSeconds expiration timeout in seconds, also used for the dependency indexes
+     * @param dependencies        keys the cache item depends on
+     * @param timestamp           time before which the value was read (e.g. the session timestamp)
+     * @return true if the value is set
+     */
+    public boolean setDependent(final String region,
+                                final Object key,
+                                final Object value,
+                                final int expirationInSeconds,
+                                final Collection<?> dependencies,
+                                final long timestamp) {
+        final long expiration = getExpiration(region, expirationInSeconds);
+        final byte[] rawKey = rawKey(key);
+        final List<byte[]> keys = new ArrayList<byte[]>(3 + 2 * dependencies.size());
+        keys.add(rawRegion(region));
+        keys.add(rawZkey(region));
+        for (Object dependency : dependencies) {
+            keys.add(rawDkey(dependency));
+        }
+        for (Object dependency : dependencies) {
+            keys.add(rawIkey(dependency));
+        }
+        final List<byte[]> args = newList(rawKey, rawValue(region, value, expiration), rawNumber(expiration),
+                                          rawNumber(timestamp), rawDependent(region, key),
+                                          rawNumber((long) expirationInSeconds), rawNumber((long) dependencies.size()));
+        return evalTracked(region, SET_DEPENDENT_SCRIPT, keys, args);
+    }
+
+    /**
+     * Store the current cache items of the members as one aggregate entry, in one script call,
+     * unless one of them is missing or soft locked.
+     * The aggregate should be registered as dependent of its members ({@link #addDependents}) beforehand,
+     * so that it is deleted when one of them changes.
+     *
+     * @param region              aggregate region name
+     * @param key                 cache key of the aggregate
+     * @param members             cache keys of the members by region
+     * @param expirationInSeconds expiration timeout in seconds
+     * @return the stored items by region and cache key (as string), or null if the aggregate is not stored
+     */
+    public Map<String, Map<String, Object>> setAggregate(final String region,
+                                                        final Object key,
+                                                        final Map<String, ? extends Collection<?>> members,
+                                                        final int expirationInSeconds) {
+        final List<byte[]> keys = new ArrayList<byte[]>();
+        final List<byte[]> args = new ArrayList<byte[]>();
+        keys.add(rawRegion(region));
+        keys.add(rawZkey(region));
+        args.add(rawKey(key));
+        args.add(rawNumber(getExpiration(region, expirationInSeconds)));
+        for (Map.Entry<String, ? extends Collection<?>> entry : members.entrySet()) {
+            final byte[] rawMemberRegion = rawRegion(entry.getKey());
+            for (Object member : entry.getValue()) {
+                keys.add(rawMemberRegion);
+                args.add(rawKey(member));
+            }
+        }
+
+        byte[] rawAggregate = run(new JedisCallback<byte[]>() {
+            @Override
+            public byte[] execute(Jedis jedis) {
+                return (byte[]) SET_AGGREGATE_SCRIPT.eval(jedis, keys, args);
+            }
+        });
+        return (rawAggregate != null) ? deserializeAggregate(rawAggregate) : null;
+    }
+
+    /**
+     * Get the items of an aggregate entry in one round trip.
+     *
+     * @param region aggregate region name
+     * @param key    cache key of the aggregate
+     * @return the items by region and cache key (as string), or null if there is no aggregate entry
+     */
+    public Map<String, Map<String, Object>> getAggregate(final String region, final Object key) {
+        final byte[] rawRegion = rawRegion(region);
+        final byte[] rawKey = rawKey(key);
+
+        byte[] rawAggregate = run(new JedisCallback<byte[]>() {
+            @Override
+            public byte[] execute(Jedis jedis) {
+                return jedis.hget(rawRegion, rawKey);
+            }
+        });
+        return (rawAggregate != null) ? deserializeAggregate(rawAggregate) : null;
+    }
+
+    /**
+     * delete every cache item which depends on the specified dependency.
+     * the dependency index itself is kept until it expires, so that a second invalidation
+     * (e.g. after transaction completion) still finds the dependent items.
+     *
+     * @param dependency dependency key (e.g. entity cache key qualified by its region)
+     * @return count of dependent cache items
+     */
+    public int delDependents(final Object dependency) {
+        return delDependents(dependency, 0L, 0L);
+    }
+
+    /**
+     * delete every cache item which depends on the specified dependency, and record the invalidation time of
+     * the dependency, so that values read before it are not set by {@link #setDependent} afterwards.
+     *
+     * @param dependency   dependency key (e.g. entity cache key qualified by its region)
+     * @param timestamp    invalidation time
+     * @param markerMillis time to keep the invalidation time (e.g. the max duration of a transaction), 0 for none
+     * @return count of dependent cache items
+     */
+    public int delDependents(final Object dependency, final long timestamp, final long markerMillis) {
+        return delDependents(Collections.singleton(dependency), timestamp, markerMillis);
+    }
+
+    /**
+     * delete every cache item which depends on one of the specified dependencies, in one script call and one pipeline.
+     * (see {@link #delDependents(Object, long, long)})
+     *
+     * @param dependencies dependency keys (e.g. entity cache keys qualified by their region)
+     * @param timestamp    invalidation time
+     * @param markerMillis time to keep the invalidation time (e.g. the max duration of a transaction), 0 for none
+     * @return count of dependent cache items
+     */
+    @SuppressWarnings("unchecked")
+    public int delDependents(final Collection<?> dependencies, final long timestamp, final long markerMillis) {
+        if (dependencies.isEmpty())
+            return 0;
+        final byte[][] rawDkeys = new byte[dependencies.size()][];
+        final List<byte[]> keys = new ArrayList<byte[]>(dependencies.size() * 2);
+        int d = 0;
+        for (Object dependency : dependencies) {
+            rawDkeys[d++] = rawDkey(dependency);
+            keys.add(rawIkey(dependency));
+            keys.add(rawDkey(dependency));
+        }
+
+        final Collection<byte[]> rawDependents;
+        if (markerMillis > 0) {
+            final List<byte[]> args = Arrays.asList(rawNumber(timestamp), rawNumber(markerMillis));
+            rawDependents = run(new JedisCallback<List<byte[]>>() {
+                @Override
+                public List<byte[]> execute(Jedis jedis) {
+                    return (List<byte[]>) INVALIDATE_DEPENDENCY_SCRIPT.eval(jedis, keys, args);
+                }
+            });
+        } else {
+            rawDependents = run(new JedisCallback<Set<byte[]>>() {
+                @Override
+                public Set<byte[]> execute(Jedis jedis) {
+                    return jedis.sunion(rawDkeys);
+                }
+            });
+        }
+        if (rawDependents == null || rawDependents.isEmpty())
+            return 0;
+
+        runWithPipeline(new JedisPipelinedCallback() {
+            @Override
+            public void execute(Pipeline pipeline) {
+                for (byte[] rawDependent : rawDependents) {
+                    int separator = indexOf(rawDependent, DEPENDENT_SEPARATOR);
+                    if (separator < 0)
+                        continue;
+                    String region = regionSerializer.deserialize(Arrays.copyOfRange(rawDependent, 0, separator));
+                    byte[] rawKey = Arrays.copyOfRange(rawDependent, separator + 1, rawDependent.length);
+                    pipeline.hdel(rawRegion(region), rawKey);
+                    pipeline.zrem(rawZkey(region), rawKey);
+                }
+            }
+        });
+        log.trace("delete dependents. dependencies=[{}], count=[{}]", dependencies, rawDependents.size());
+        return rawDependents.size();
+    }
+
+    /**
+     * save the invalidation timestamp of the specified region
+     *
+     * @param region    region name
+     * @param timestamp invalidation timestamp
+     */
+    public void setRegionTimestamp(final String region, final long timestamp) {
+        final byte[] rawTkey = rawTkey(region);
+        final byte[] rawTimestamp = keySerializer.serialize(String.valueOf(timestamp));
+
+        run(new JedisCallback<String>() {
+            @Override
+            public String execute(Jedis jedis) {
+                return jedis.set(rawTkey, rawTimestamp);
+            }
+        });
+    }
+
+    /**
+     * get the invalidation timestamps of the specified regions
+     *
+     * @param regions region names
+     * @return invalidation timestamps in the order of regions, null if a region was never invalidated
+     */
+    public List<Long> getRegionTimestamps(final Collection<String> regions) {
+        final byte[][] rawTkeys = new byte[regions.size()][];
+        int i = 0;
+        for (String region : regions) {
+            rawTkeys[i++] = rawTkey(region);
+        }
+
+        List<byte[]> rawTimestamps = run(new JedisCallback<List<byte[]>>() {
+            @Override
+            public List<byte[]> execute(Jedis jedis) {
+                return jedis.mget(rawTkeys);
+            }
+        });
+
+        List<Long> timestamps = new ArrayList<Long>(regions.size());
+        for (byte[] rawTimestamp : rawTimestamps) {
+            timestamps.add(rawTimestamp != null ? Long.valueOf(keySerializer.deserialize(rawTimestamp)) : null);
+        }
+        return timestamps;
+    }
+
+    /**
+     * get the compression dictionaries of the specified region
+     *
+     * @param region region name
+     * @return dictionaries by version
+     */
+    public Map<Integer, byte[]> getDictionaries(final String region) {
+        final byte[] rawCkey = rawCkey(region);
+
+        Map<byte[], byte[]> rawDictionaries = run(new JedisCallback<Map<byte[], byte[]>>() {
+            @Override
+            public Map<byte[], byte[]> execute(Jedis jedis) {
+                return jedis.hgetAll(rawCkey);
+            }
+        });
+
+        Map<Integer, byte[]> dictionaries = new HashMap<Integer, byte[]>();
+        for (Map.Entry<byte[], byte[]> entry : rawDictionaries.entrySet()) {
+            String version = keySerializer.deserialize(entry.getKey());
+            if (!DICTIONARY_VERSION_FIELD.equals(version)) {
+                dictionaries.put(Integer.valueOf(version), entry.getValue());
+            }
+        }
+        return dictionaries;
+    }
+
+    /**
+     * save a new compression dictionary of the specified region
+     *
+     * @param region     region name
+     * @param dictionary dictionary bytes
+     * @return version of the saved dictionary
+     */
+    public int addDictionary(final String region, final byte[] dictionary) {
+        final byte[] rawCkey = rawCkey(region);
+
+        return run(new JedisCallback<Integer>() {
+            @Override
+            public Integer execute(Jedis jedis) {
+                Long version = jedis.hincrBy(rawCkey, rawKey(DICTIONARY_VERSION_FIELD), 1);
+                jedis.hset(rawCkey, rawKey(version), dictionary);
+                return version.intValue();
+            }
+        });
+    }
+
+    /**
+     * get the class names registered for FST serialization
+     *
+     * @return class names in registration order
+     */
+    public List<String> getClassNames() {
+        final byte[] rawFkey = rawRegion(CLASS_NAMES_KEY);
+
+        List<byte[]> rawClassNames = run(new JedisCallback<List<byte[]>>() {
+            @Override
+            public List<byte[]> execute(Jedis jedis) {
+                return jedis.lrange(rawFkey, 0, -1);
+            }
+        });
+
+        List<String> classNames = new ArrayList<String>(rawClassNames.size());
+        for (byte[] rawClassName : rawClassNames) {
+            classNames.add(keySerializer.deserialize(rawClassName));
+        }
+        return classNames;
+    }
+
+    /**
+     * append class names to the class names registered for FST serialization
+     *
+     * @param classNames class names to register
+     */
+    public void addClassNames(final Collection<String> classNames) {
+        if (classNames.isEmpty())
+            return;
+
+        final byte[] rawFkey = rawRegion(CLASS_NAMES_KEY);
+        final byte[][] rawClassNames = new byte[classNames.size()][];
+        int i = 0;
+        for (String className : classNames) {
+            rawClassNames[i++] = keySerializer.serialize(className);
+        }
+
+        run(new JedisCallback<Long>() {
+            @Override
+            public Long execute(Jedis jedis) {
+                return jedis.rpush(rawFkey, rawClassNames);
+            }
+        });
+    }
+
+    /**
+     * delete region. the region hash and expiration zset are retired under a new generation in O(1),
+     * and their items are deleted later by {@link #reclaimRetiredRegions()}.
      *
      * @param region region name to delete
      */
     public void deleteRegion(final String region) throws JedisCacheException {
         log.debug("delete region region=[{}]", region);
+        final Map<String, String> digests = writeDigests.get(region);
+        if (digests != null) {
+            digests.clear();
+        }
+        final Map<String, byte[]> states = propertyDigests.get(region);
+        if (states != null) {
+            states.clear();
+        }
 
-        final byte[] rawRegion = rawRegion(region);
-        final byte[] rawZkey = rawZkey(region);
+        final List<byte[]> keys = Arrays.asList(rawRegion(region), rawZkey(region), rawGkey(region),
+                                                rawRegion(RETIRED_REGIONS_KEY), rawAkey(region));
+        run(new JedisCallback<Object>() {
+            @Override
+            public Object execute(Jedis jedis) {
+                return RETIRE_REGION_SCRIPT.eval(jedis, keys, Collections.<byte[]>emptyList());
+            }
+        });
+    }
 
-        runWithTx(new JedisTransactionalCallback() {
+    /**
+     * soft lock the region (e.g. during a bulk update) : its items are deleted, and values are not set
+     * by {@link #set}, {@link #setIfWriteable}, {@link #setIfAbsentOrNewer} or {@link #unlockAndSet} until it is released,
+     * so the region is read as missing.
+     * locks held concurrently are counted, and all of them are released when the lock times out.
+     *
+     * @param region           region name
+     * @param timeoutInMillis  time after which the lock is released
+     * @return count of the locks held on the region
+     */
+    public long lockRegion(final String region, final long timeoutInMillis) {
+        final List<byte[]> keys = Arrays.asList(rawLkey(region), rawRegion(region), rawZkey(region), rawGkey(region),
+                                                rawRegion(RETIRED_REGIONS_KEY), rawAkey(region));
+        final List<byte[]> args = Collections.singletonList(rawNumber(timeoutInMillis));
+        Long count = run(new JedisCallback<Long>() {
             @Override
-            public void execute(Transaction tx) {
-                tx.del(rawRegion);
-                tx.del(rawZkey);
+            public Long execute(Jedis jedis) {
+                return (Long) LOCK_REGION_SCRIPT.eval(jedis, keys, args);
+            }
+        });
+        return (count != null) ? count : 0L;
+    }
+
+    /**
+     * release a soft lock of the region. when the last lock is released, the items set in the meantime
+     * are deleted by retiring the region under a new generation.
+     *
+     * @param region region name
+     * @return true if it was the last lock of the region
+     */
+    public boolean unlockRegion(final String region) {
+        final List<byte[]> keys = Arrays.asList(rawLkey(region), rawRegion(region), rawZkey(region), rawGkey(region),
+                                                rawRegion(RETIRED_REGIONS_KEY), rawAkey(region));
+        return evalBoolean(UNLOCK_REGION_SCRIPT, keys, Collections.<byte[]>emptyList());
+    }
+
+    /**
+     * Take the miss lease of a cache item : the client which misses it first computes the value,
+     * while the others wait for it ({@link #awaitLease}).
+     *
+     * @param region      region name
+     * @param key         cache key
+     * @param leaseMillis time after which the lease expires if it is not released
+     * @return true if the lease is taken
+     */
+    public boolean tryLease(final String region, final Object key, final long leaseMillis) {
+        final byte[] rawLeaseKey = rawLeaseKey(region, key);
+        final byte[] rawId = rawNumber(lockIds.incrementAndGet());
+        String reply = run(new JedisCallback<String>() {
+            @Override
+            public String execute(Jedis jedis) {
+                return jedis.set(rawLeaseKey, rawId, LEASE_NX, LEASE_PX, leaseMillis);
+            }
+        });
+        return "OK".equals(reply);
+    }
+
+    /**
+     * Release the miss lease of a cache item, notifying the clients waiting for it.
+     */
+    public void releaseLease(final String region, final Object key) {
+        evalBoolean(RELEASE_LEASE_SCRIPT, Collections.singletonList(rawLeaseKey(region, key)),
+                    Collections.<byte[]>emptyList());
+    }
+
+    /**
+     * Wait until the miss lease of a cache item is released (usually after its value is set),
+     * notified by a pattern subscription shared by the waiting threads.
+     *
+     * @param region        region name
+     * @param key           cache key
+     * @param timeoutMillis max time to wait
+     * @return true if the lease was released, false if it is still held or the wait failed
+     */
+    public boolean awaitLease(final String region, final Object key, final long timeoutMillis) {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        final String leaseKey = regionSerializer.deserialize(rawLeaseKey(region, key));
+        final CountDownLatch released = new CountDownLatch(1);
+        synchronized (leaseWaiters) {
+            List<CountDownLatch> waiters = leaseWaiters.get(leaseKey);
+            if (waiters == null) {
+                waiters = new ArrayList<CountDownLatch>();
+                leaseWaiters.put(leaseKey, waiters);
+            }
+            waiters.add(released);
+        }
+        try {
+            if (!getLeaseSubscriber().await(deadline))
+                return false;
+            // released before the subscription
+            if (!exists(leaseKey))
+                return true;
+            return released.await(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            log.warn("Fail to wait for lease... key=" + leaseKey, e);
+            return false;
+        } finally {
+            synchronized (leaseWaiters) {
+                List<CountDownLatch> waiters = leaseWaiters.get(leaseKey);
+                if (waiters != null && waiters.remove(released) && waiters.isEmpty()) {
+                    leaseWaiters.remove(leaseKey);
+                }
+            }
+        }
+    }
+
+    private boolean exists(final String key) {
+        final byte[] rawKey = rawRegion(key);
+        Boolean exists = run(new JedisCallback<Boolean>() {
+            @Override
+            public Boolean execute(Jedis jedis) {
+                return jedis.exists(rawKey);
             }
         });
+        return Boolean.TRUE.equals(exists);
+    }
+
+    private synchronized LeaseSubscriber getLeaseSubscriber() {
+        if (leaseSubscriber == null) {
+            leaseSubscriber = new LeaseSubscriber();
+            Thread thread = new Thread(leaseSubscriber, "hibernate-redis-lease");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return leaseSubscriber;
+    }
+
+    /**
+     * Bound of the items of a region, see {@link #setEvictionPolicy}
+     */
+    private static final class EvictionPolicy {
+        private final int maxEntries;
+        private final long decayMillis;
+        private final int maxEvictions;
+
+        private EvictionPolicy(int maxEntries, long decayMillis, int maxEvictions) {
+            this.maxEntries = maxEntries;
+            this.decayMillis = decayMillis;
+            this.maxEvictions = maxEvictions;
+        }
+    }
+
+    /**
+     * Subscription to the release of all miss leases, on a connection of the subscription pool held while subscribed.
+     */
+    private final class LeaseSubscriber extends JedisPubSub implements Runnable {
+
+        private volatile CountDownLatch subscribed = new CountDownLatch(1);
+        private volatile boolean closed = false;
+
+        @Override
+        public void run() {
+            final Pool<Jedis> pool = (subscriptionPool != null) ? subscriptionPool : jedisPool;
+            while (!closed) {
+                Jedis jedis = null;
+                try {
+                    jedis = pool.getResource();
+                    jedis.psubscribe(this, LEASE_PATTERN);
+                } catch (Exception e) {
+                    if (!closed) {
+                        log.warn("Fail to subscribe to lease releases.", e);
+                        sleep(1000);
+                    }
+                } finally {
+                    subscribed = new CountDownLatch(1);
+                    if (jedis != null) {
+                        pool.returnBrokenResource(jedis);
+                    }
+                }
+            }
+        }
+
+        boolean await(long deadline) throws InterruptedException {
+            return subscribed.await(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+        }
+
+        void close() {
+            closed = true;
+            if (isSubscribed()) {
+                punsubscribe();
+            }
+        }
+
+        @Override
+        public void onPSubscribe(String pattern, int subscribedChannels) {
+            subscribed.countDown();
+        }
+
+        @Override
+        public void onPMessage(String pattern, String channel, String message) {
+            List<CountDownLatch> waiters;
+            synchronized (leaseWaiters) {
+                waiters = leaseWaiters.remove(channel);
+            }
+            if (waiters != null) {
+                for (CountDownLatch waiter : waiters) {
+                    waiter.countDown();
+                }
+            }
+        }
+
+        @Override
+        public void onMessage(String channel, String message) { }
+
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) { }
+
+        @Override
+        public void onUnsubscribe(String channel, int subscribedChannels) { }
+
+        @Override
+        public void onPUnsubscribe(String pattern, int subscribedChannels) { }
+
+        private void sleep(long millis) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                closed = true;
+            }
+        }
+    }
+
+    /**
+     * delete the items of the retired regions, at most {@code RECLAIM_MAX_BATCHES * RECLAIM_BATCH_SIZE} per call,
+     * so that redis is not blocked by deleting a large region at once.
+     *
+     * @return count of the retired regions which are left
+     */
+    public int reclaimRetiredRegions() {
+        final byte[] rawRetiredKey = rawRegion(RETIRED_REGIONS_KEY);
+        return run(new JedisCallback<Integer>() {
+            @Override
+            public Integer execute(Jedis jedis) {
+                Set<byte[]> retired = jedis.smembers(rawRetiredKey);
+                int left = retired.size();
+                int batches = 0;
+                for (byte[] rawKey : retired) {
+                    while (batches < RECLAIM_MAX_BATCHES && reclaim(jedis, rawKey)) {
+                        batches++;
+                    }
+                    if (batches >= RECLAIM_MAX_BATCHES)
+                        break;
+                    jedis.srem(rawRetiredKey, rawKey);
+                    left--;
+                }
+                return left;
+            }
+        });
+    }
+
+    /**
+     * delete a batch of items of a retired region
+     *
+     * @return true if items are left
+     */
+    private static boolean reclaim(final Jedis jedis, final byte[] rawKey) {
+        String type = jedis.type(rawKey);
+        if ("hash".equals(type)) {
+            List<Map.Entry<byte[], byte[]>> entries =
+                    jedis.hscan(rawKey, ScanParams.SCAN_POINTER_START_BINARY, new ScanParams().count(RECLAIM_BATCH_SIZE))
+                         .getResult();
+            if (!entries.isEmpty()) {
+                byte[][] fields = new byte[entries.size()][];
+                for (int i = 0; i < fields.length; i++) {
+                    fields[i] = entries.get(i).getKey();
+                }
+                jedis.hdel(rawKey, fields);
+            }
+            return jedis.exists(rawKey);
+        }
+        if ("zset".equals(type)) {
+            jedis.zremrangeByRank(rawKey, 0, RECLAIM_BATCH_SIZE - 1);
+            return jedis.exists(rawKey);
+        }
+        if (!"none".equals(type)) {
+            jedis.del(rawKey);
+        }
+        return false;
     }
 
     /**
@@ -499,9 +2260,17 @@ public class JedisClient {
      * Cleanup any resources thathe JedisClient might have references to.
      */
     public void destroy() {
+        synchronized (this) {
+            if (leaseSubscriber != null) {
+                leaseSubscriber.close();
+            }
+        }
         if (jedisPool != null) {
             jedisPool.destroy();
         }
+        if (subscriptionPool != null) {
+            subscriptionPool.destroy();
+        }
     }
 
     private Long updateOrIncrementTimestamp(final byte[] rawKey) {
@@ -509,13 +2278,13 @@ public class JedisClient {
             @Override
             public Long execute(Jedis jedis) {
                 jedis.watch(rawKey);
-                Long currentTimestamp = (Long)deserializeValue(jedis.get(rawKey));
+                Long currentTimestamp = (Long)deserializeValue(null, jedis.get(rawKey));
                 if (currentTimestamp == null) {
                     currentTimestamp = 0L;
                 }
                 Long newTimestamp = Math.max(System.currentTimeMillis(), currentTimestamp) + 1;
                 Transaction tx = jedis.multi();
-                tx.set(rawKey, rawValue(newTimestamp));
+                tx.set(rawKey, rawValue(null, newTimestamp, 0L));
                 List<Object> result = tx.exec(); // it the watch fails exec returns null
                 return result != null ? newTimestamp : null;
             }
@@ -569,6 +2338,132 @@ public class JedisClient {
         return rawRegion("z:" + region);
     }
 
+    /**
+     * Serialize access zset key
+     */
+    private byte[] rawAkey(final String region) {
+        return rawRegion("a:" + region);
+    }
+
+    /**
+     * Serialize dependency index key
+     */
+    private byte[] rawDkey(final Object dependency) {
+        return rawRegion("d:" + dependency);
+    }
+
+    /**
+     * Serialize dependency invalidation time key
+     */
+    private byte[] rawIkey(final Object dependency) {
+        return rawRegion("i:" + dependency);
+    }
+
+    /**
+     * Serialize compression dictionary key
+     */
+    private byte[] rawCkey(final String region) {
+        return rawRegion("c:" + region);
+    }
+
+    /**
+     * Serialize the key of the properties hash of a cache entry
+     */
+    private byte[] rawPkey(final String region, final byte[] rawKey) {
+        final byte[] prefix = rawRegion("p:" + region + ":");
+        final byte[] rawPkey = Arrays.copyOf(prefix, prefix.length + rawKey.length);
+        System.arraycopy(rawKey, 0, rawPkey, prefix.length, rawKey.length);
+        return rawPkey;
+    }
+
+    private byte[][] rawPkeys(final String region, final byte[][] rawKeys) {
+        final byte[][] rawPkeys = new byte[rawKeys.length][];
+        for (int i = 0; i < rawKeys.length; i++) {
+            rawPkeys[i] = rawPkey(region, rawKeys[i]);
+        }
+        return rawPkeys;
+    }
+
+    /**
+     * Serialize region lock key
+     */
+    private byte[] rawLkey(final String region) {
+        return rawRegion("l:" + region);
+    }
+
+    /**
+     * Serialize the miss lease key of a cache item
+     */
+    private byte[] rawLeaseKey(final String region, final Object key) {
+        return rawRegion(LEASE_PREFIX + region + ":" + key);
+    }
+
+    /**
+     * Serialize region generation key
+     */
+    private byte[] rawGkey(final String region) {
+        return rawRegion("g:" + region);
+    }
+
+    /**
+     * Serialize region invalidation timestamp key
+     */
+    private byte[] rawTkey(final String region) {
+        return rawRegion("t:" + region);
+    }
+
+    /**
+     * Serialize dependent cache item as region name and cache key
+     */
+    private byte[] rawDependent(final String region, final Object key) {
+        final byte[] rawRegion = rawRegion(region);
+        final byte[] rawKey = rawKey(key);
+        final byte[] rawDependent = new byte[rawRegion.length + 1 + rawKey.length];
+        System.arraycopy(rawRegion, 0, rawDependent, 0, rawRegion.length);
+        rawDependent[rawRegion.length] = DEPENDENT_SEPARATOR;
+        System.arraycopy(rawKey, 0, rawDependent, rawRegion.length + 1, rawKey.length);
+        return rawDependent;
+    }
+
+    /**
+     * deserialize the (region, field, value) list of an aggregate entry, each as length ':' bytes
+     */
+    private Map<String, Map<String, Object>> deserializeAggregate(final byte[] rawAggregate) {
+        final Map<String, Map<String, Object>> items = new HashMap<String, Map<String, Object>>();
+        final byte[][] item = new byte[3][];
+        int offset = 0;
+        int i = 0;
+        while (offset < rawAggregate.length) {
+            int separator = offset;
+            while (rawAggregate[separator] != ':') {
+                separator++;
+            }
+            int length = Integer.parseInt(new String(rawAggregate, offset, separator - offset, Charset.forName("US-ASCII")));
+            item[i] = Arrays.copyOfRange(rawAggregate, separator + 1, separator + 1 + length);
+            offset = separator + 1 + length;
+
+            if (++i == item.length) {
+                String region = regionSerializer.deserialize(item[0]);
+                Map<String, Object> regionItems = items.get(region);
+                if (regionItems == null) {
+                    regionItems = new HashMap<String, Object>();
+                    items.put(region, regionItems);
+                }
+                regionItems.put(keySerializer.deserialize(item[1]), deserializeValue(region, item[2]));
+                i = 0;
+            }
+        }
+        return items;
+    }
+
+    private static int indexOf(final byte[] bytes, final byte b) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == b)
+                return i;
+        }
+        return -1;
+    }
+
     /**
      * serializer region name
      */
@@ -576,6 +2471,37 @@ public class JedisClient {
         return regionSerializer.serialize(region);
     }
 
+    private byte[] rawNumber(final Long number) {
+        return keySerializer.serialize((number != null) ? number.toString() : "");
+    }
+
+    /**
+     * field of a cache entry stored by properties, with its version
+     */
+    private byte[] rawPropertiesField(final Long version) {
+        final byte[] rawVersion = rawNumber(version);
+        final byte[] rawField = new byte[2 + rawVersion.length];
+        rawField[0] = (byte) 0xE5;
+        rawField[1] = 'P';
+        System.arraycopy(rawVersion, 0, rawField, 2, rawVersion.length);
+        return rawField;
+    }
+
+    /**
+     * whether the raw value is the field of a cache entry stored by properties
+     */
+    private static boolean isPropertiesField(final byte[] rawValue) {
+        return rawValue != null && rawValue.length >= 2 && rawValue[0] == (byte) 0xE5 && rawValue[1] == 'P';
+    }
+
+    /**
+     * whether the raw value is a soft lock entry
+     */
+    private static boolean isLock(final byte[] rawValue) {
+        return rawValue != null && rawValue.length > 2 && rawValue[0] == (byte) 0xE5 && rawValue[1] == 'L'
+                && rawValue[2] >= '0' && rawValue[2] <= '9';
+    }
+
     /**
      * deserialize key
      */
@@ -585,10 +2511,17 @@ public class JedisClient {
 
     /**
      * serializer cache value
+     *
+     * @param expiration expiration time in milliseconds written in the envelope, 0 for none
      */
-    private byte[] rawValue(final Object value) {
+    private byte[] rawValue(final String region, final Object value, final long expiration) {
         try {
-            return valueSerializer.serialize(value);
+            RedisSerializer<Object> serializer = getValueSerializer(region);
+            if (!envelope)
+                return serializer.serialize(value);
+
+            Integer codecId = codecIds.get(serializer);
+            return ValueEnvelope.serialize(serializer, (codecId != null) ? codecId : 0, value, expiration);
         } catch (Exception e) {
             log.warn("value를 직렬화하는데 실패했습니다. value=" + value, e);
             return null;
@@ -596,10 +2529,34 @@ public class JedisClient {
     }
 
     /**
-     * deserialize raw value
+     * deserialize raw value, with or without envelope
      */
-    private Object deserializeValue(final byte[] rawValue) {
-        return valueSerializer.deserialize(rawValue);
+    private Object deserializeValue(final String region, final byte[] rawValue) {
+        if (isLock(rawValue) || isPropertiesField(rawValue))
+            return null;
+
+        RedisSerializer<Object> serializer = getValueSerializer(region);
+        if (!ValueEnvelope.isEnvelope(rawValue))
+            return serializer.deserialize(rawValue);
+
+        int codecId = ValueEnvelope.getCodecId(rawValue);
+        RedisSerializer<Object> codec = (codecId == 0 || Integer.valueOf(codecId).equals(codecIds.get(serializer)))
+                                        ? serializer
+                                        : codecs.get(codecId);
+        if (codec != null) {
+            try {
+                return ValueEnvelope.deserialize(codec, rawValue);
+            } catch (Exception e) {
+                log.debug("Fail to deserialize the value of envelope. region=[{}], codecId=[{}]", region, codecId);
+            }
+        }
+        // written without envelope, but starting with the same bytes
+        try {
+            return serializer.deserialize(rawValue);
+        } catch (Exception e) {
+            log.warn("Fail to deserialize value. region=" + region + ", codecId=" + codecId, e);
+            return null;
+        }
     }
 
     /**
@@ -669,7 +2626,178 @@ public class JedisClient {
      *
      * @return collection of original value
      */
-    private List<Object> deserializeValues(final List<byte[]> rawValues) {
-        return SerializationTool.deserialize(rawValues, valueSerializer);
+    private List<Object> deserializeValues(final String region, final List<byte[]> rawValues) {
+        return SerializationTool.deserialize(rawValues, new SerializationTool.Deserializer<Object>() {
+            @Override
+            public Object deserialize(byte[] bytes) {
+                return deserializeValue(region, bytes);
+            }
+        });
+    }
+
+    private void forgetDigests(final String region, final Collection<?> keys) {
+        final Map<String, String> digests = writeDigests.get(region);
+        if (digests != null) {
+            for (Object key : keys) {
+                digests.remove(key.toString());
+            }
+        }
+        final Map<String, byte[]> states = propertyDigests.get(region);
+        if (states != null) {
+            for (Object key : keys) {
+                states.remove(key.toString());
+            }
+        }
+    }
+
+    /**
+     * set the cache entry by properties, only the ones which changed if the state of the cached entry is known
+     */
+    private void setProperties(final String region,
+                               final Object key,
+                               final StandardCacheEntryImpl entry,
+                               final long expiration,
+                               final long propertiesExpiration,
+                               final Map<String, byte[]> states) {
+        final RedisSerializer<Object> serializer = getValueSerializer(region);
+        final byte[][] properties = CacheEntryProperties.serialize(serializer, entry);
+        final byte[] digest = CacheEntryProperties.digest(properties);
+        final byte[] previous = states.get(key.toString());
+
+        final List<byte[]> keys = newList(rawRegion(region), rawZkey(region), rawPkey(region, rawKey(key)), rawLkey(region));
+        final List<byte[]> args = new ArrayList<byte[]>(15 + properties.length * 2);
+        args.add(rawKey(key));
+        args.add(rawPropertiesField(ValueEnvelope.toVersionNumber(entry.getVersion())));
+        args.add(rawNumber(expiration));
+        args.add(rawNumber(propertiesExpiration));
+        args.add(RedisSerializer.EMPTY_BYTES);
+        args.add(CacheEntryProperties.toBytes(CacheEntryProperties.stateOf(digest)));
+        args.add(digest);
+        args.add(rawNumber((long) properties.length));
+        args.add(CacheEntryProperties.toBytes(entry.getSubclass()));
+        args.add(rawNumber(entry.areLazyPropertiesUnfetched() ? 1L : 0L));
+        args.add((entry.getVersion() != null) ? serializer.serialize(entry.getVersion()) : RedisSerializer.EMPTY_BYTES);
+        // the access policy of a bounded region comes before the properties
+        track(region, keys, args);
+
+        boolean set = false;
+        if (previous != null && previous.length == digest.length) {
+            List<byte[]> changed = new ArrayList<byte[]>(args);
+            changed.set(4, CacheEntryProperties.toBytes(CacheEntryProperties.stateOf(previous)));
+            for (int i = 0; i < properties.length; i++) {
+                if (CacheEntryProperties.isChanged(digest, previous, i)) {
+                    changed.add(rawNumber((long) i));
+                    changed.add(properties[i]);
+                }
+            }
+            set = evalSet(region, SET_PROPERTIES_SCRIPT, keys, changed);
+        }
+        if (!set) {
+            for (int i = 0; i < properties.length; i++) {
+                args.add(rawNumber((long) i));
+                args.add(properties[i]);
+            }
+            evalSet(region, SET_PROPERTIES_SCRIPT, keys, args);
+        }
+        states.put(key.toString(), digest);
+    }
+
+    /**
+     * create the cache entry from the fields of its properties hash
+     *
+     * @return the cache entry, or null if the properties are missing (e.g. expired) or can't be read
+     */
+    private Object readProperties(final String region, final String key, final Map<String, byte[]> fields) {
+        final String count = CacheEntryProperties.toString(fields.get(CacheEntryProperties.COUNT_FIELD));
+        if (count == null)
+            return null;
+
+        try {
+            final byte[][] properties = new byte[Integer.parseInt(count)][];
+            for (int i = 0; i < properties.length; i++) {
+                properties[i] = fields.get(String.valueOf(i));
+                if (properties[i] == null)
+                    return null;
+            }
+            final RedisSerializer<Object> serializer = getValueSerializer(region);
+            final byte[] version = fields.get(CacheEntryProperties.VERSION_FIELD);
+            final Object entry = CacheEntryProperties.deserialize(
+                    serializer,
+                    properties,
+                    CacheEntryProperties.toString(fields.get(CacheEntryProperties.SUBCLASS_FIELD)),
+                    "1".equals(CacheEntryProperties.toString(fields.get(CacheEntryProperties.UNFETCHED_FIELD))),
+                    (version != null && version.length > 0) ? serializer.deserialize(version) : null);
+
+            final Map<String, byte[]> states = propertyDigests.get(region);
+            final byte[] digest = fields.get(CacheEntryProperties.DIGEST_FIELD);
+            if (states != null && digest != null) {
+                states.put(key, digest);
+            }
+            return entry;
+        } catch (Exception e) {
+            log.warn("Fail to read cache entry properties. region=" + region + ", key=" + key, e);
+            return null;
+        }
+    }
+
+    /**
+     * read the cache entries which are stored by properties, in one pipeline
+     *
+     * @param values deserialized values, in which the entries are replaced
+     */
+    private List<Object> resolveProperties(final String region,
+                                           final List<byte[]> rawKeys,
+                                           final List<byte[]> rawValues,
+                                           final List<Object> values) {
+        final List<Integer> indexes = new ArrayList<Integer>();
+        for (int i = 0; i < rawValues.size(); i++) {
+            if (isPropertiesField(rawValues.get(i))) {
+                indexes.add(i);
+            }
+        }
+        if (indexes.isEmpty() || !propertyDigests.containsKey(region))
+            return values;
+
+        final List<Response<Map<byte[], byte[]>>> responses = new ArrayList<Response<Map<byte[], byte[]>>>(indexes.size());
+        runWithPipeline(new JedisPipelinedCallback() {
+            @Override
+            public void execute(Pipeline pipeline) {
+                for (Integer i : indexes) {
+                    responses.add(pipeline.hgetAll(rawPkey(region, rawKeys.get(i))));
+                }
+            }
+        });
+
+        final List<Object> resolved = new ArrayList<Object>(values);
+        for (int j = 0; j < indexes.size(); j++) {
+            final int i = indexes.get(j);
+            final Map<String, byte[]> fields = new HashMap<String, byte[]>();
+            for (Map.Entry<byte[], byte[]> field : responses.get(j).get().entrySet()) {
+                fields.put(keySerializer.deserialize(field.getKey()), field.getValue());
+            }
+            resolved.set(i, readProperties(region, keySerializer.deserialize(rawKeys.get(i)), fields));
+        }
+        return resolved;
+    }
+
+    /**
+     * expiration time of a properties hash : at least the one of its entry, which is extended when it is read
+     */
+    private long getPropertiesExpiration(final String region, final int expirationInSeconds) {
+        return Math.max(getExpiration(region, expirationInSeconds), System.currentTimeMillis() + PROPERTIES_MIN_TTL);
+    }
+
+    /**
+     * digests of the values last written (or read) by this client, by cache key (least recently used are dropped)
+     */
+    private static <V> Map<String, V> newDigestCache(final int maxSize) {
+        return Collections.synchronizedMap(new LinkedHashMap<String, V>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maxSize;
+            }
+        });
     }
 }
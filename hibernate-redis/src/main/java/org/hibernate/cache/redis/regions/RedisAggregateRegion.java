@@ -0,0 +1,163 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.hibernate.cache.redis.regions;
+
+import org.hibernate.cache.redis.jedis.JedisClient;
+import org.hibernate.cache.redis.strategy.RedisAccessStrategyFactory;
+import org.hibernate.cache.redis.timestamper.JedisCacheTimestamper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Region of the aggregates of an entity region : each entry holds the cache items of an aggregate root entity,
+ * of its collections which belong to the aggregate ({@code redis.aggregate.<region name>}, collection property names)
+ * and of the entities of these collections, so that the whole aggregate is read in one round trip
+ * into the {@link RedisPrefetchBuffer} of the session.
+ * <p/>
+ * Aggregate entries are copied from the member regions by a script, and registered as dependents of their members,
+ * so they are deleted when one of the members changes ({@link RedisTransactionalDataRegion#invalidateDependents}),
+ * and cleared with the member regions.
+ *
+ * @see RedisEntityRegion#getAggregateRegion()
+ */
+public class RedisAggregateRegion extends RedisDataRegion {
+
+    public static final String NAME_SUFFIX = ".aggregate";
+    private static final Logger log = LoggerFactory.getLogger(RedisAggregateRegion.class);
+
+    /**
+     * collection property names of the aggregate root which belong to the aggregate
+     */
+    private final Set<String> collectionProperties;
+
+    /**
+     * regions of the members by name
+     */
+    private final ConcurrentMap<String, RedisTransactionalDataRegion> members =
+            new ConcurrentHashMap<String, RedisTransactionalDataRegion>();
+
+    public RedisAggregateRegion(RedisAccessStrategyFactory accessStrategyFactory,
+                                JedisClient redis,
+                                RedisEntityRegion rootRegion,
+                                Set<String> collectionProperties,
+                                Properties props,
+                                JedisCacheTimestamper timestamper) {
+        super(accessStrategyFactory, redis, rootRegion.getName() + NAME_SUFFIX, props, timestamper);
+
+        this.collectionProperties = Collections.unmodifiableSet(collectionProperties);
+        addMember(rootRegion);
+    }
+
+    public Set<String> getCollectionProperties() {
+        return collectionProperties;
+    }
+
+    /**
+     * Register a region which contains members of the aggregates, so that they are invalidated when its items change.
+     */
+    public void addMember(RedisTransactionalDataRegion region) {
+        members.putIfAbsent(region.getName(), region);
+        region.addAggregate(this);
+    }
+
+    /**
+     * Fetch the members of the specified aggregate in one round trip, and keep them in the prefetch buffer
+     * bound to the current thread.
+     *
+     * @param key cache key of the aggregate root
+     * @return true if the aggregate was found
+     */
+    public boolean prefetch(Object key) {
+        if (!RedisPrefetchBuffer.isActive())
+            return false;
+        try {
+            Map<String, Map<String, Object>> items = redis.getAggregate(getName(), key);
+            if (items == null)
+                return false;
+            buffer(items);
+            log.trace("prefetch aggregate... region=[{}], key=[{}]", getName(), key);
+            return true;
+        } catch (Exception e) {
+            log.warn("Fail to get aggregate... key=" + key, e);
+            return false;
+        }
+    }
+
+    /**
+     * Store the specified aggregate from the current items of its members, unless one of them is missing or locked.
+     *
+     * @param key            cache key of the aggregate root
+     * @param keysByRegion   cache keys of the members by region, including the root
+     * @return the stored items by region and cache key (as string), or null if the aggregate is not stored
+     */
+    public Map<String, Map<String, Object>> put(Object key, Map<RedisTransactionalDataRegion, ? extends Collection<?>> keysByRegion) {
+        // entity and collection regions may share a name
+        Map<String, Collection<Object>> keys = new LinkedHashMap<String, Collection<Object>>(keysByRegion.size());
+        List<Object> dependencies = new ArrayList<Object>();
+        for (Map.Entry<RedisTransactionalDataRegion, ? extends Collection<?>> entry : keysByRegion.entrySet()) {
+            addMember(entry.getKey());
+            Collection<Object> regionKeys = keys.get(entry.getKey().getName());
+            if (regionKeys == null) {
+                regionKeys = new ArrayList<Object>();
+                keys.put(entry.getKey().getName(), regionKeys);
+            }
+            regionKeys.addAll(entry.getValue());
+            for (Object memberKey : entry.getValue()) {
+                dependencies.add(entry.getKey().getDependencyKey(memberKey));
+            }
+        }
+        try {
+            // registered first, so that members changed from now on delete the aggregate
+            redis.addDependents(getName(), key, dependencies, getExpireInSeconds());
+            return redis.setAggregate(getName(), key, keys, getExpireInSeconds());
+        } catch (Exception e) {
+            log.warn("Fail to put aggregate... key=" + key, e);
+            return null;
+        }
+    }
+
+    public void remove(Object key) {
+        try {
+            redis.del(getName(), key);
+        } catch (Exception e) {
+            log.warn("Fail to remove aggregate... key=" + key, e);
+        }
+    }
+
+    public void clear() {
+        try {
+            redis.deleteRegion(getName());
+        } catch (Exception e) {
+            log.warn("Fail to clear region... name=" + getName(), e);
+        }
+    }
+
+    private void buffer(Map<String, Map<String, Object>> items) {
+        for (Map.Entry<String, Map<String, Object>> entry : items.entrySet()) {
+            RedisTransactionalDataRegion region = members.get(entry.getKey());
+            if (region == null)
+                continue;
+            for (Map.Entry<String, Object> item : entry.getValue().entrySet()) {
+                RedisPrefetchBuffer.put(region.getName(), region.getGeneration(), item.getKey(), item.getValue());
+            }
+        }
+    }
+}
@@ -20,6 +20,7 @@ import org.hibernate.cache.CacheException;
 import org.hibernate.cache.redis.jedis.JedisClient;
 import org.hibernate.cache.redis.strategy.RedisAccessStrategyFactory;
 import org.hibernate.cache.redis.timestamper.JedisCacheTimestamper;
+import org.hibernate.cache.redis.util.JedisTool;
 import org.hibernate.cache.spi.CacheDataDescription;
 import org.hibernate.cache.spi.CollectionRegion;
 import org.hibernate.cache.spi.access.AccessType;
@@ -39,6 +40,8 @@ import java.util.Properties;
  */
 public class RedisCollectionRegion extends RedisTransactionalDataRegion implements CollectionRegion {
 
+    private final Properties props;
+
     public RedisCollectionRegion(RedisAccessStrategyFactory accessStrategyFactory,
                                  JedisClient redis,
                                  String regionName,
@@ -47,6 +50,29 @@ public class RedisCollectionRegion extends RedisTransactionalDataRegion implemen
                                  Properties props,
                                  JedisCacheTimestamper timestamper) {
         super(accessStrategyFactory, redis, regionName, settings, metadata, props, timestamper);
+
+        this.props = props;
+    }
+
+    /**
+     * Whether the collection cache entries of the specified role are fetched together with the owner entity.
+     * ({@code redis.prefetch.collections.<role>}, {@code redis.prefetch.collections.<owner entity name>},
+     * {@code redis.prefetch.collections.<region name>} or {@code redis.prefetch.collections}, default false)
+     *
+     * @param role            collection role
+     * @param ownerEntityName entity name of the owner
+     * @return true if prefetched with the owner
+     */
+    public boolean isPrefetchedWithOwner(String role, String ownerEntityName) {
+        if (props == null)
+            return false;
+        String key = JedisTool.PREFETCH_COLLECTIONS_PROPERTY_KEY;
+        String value = props.getProperty(key + "." + role);
+        if (value == null)
+            value = props.getProperty(key + "." + ownerEntityName);
+        if (value == null)
+            value = JedisTool.getRegionProperty(props, key, getName(), "false");
+        return Boolean.parseBoolean(value.trim());
     }
 
     @Override
@@ -18,6 +18,7 @@ package org.hibernate.cache.redis.regions;
 
 import org.hibernate.cache.CacheException;
 import org.hibernate.cache.redis.jedis.JedisClient;
+import org.hibernate.cache.redis.serializer.RedisSerializer;
 import org.hibernate.cache.redis.strategy.RedisAccessStrategyFactory;
 import org.hibernate.cache.redis.timestamper.JedisCacheTimestamper;
 import org.hibernate.cache.redis.util.JedisTool;
@@ -77,6 +78,33 @@ public abstract class RedisDataRegion implements Region {
                                                  String.valueOf(DEFAULT_CACHE_LOCK_TIMEOUT)));
 
         this.expireInSeconds = JedisTool.getExpireInSeconds(props, name);
+
+        RedisSerializer<Object> serializer = JedisTool.createRegionValueSerializer(redis, name, props);
+        if (serializer != null) {
+            redis.setValueSerializer(name, serializer);
+        }
+        if (JedisTool.getRegionBooleanProperty(props, JedisTool.SKIP_UNCHANGED_WRITES_PROPERTY_KEY, name, false)) {
+            redis.setWriteDigests(name, Integer.decode(JedisTool.getRegionProperty(
+                    props, JedisTool.WRITE_DIGESTS_PROPERTY_KEY, name, String.valueOf(JedisTool.DEFAULT_WRITE_DIGESTS)).trim()));
+        }
+        redis.setExpiryJitter(name, Double.parseDouble(
+                JedisTool.getRegionProperty(props, JedisTool.EXPIRY_JITTER_PROPERTY_KEY, name, "0").trim()));
+        redis.setEarlyExpiration(name,
+                                 Long.decode(JedisTool.getRegionProperty(
+                                         props, JedisTool.EARLY_RELOAD_PROPERTY_KEY, name, "0").trim()),
+                                 Double.parseDouble(JedisTool.getRegionProperty(
+                                         props, JedisTool.EARLY_BETA_PROPERTY_KEY, name, "1.0").trim()));
+        int maxEntries = Integer.decode(JedisTool.getRegionProperty(props, JedisTool.MAX_ENTRIES_PROPERTY_KEY, name, "0").trim());
+        if (maxEntries > 0) {
+            boolean lfu = "lfu".equalsIgnoreCase(
+                    JedisTool.getRegionProperty(props, JedisTool.EVICTION_POLICY_PROPERTY_KEY, name, "lru").trim());
+            long decayMillis = lfu
+                               ? Long.decode(JedisTool.getRegionProperty(props, JedisTool.LFU_DECAY_PROPERTY_KEY, name,
+                                                                         String.valueOf(JedisTool.DEFAULT_LFU_DECAY_MILLIS)).trim())
+                               : 0L;
+            redis.setEvictionPolicy(name, maxEntries, decayMillis, Integer.decode(JedisTool.getRegionProperty(
+                    props, JedisTool.EVICTION_STEP_PROPERTY_KEY, name, String.valueOf(JedisTool.DEFAULT_EVICTION_STEP)).trim()));
+        }
     }
 
     public JedisClient getRedis() {
@@ -20,13 +20,19 @@ import org.hibernate.cache.CacheException;
 import org.hibernate.cache.redis.jedis.JedisClient;
 import org.hibernate.cache.redis.strategy.RedisAccessStrategyFactory;
 import org.hibernate.cache.redis.timestamper.JedisCacheTimestamper;
+import org.hibernate.cache.redis.util.JedisTool;
 import org.hibernate.cache.spi.CacheDataDescription;
 import org.hibernate.cache.spi.EntityRegion;
 import org.hibernate.cache.spi.access.AccessType;
 import org.hibernate.cache.spi.access.EntityRegionAccessStrategy;
+import org.hibernate.cache.spi.access.SoftLock;
 import org.hibernate.cfg.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.LinkedHashSet;
 import java.util.Properties;
+import java.util.Set;
 
 /**
  * An entity region specific wrapper around an Redis.
@@ -39,6 +45,19 @@ import java.util.Properties;
  */
 public class RedisEntityRegion extends RedisTransactionalDataRegion implements EntityRegion {
 
+    private static final Logger log = LoggerFactory.getLogger(RedisEntityRegion.class);
+
+    /**
+     * Whether query results regions may record the entities of this region they depend on,
+     * so that updating an entity deletes the dependent results ({@code redis.query.trackDependencies})
+     */
+    private final boolean dependencyTracking;
+
+    /**
+     * aggregates of which the entities of this region are the root, or null
+     */
+    private final RedisAggregateRegion aggregateRegion;
+
     public RedisEntityRegion(RedisAccessStrategyFactory accessStrategyFactory,
                              JedisClient redis,
                              String regionName,
@@ -47,10 +66,89 @@ public class RedisEntityRegion extends RedisTransactionalDataRegion implements E
                              Properties props,
                              JedisCacheTimestamper timestamper) {
         super(accessStrategyFactory, redis, regionName, settings, metadata, props, timestamper);
+
+        this.dependencyTracking =
+                JedisTool.getRegionBooleanProperty(props, JedisTool.TRACK_DEPENDENCIES_PROPERTY_KEY, regionName, false);
+        if (JedisTool.getRegionBooleanProperty(props, JedisTool.PROPERTY_HASH_PROPERTY_KEY, regionName, false)) {
+            redis.setPropertyHashes(regionName, Integer.decode(JedisTool.getRegionProperty(
+                    props, JedisTool.WRITE_DIGESTS_PROPERTY_KEY, regionName, String.valueOf(JedisTool.DEFAULT_WRITE_DIGESTS)).trim()));
+        }
+
+        Set<String> aggregateCollections = new LinkedHashSet<String>();
+        if (props != null) {
+            for (String property : props.getProperty(JedisTool.AGGREGATE_PROPERTY_KEY + "." + regionName, "").split(",")) {
+                if (!property.trim().isEmpty()) {
+                    aggregateCollections.add(property.trim());
+                }
+            }
+        }
+        this.aggregateRegion = aggregateCollections.isEmpty()
+                               ? null
+                               : new RedisAggregateRegion(accessStrategyFactory, redis, this, aggregateCollections,
+                                                          props, timestamper);
+    }
+
+    public boolean isDependencyTrackingEnabled() {
+        return dependencyTracking;
+    }
+
+    /**
+     * Get the region of the aggregates of which the entities of this region are the root.
+     * ({@code redis.aggregate.<region name>}, comma separated collection property names)
+     *
+     * @return the aggregate region, or null if the entities are not cached as aggregates
+     */
+    public RedisAggregateRegion getAggregateRegion() {
+        return aggregateRegion;
     }
 
     @Override
     public EntityRegionAccessStrategy buildAccessStrategy(AccessType accessType) throws CacheException {
         return getAccessStrategyFactory().createEntityRegionAccessStrategy(this, accessType);
     }
+
+    @Override
+    public void unlockRegion(SoftLock lock) {
+        super.unlockRegion(lock);
+        invalidateQueries();
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        invalidateQueries();
+    }
+
+    @Override
+    public boolean hasDependents() {
+        return dependencyTracking || super.hasDependents();
+    }
+
+    /**
+     * Mark the cached query results on this region as stale until the current transaction completes,
+     * since rows may have been inserted. (see {@link org.hibernate.cache.spi.UpdateTimestampsCache#preInvalidate})
+     */
+    public void preInvalidateQueries() {
+        if (dependencyTracking) {
+            setRegionTimestamp(nextTimestamp() + getTimeout());
+        }
+    }
+
+    /**
+     * Mark the cached query results on this region as stale, since rows may have been inserted or bulk updated.
+     * (see {@link org.hibernate.cache.spi.UpdateTimestampsCache#invalidate})
+     */
+    public void invalidateQueries() {
+        if (dependencyTracking) {
+            setRegionTimestamp(nextTimestamp());
+        }
+    }
+
+    private void setRegionTimestamp(long timestamp) {
+        try {
+            redis.setRegionTimestamp(getName(), timestamp);
+        } catch (Exception e) {
+            log.warn("Fail to set region timestamp... region=" + getName(), e);
+        }
+    }
 }
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.hibernate.cache.redis.regions;
+
+import org.hibernate.cache.redis.jedis.JedisClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache items to invalidate when the current transaction completes, for regions with deferred invalidation.
+ * <p/>
+ * Non-strict read/write strategies invalidate an item when it is updated or removed, and once more after the transaction.
+ * With deferred invalidation ({@code redis.invalidation.deferred}), the keys are collected in the batch bound to the current thread
+ * instead, and {@link #flush()} deletes each of them once, by one HDEL and one ZREM per region in a single pipeline.
+ * The batch is flushed by {@link org.hibernate.cache.redis.RedisInvalidationSessionListener} when the transaction completes,
+ * so it is only used by the regions of the session factories which installed the listener, and assumes that the transaction
+ * completes on the thread which updated the items (e.g. resource local transactions).
+ * <p/>
+ * Invalidations may be repeated after {@code redis.invalidation.delayMillis}, to delete values which were loaded
+ * from the database by concurrent transactions before the transaction committed.
+ */
+public final class RedisInvalidationBatch {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisInvalidationBatch.class);
+
+    private static final ThreadLocal<RedisInvalidationBatch> current = new ThreadLocal<RedisInvalidationBatch>();
+
+    private static volatile ScheduledExecutorService scheduler;
+
+    private final Map<RedisTransactionalDataRegion, Set<Object>> regions =
+            new LinkedHashMap<RedisTransactionalDataRegion, Set<Object>>();
+
+    private RedisInvalidationBatch() {}
+
+    /**
+     * Add the cache item to the batch of the current thread.
+     */
+    static void add(RedisTransactionalDataRegion region, Object key) {
+        RedisInvalidationBatch batch = current.get();
+        if (batch == null) {
+            batch = new RedisInvalidationBatch();
+            current.set(batch);
+        }
+        Set<Object> keys = batch.regions.get(region);
+        if (keys == null) {
+            keys = new LinkedHashSet<Object>();
+            batch.regions.put(region, keys);
+        }
+        keys.add(key);
+    }
+
+    /**
+     * Whether the batch of the current thread has items to invalidate
+     */
+    public static boolean isPending() {
+        return current.get() != null;
+    }
+
+    /**
+     * Invalidate the items in the batch of the current thread, and unbind it.
+     */
+    public static void flush() {
+        RedisInvalidationBatch batch = current.get();
+        if (batch == null)
+            return;
+        current.remove();
+        batch.invalidate();
+    }
+
+    /**
+     * Delete the specified cache items again after the invalidation delay of the region
+     */
+    static void scheduleRepeat(final RedisTransactionalDataRegion region, final Collection<?> keys) {
+        final long delay = region.getInvalidationDelayMillis();
+        if (delay <= 0 || keys.isEmpty())
+            return;
+
+        getScheduler().schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    region.getRedis().mdel(region.getName(), keys);
+                } catch (Exception e) {
+                    log.warn("Fail to remove cache items... region=" + region.getName(), e);
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void invalidate() {
+        Map<JedisClient, Map<String, Collection<?>>> keysByRedis = new HashMap<JedisClient, Map<String, Collection<?>>>();
+        for (Map.Entry<RedisTransactionalDataRegion, Set<Object>> entry : regions.entrySet()) {
+            RedisTransactionalDataRegion region = entry.getKey();
+            Map<String, Collection<?>> keys = keysByRedis.get(region.getRedis());
+            if (keys == null) {
+                keys = new HashMap<String, Collection<?>>();
+                keysByRedis.put(region.getRedis(), keys);
+            }
+            keys.put(region.getName(), entry.getValue());
+        }
+
+        for (Map.Entry<JedisClient, Map<String, Collection<?>>> entry : keysByRedis.entrySet()) {
+            try {
+                entry.getKey().mdel(entry.getValue());
+                log.trace("invalidate cache items... regions=[{}]", entry.getValue().keySet());
+            } catch (Exception e) {
+                log.warn("Fail to remove cache items... regions=" + entry.getValue().keySet(), e);
+            }
+        }
+
+        for (Map.Entry<RedisTransactionalDataRegion, Set<Object>> entry : regions.entrySet()) {
+            RedisTransactionalDataRegion region = entry.getKey();
+            for (Object key : entry.getValue()) {
+                RedisPrefetchBuffer.discard(region.getName(), key);
+            }
+            region.invalidateDependents(entry.getValue());
+            scheduleRepeat(region, entry.getValue());
+        }
+    }
+
+    private static ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            synchronized (RedisInvalidationBatch.class) {
+                if (scheduler == null) {
+                    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "hibernate-redis-invalidation");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                    executor.setRemoveOnCancelPolicy(true);
+                    scheduler = executor;
+                }
+            }
+        }
+        return scheduler;
+    }
+}
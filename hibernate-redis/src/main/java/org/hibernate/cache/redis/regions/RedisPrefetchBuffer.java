@@ -0,0 +1,240 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.hibernate.cache.redis.regions;
+
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.spi.EventSource;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+/**
+ * Buffer of cache items which were fetched ahead in one round trip, kept until the transaction of the session completes.
+ * <p/>
+ * The buffer is held by the thread which uses the session, and is active between {@link #bind(SessionImplementor)}
+ * and {@link #unbind(RedisPrefetchBuffer)}, while {@link RedisTransactionalDataRegion#get(Object)} reads it before accessing redis.
+ * Buffered items are read ahead same as batch fetching from database, and are discarded
+ * when the item is loaded ({@link #discard(String, Object)}), put or removed in the region, or the region is cleared.
+ * The whole buffer is dropped when the transaction completes, or when the thread binds the buffer of another session,
+ * so items updated by other transactions are not served after the transaction which read them ahead.
+ */
+public final class RedisPrefetchBuffer {
+
+    /**
+     * buffered value of the items which were not found in the region
+     */
+    static final Object NOT_FOUND = new Object();
+
+    /**
+     * buffer which is read by the regions during the current call
+     */
+    private static final ThreadLocal<RedisPrefetchBuffer> current = new ThreadLocal<RedisPrefetchBuffer>();
+
+    /**
+     * buffer of the current transaction of the session used by the thread
+     */
+    private static final ThreadLocal<RedisPrefetchBuffer> transactional = new ThreadLocal<RedisPrefetchBuffer>();
+
+    private final Map<String, Map<String, Item>> regions = new HashMap<String, Map<String, Item>>();
+
+    private final WeakReference<SessionImplementor> session;
+
+    private boolean dryRun = false;
+
+    private RedisPrefetchBuffer(SessionImplementor session) {
+        this.session = new WeakReference<SessionImplementor>(session);
+    }
+
+    /**
+     * Bind the buffer of the current transaction of the specified session to the current thread,
+     * creating it if there is none.
+     *
+     * @param session hibernate session
+     * @return previously bound buffer, which must be restored by {@link #unbind(RedisPrefetchBuffer)}
+     */
+    public static RedisPrefetchBuffer bind(SessionImplementor session) {
+        RedisPrefetchBuffer buffer = getBuffer(session);
+        if (buffer == null) {
+            final RedisPrefetchBuffer created = new RedisPrefetchBuffer(session);
+            if (session instanceof EventSource) {
+                ((EventSource) session).getActionQueue().registerProcess(new AfterTransactionCompletionProcess() {
+                    @Override
+                    public void doAfterTransactionCompletion(boolean success, SessionImplementor session) {
+                        created.release();
+                    }
+                });
+                transactional.set(created);
+            }
+            // otherwise the buffer is only used by the current call
+            buffer = created;
+        }
+        RedisPrefetchBuffer previous = current.get();
+        current.set(buffer);
+        return previous;
+    }
+
+    /**
+     * Bind the buffer of the current transaction of the specified session to the current thread,
+     * only if the session has prefetched items.
+     *
+     * @param session hibernate session
+     * @return previously bound buffer, which must be restored by {@link #unbind(RedisPrefetchBuffer)}
+     */
+    public static RedisPrefetchBuffer bindExisting(SessionImplementor session) {
+        RedisPrefetchBuffer previous = current.get();
+        RedisPrefetchBuffer buffer = getBuffer(session);
+        if (buffer != null) {
+            current.set(buffer);
+        }
+        return previous;
+    }
+
+    private static RedisPrefetchBuffer getBuffer(SessionImplementor session) {
+        RedisPrefetchBuffer buffer = transactional.get();
+        if (buffer != null && buffer.session.get() != session) {
+            // the thread moved on to another session
+            transactional.remove();
+            return null;
+        }
+        return buffer;
+    }
+
+    /**
+     * drop the items of the buffer, when the transaction which read them ahead completes
+     */
+    private void release() {
+        regions.clear();
+        session.clear();
+        if (transactional.get() == this) {
+            transactional.remove();
+        }
+    }
+
+    /**
+     * Restore the previously bound buffer.
+     *
+     * @param previous the buffer returned by {@link #bind(SessionImplementor)}
+     */
+    public static void unbind(RedisPrefetchBuffer previous) {
+        if (previous != null) {
+            current.set(previous);
+        } else {
+            current.remove();
+        }
+    }
+
+    /**
+     * Start a dry run, which lets hibernate tell the items it would look up without accessing redis.
+     * During a dry run, {@link RedisTransactionalDataRegion#get(Object)} returns null for the items which are not buffered.
+     */
+    public static void beginDryRun() {
+        RedisPrefetchBuffer buffer = current.get();
+        if (buffer != null) {
+            buffer.dryRun = true;
+        }
+    }
+
+    public static void endDryRun() {
+        RedisPrefetchBuffer buffer = current.get();
+        if (buffer != null) {
+            buffer.dryRun = false;
+        }
+    }
+
+    /**
+     * Whether the specified item is buffered in the current buffer
+     */
+    public static boolean contains(String region, Object key) {
+        RedisPrefetchBuffer buffer = current.get();
+        if (buffer == null)
+            return false;
+
+        Map<String, Item> items = buffer.regions.get(region);
+        return items != null && items.containsKey(key.toString());
+    }
+
+    /**
+     * Discard the specified item from the current buffer. (e.g. after the item has been loaded)
+     */
+    public static void discard(String region, Object key) {
+        RedisPrefetchBuffer buffer = current.get();
+        if (buffer != null) {
+            Map<String, Item> items = buffer.regions.get(region);
+            if (items != null) {
+                items.remove(key.toString());
+            }
+        }
+    }
+
+    static boolean isActive() {
+        return current.get() != null;
+    }
+
+    static boolean isDryRun() {
+        RedisPrefetchBuffer buffer = current.get();
+        return buffer != null && buffer.dryRun;
+    }
+
+    static void put(String region, long generation, Object key, Object value) {
+        RedisPrefetchBuffer buffer = current.get();
+        if (buffer == null)
+            return;
+
+        Map<String, Item> items = buffer.regions.get(region);
+        if (items == null) {
+            items = new HashMap<String, Item>();
+            buffer.regions.put(region, items);
+        }
+        items.put(key.toString(), new Item(generation, (value != null) ? value : NOT_FOUND));
+    }
+
+    /**
+     * get the buffered item.
+     *
+     * @param generation current generation of the region. items buffered before the region was cleared are discarded.
+     * @return buffered value, {@link #NOT_FOUND} if it was not found in the region, or null if it is not buffered.
+     */
+    static Object get(String region, long generation, Object key) {
+        RedisPrefetchBuffer buffer = current.get();
+        if (buffer == null)
+            return null;
+
+        Map<String, Item> items = buffer.regions.get(region);
+        if (items == null)
+            return null;
+
+        Item item = items.get(key.toString());
+        if (item == null)
+            return null;
+        if (item.generation != generation) {
+            items.remove(key.toString());
+            return null;
+        }
+        return item.value;
+    }
+
+    private static final class Item {
+        private final long generation;
+        private final Object value;
+
+        private Item(long generation, Object value) {
+            this.generation = generation;
+            this.value = value;
+        }
+    }
+}
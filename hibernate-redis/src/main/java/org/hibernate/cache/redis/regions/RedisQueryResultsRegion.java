@@ -19,8 +19,13 @@ package org.hibernate.cache.redis.regions;
 import org.hibernate.cache.redis.jedis.JedisClient;
 import org.hibernate.cache.redis.strategy.RedisAccessStrategyFactory;
 import org.hibernate.cache.redis.timestamper.JedisCacheTimestamper;
+import org.hibernate.cache.redis.util.JedisTool;
 import org.hibernate.cache.spi.QueryResultsRegion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Properties;
 
 /**
@@ -31,11 +36,133 @@ import java.util.Properties;
  */
 public class RedisQueryResultsRegion extends RedisGeneralDataRegion implements QueryResultsRegion {
 
+    private static final Logger log = LoggerFactory.getLogger(RedisQueryResultsRegion.class);
+
+    /**
+     * Whether cached query results record the entities they depend on
+     */
+    private final boolean dependencyTracking;
+
+    /**
+     * Whether the entities of cached query results are fetched from entity regions in one round trip
+     */
+    private final boolean prefetch;
+
+    /**
+     * Time a miss lease is held at most, 0 if the nodes run the query on every concurrent miss
+     */
+    private final long leaseMillis;
+
+    /**
+     * Time a miss waits for the node holding the lease to put the query result
+     */
+    private final long leaseWaitMillis;
+
     public RedisQueryResultsRegion(RedisAccessStrategyFactory accessStrategyFactory,
                                    JedisClient redis,
                                    String regionName,
                                    Properties props,
                                    JedisCacheTimestamper timestamper) {
         super(accessStrategyFactory, redis, regionName, props, timestamper);
+
+        this.dependencyTracking =
+                JedisTool.getRegionBooleanProperty(props, JedisTool.TRACK_DEPENDENCIES_PROPERTY_KEY, regionName, false);
+        this.prefetch =
+                JedisTool.getRegionBooleanProperty(props, JedisTool.QUERY_PREFETCH_PROPERTY_KEY, regionName, true);
+        this.leaseMillis =
+                JedisTool.getRegionBooleanProperty(props, JedisTool.LEASE_PROPERTY_KEY, regionName, false)
+                ? Long.decode(JedisTool.getRegionProperty(props, JedisTool.LEASE_MILLIS_PROPERTY_KEY, regionName,
+                                                          String.valueOf(JedisTool.DEFAULT_LEASE_MILLIS)).trim())
+                : 0L;
+        this.leaseWaitMillis =
+                Long.decode(JedisTool.getRegionProperty(props, JedisTool.LEASE_WAIT_PROPERTY_KEY, regionName,
+                                                        String.valueOf(JedisTool.DEFAULT_LEASE_WAIT_MILLIS)).trim());
+    }
+
+    /**
+     * On a miss with leases enabled, only the node which takes the miss lease of the query runs it,
+     * the other nodes wait until the result is put (or the wait times out) and read it again.
+     */
+    @Override
+    public Object get(Object key) {
+        Object value = super.get(key);
+        if (value != null || key == null || leaseMillis <= 0)
+            return value;
+        try {
+            if (redis.tryLease(getName(), key, leaseMillis))
+                return null;
+            if (redis.awaitLease(getName(), key, leaseWaitMillis))
+                return super.get(key);
+        } catch (Exception e) {
+            log.warn("Fail to lease cache item... key=" + key, e);
+        }
+        return null;
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        super.put(key, value);
+        releaseLease(key);
+    }
+
+    private void releaseLease(Object key) {
+        if (leaseMillis > 0) {
+            try {
+                redis.releaseLease(getName(), key);
+            } catch (Exception e) {
+                log.warn("Fail to release lease of cache item... key=" + key, e);
+            }
+        }
+    }
+
+    public boolean isDependencyTrackingEnabled() {
+        return dependencyTracking;
+    }
+
+    public boolean isPrefetchEnabled() {
+        return prefetch;
+    }
+
+    /**
+     * put the query result with the entity cache keys it depends on, unless one of the entities was updated
+     * or removed since the given timestamp, as the result may have been read before the change.
+     *
+     * @param key          query key
+     * @param value        query result
+     * @param dependencies entity cache keys referenced by the query result
+     * @param timestamp    time before which the result was read (the session timestamp)
+     * @return true if the result is put
+     */
+    public boolean putDependent(Object key, Object value, Collection<?> dependencies, long timestamp) {
+        try {
+            return redis.setDependent(getName(), key, value, getExpireInSeconds(), dependencies, timestamp);
+        } catch (Exception e) {
+            log.warn("Fail to put cache item... key=" + key, e);
+            return false;
+        } finally {
+            releaseLease(key);
+        }
+    }
+
+    /**
+     * Whether none of the specified entity regions has been invalidated since the given timestamp.
+     *
+     * @param entityRegions entity region names
+     * @param timestamp     timestamp of the cached query result
+     * @return true if the cached query result is still up to date
+     */
+    public boolean isUpToDate(Collection<String> entityRegions, long timestamp) {
+        try {
+            List<Long> timestamps = redis.getRegionTimestamps(entityRegions);
+            for (Long invalidated : timestamps) {
+                if (invalidated != null && invalidated >= timestamp) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            log.warn("Fail to get region timestamps... regions=" + entityRegions, e);
+            return false;
+        }
     }
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.hibernate.cache.redis.regions;
+
+import org.hibernate.cache.spi.access.SoftLock;
+
+/**
+ * Soft lock of a cache item, held in the region hash until it is released or times out,
+ * or of a whole region, held in its lock key.
+ *
+ * @see RedisTransactionalDataRegion#lock(Object, Object)
+ * @see RedisTransactionalDataRegion#lockRegion()
+ */
+public final class RedisSoftLock implements SoftLock {
+
+    private final String lockId;
+
+    RedisSoftLock(String lockId) {
+        this.lockId = lockId;
+    }
+
+    public String getLockId() {
+        return lockId;
+    }
+
+    @Override
+    public String toString() {
+        return "RedisSoftLock(" + lockId + ")";
+    }
+}
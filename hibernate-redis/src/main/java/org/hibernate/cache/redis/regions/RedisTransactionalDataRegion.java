@@ -17,16 +17,26 @@
 package org.hibernate.cache.redis.regions;
 
 import org.hibernate.cache.CacheException;
+import org.hibernate.cache.redis.RedisInvalidationSessionListener;
 import org.hibernate.cache.redis.jedis.JedisClient;
+import org.hibernate.cache.redis.serializer.ValueEnvelope;
 import org.hibernate.cache.redis.strategy.RedisAccessStrategyFactory;
 import org.hibernate.cache.redis.timestamper.JedisCacheTimestamper;
+import org.hibernate.cache.redis.util.JedisTool;
 import org.hibernate.cache.spi.CacheDataDescription;
 import org.hibernate.cache.spi.TransactionalDataRegion;
+import org.hibernate.cache.spi.access.SoftLock;
 import org.hibernate.cfg.Settings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Properties;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * RedisTransactionalDataRegion
@@ -37,6 +47,7 @@ import java.util.Properties;
 public class RedisTransactionalDataRegion extends RedisDataRegion implements TransactionalDataRegion {
 
     private static final Logger log = LoggerFactory.getLogger(RedisTransactionalDataRegion.class);
+    private static final int MAX_FLIGHTS = 10000;
     /**
      * Hibernate settings associated with the persistence unit.
      */
@@ -45,6 +56,31 @@ public class RedisTransactionalDataRegion extends RedisDataRegion implements Tra
      * Metadata associated with the objects sorted in the region
      */
     protected final CacheDataDescription metadata;
+    /**
+     * incremented whenever the region is cleared, to discard items in the prefetch buffers
+     */
+    private final AtomicLong generation = new AtomicLong();
+    /**
+     * whether non-strict read/write invalidations are deferred until the transaction completes
+     */
+    private final boolean deferredInvalidation;
+    /**
+     * delay after which invalidations are repeated, 0 to disable
+     */
+    private final long invalidationDelayMillis;
+    /**
+     * aggregates which contain items of this region
+     */
+    private final List<RedisAggregateRegion> aggregates = new CopyOnWriteArrayList<RedisAggregateRegion>();
+    /**
+     * max time a miss waits for the concurrent miss of the same key to put the value loaded from the database,
+     * 0 if concurrent misses all load from the database
+     */
+    private final long missWaitMillis;
+    /**
+     * misses being loaded from the database by cache key
+     */
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
 
     public RedisTransactionalDataRegion(RedisAccessStrategyFactory accessStrategyFactory,
                                         JedisClient redis,
@@ -57,12 +93,103 @@ public class RedisTransactionalDataRegion extends RedisDataRegion implements Tra
 
         this.settings = settings;
         this.metadata = metadata;
+        this.deferredInvalidation =
+                JedisTool.getRegionBooleanProperty(props, JedisTool.DEFERRED_INVALIDATION_PROPERTY_KEY, regionName, false);
+        this.invalidationDelayMillis =
+                Long.decode(JedisTool.getRegionProperty(props, JedisTool.INVALIDATION_DELAY_PROPERTY_KEY, regionName, "0").trim());
+        this.missWaitMillis =
+                JedisTool.getRegionBooleanProperty(props, JedisTool.SINGLE_FLIGHT_PROPERTY_KEY, regionName, false)
+                ? Long.decode(JedisTool.getRegionProperty(props, JedisTool.MISS_WAIT_PROPERTY_KEY, regionName,
+                                                          String.valueOf(JedisTool.DEFAULT_MISS_WAIT_MILLIS)).trim())
+                : 0L;
     }
 
     public Settings getSettings() {
         return settings;
     }
 
+    /**
+     * Whether invalidations are deferred until the transaction completes : the region sets {@code redis.invalidation.deferred},
+     * and the session listener flushing the batches is installed for its session factory.
+     */
+    public boolean isDeferredInvalidation() {
+        return deferredInvalidation
+               && settings != null
+               && settings.getBaselineSessionEventsListenerBuilder().getAutoListener() == RedisInvalidationSessionListener.class;
+    }
+
+    public long getInvalidationDelayMillis() {
+        return invalidationDelayMillis;
+    }
+
+    long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * register an aggregate which contains items of this region, so it is invalidated when they change
+     */
+    void addAggregate(RedisAggregateRegion aggregate) {
+        if (!aggregates.contains(aggregate)) {
+            aggregates.add(aggregate);
+        }
+    }
+
+    /**
+     * Get the key under which cache items of other regions depend on the specified item of this region.
+     * It is qualified by the region name, so that session factories sharing the redis server
+     * with another region prefix do not invalidate each other.
+     *
+     * @param key cache key
+     * @return dependency key
+     */
+    public String getDependencyKey(Object key) {
+        return getName() + ':' + key;
+    }
+
+    /**
+     * Whether cache items of other regions (aggregates, query results) depend on the items of this region
+     */
+    public boolean hasDependents() {
+        return !aggregates.isEmpty();
+    }
+
+    /**
+     * delete the cache items of other regions (aggregates, query results) which contain the specified item.
+     * the invalidation time is kept for the lock timeout, so that results read before are not put afterwards.
+     *
+     * @param key cache key
+     */
+    public void invalidateDependents(Object key) {
+        if (!hasDependents())
+            return;
+        try {
+            redis.delDependents(getDependencyKey(key), nextTimestamp(), getTimeout());
+        } catch (Exception e) {
+            log.warn("Fail to remove dependent cache items... key=" + key, e);
+        }
+    }
+
+    /**
+     * delete the cache items of other regions which contain one of the specified items, in one round trip.
+     * (see {@link #invalidateDependents(Object)})
+     *
+     * @param keys cache keys
+     */
+    public void invalidateDependents(Collection<?> keys) {
+        if (!hasDependents() || keys.isEmpty())
+            return;
+        List<String> dependencies = new ArrayList<String>(keys.size());
+        for (Object key : keys) {
+            dependencies.add(getDependencyKey(key));
+        }
+        try {
+            redis.delDependents(dependencies, nextTimestamp(), getTimeout());
+        } catch (Exception e) {
+            log.warn("Fail to remove dependent cache items... keys=" + keys, e);
+        }
+    }
+
     @Override
     public boolean isTransactionAware() {
         return false;
@@ -74,6 +201,60 @@ public class RedisTransactionalDataRegion extends RedisDataRegion implements Tra
     }
 
     public Object get(Object key) {
+        if (RedisPrefetchBuffer.isActive()) {
+            Object buffered = RedisPrefetchBuffer.get(getName(), generation.get(), key);
+            if (buffered != null)
+                return (buffered != RedisPrefetchBuffer.NOT_FOUND) ? buffered : null;
+            if (RedisPrefetchBuffer.isDryRun())
+                return null;
+        }
+        Object value;
+        try {
+            value = redis.get(getName(), key, getExpireInSeconds());
+        } catch (Exception e) {
+            log.warn("Fail to get cache item... key=" + key, e);
+            return null;
+        }
+        return (value == null && missWaitMillis > 0) ? awaitFlight(key) : value;
+    }
+
+    /**
+     * Single flight of a miss : the first miss of a key loads it from the database, and the concurrent misses
+     * of the same key wait until it is put by {@link #putFromLoad}, at most {@code redis.miss.waitMillis},
+     * then read it again or load it from the database too.
+     *
+     * @return the value put by the concurrent miss, or null if the caller must load it from the database
+     */
+    private Object awaitFlight(Object key) {
+        final String flightKey = key.toString();
+        final Flight flight = new Flight(System.currentTimeMillis() + missWaitMillis);
+        Flight current = flights.putIfAbsent(flightKey, flight);
+        while (current != null && current.owner != flight.owner && current.deadline < System.currentTimeMillis()) {
+            // the miss which owned the flight did not put a value in time
+            current = flights.replace(flightKey, current, flight) ? null : flights.putIfAbsent(flightKey, flight);
+        }
+        if (current == null) {
+            if (flights.size() > MAX_FLIGHTS) {
+                removeExpiredFlights();
+            }
+            return null;
+        }
+        if (current.owner == flight.owner) {
+            // missed again by the same thread, e.g. the entity does not exist
+            return null;
+        }
+
+        try {
+            if (!current.latch.await(Math.max(current.deadline - System.currentTimeMillis(), 1), TimeUnit.MILLISECONDS)) {
+                flights.remove(flightKey, current);
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (current.value != null)
+            return current.value;
         try {
             return redis.get(getName(), key, getExpireInSeconds());
         } catch (Exception e) {
@@ -82,8 +263,169 @@ public class RedisTransactionalDataRegion extends RedisDataRegion implements Tra
         }
     }
 
+    /**
+     * release the misses waiting for the specified key
+     *
+     * @param value the value which was put, or null
+     */
+    private void releaseFlight(Object key, Object value) {
+        if (missWaitMillis <= 0)
+            return;
+        Flight flight = flights.remove(key.toString());
+        if (flight != null) {
+            flight.value = value;
+            flight.latch.countDown();
+        }
+    }
+
+    private void removeExpiredFlights() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Flight> entry : flights.entrySet()) {
+            if (entry.getValue().deadline < now) {
+                flights.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Get the specified cache items in one round trip.
+     *
+     * @param keys cache keys to retrieve
+     * @return map of the keys and the cached items which were found
+     */
+    public Map<Object, Object> getAll(Collection<?> keys) {
+        Map<Object, Object> result = new HashMap<Object, Object>(keys.size());
+        if (keys.isEmpty())
+            return result;
+        try {
+            List<Object> values = redis.mget(getName(), keys, getExpireInSeconds());
+            int i = 0;
+            for (Object key : keys) {
+                Object value = values.get(i++);
+                if (value != null) {
+                    result.put(key, value);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Fail to get cache items... region=" + getName(), e);
+        }
+        return result;
+    }
+
+    /**
+     * Fetch the specified cache items in one round trip, and keep them in the prefetch buffer bound to the current thread.
+     * Does nothing unless a buffer is bound by {@link RedisPrefetchBuffer#bind(org.hibernate.engine.spi.SessionImplementor)}.
+     *
+     * @param keys cache keys to fetch
+     */
+    public void prefetch(Collection<?> keys) {
+        prefetch(Collections.singletonMap(this, keys));
+    }
+
+    /**
+     * Fetch the specified cache items of several regions in one pipeline, and keep them in the prefetch buffer
+     * bound to the current thread. The regions must be built by the same region factory.
+     *
+     * @param keysByRegion cache keys to fetch by region
+     */
+    public static void prefetch(Map<? extends RedisTransactionalDataRegion, ? extends Collection<?>> keysByRegion) {
+        if (keysByRegion.isEmpty() || !RedisPrefetchBuffer.isActive())
+            return;
+
+        Map<RedisTransactionalDataRegion, Long> generations =
+                new HashMap<RedisTransactionalDataRegion, Long>(keysByRegion.size());
+        for (RedisTransactionalDataRegion region : keysByRegion.keySet()) {
+            generations.put(region, region.generation.get());
+        }
+        try {
+            Map<RedisTransactionalDataRegion, List<Object>> values = mget(keysByRegion);
+            for (Map.Entry<? extends RedisTransactionalDataRegion, ? extends Collection<?>> entry : keysByRegion.entrySet()) {
+                String region = entry.getKey().getName();
+                List<Object> regionValues = values.get(entry.getKey());
+                if (regionValues == null)
+                    continue;
+                int i = 0;
+                for (Object key : entry.getValue()) {
+                    RedisPrefetchBuffer.put(region, generations.get(entry.getKey()), key, regionValues.get(i++));
+                }
+            }
+            log.trace("prefetch cache items... regions=[{}]", keysByRegion.keySet());
+        } catch (Exception e) {
+            log.warn("Fail to prefetch cache items... regions=" + keysByRegion.keySet(), e);
+        }
+    }
+
+    /**
+     * Get the specified cache items of several regions in one pipeline.
+     * The regions must be built by the same region factory.
+     *
+     * @param keysByRegion cache keys to retrieve by region
+     * @return map of the keys and the cached items which were found
+     */
+    public static Map<Object, Object> getAll(Map<? extends RedisTransactionalDataRegion, ? extends Collection<?>> keysByRegion) {
+        Map<Object, Object> result = new HashMap<Object, Object>();
+        try {
+            Map<RedisTransactionalDataRegion, List<Object>> values = mget(keysByRegion);
+            for (Map.Entry<? extends RedisTransactionalDataRegion, ? extends Collection<?>> entry : keysByRegion.entrySet()) {
+                List<Object> regionValues = values.get(entry.getKey());
+                if (regionValues == null)
+                    continue;
+                int i = 0;
+                for (Object key : entry.getValue()) {
+                    Object value = regionValues.get(i++);
+                    if (value != null) {
+                        result.put(key, value);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Fail to get cache items... regions=" + keysByRegion.keySet(), e);
+        }
+        return result;
+    }
+
+    /**
+     * Get the specified cache items of several regions in one pipeline, by region.
+     * entity and collection regions may share a name, so their keys are requested together.
+     */
+    private static Map<RedisTransactionalDataRegion, List<Object>> mget(Map<? extends RedisTransactionalDataRegion, ? extends Collection<?>> keysByRegion) {
+        Map<String, List<Object>> keys = new HashMap<String, List<Object>>(keysByRegion.size());
+        Map<String, Integer> expirations = new HashMap<String, Integer>(keysByRegion.size());
+        JedisClient redis = null;
+        for (Map.Entry<? extends RedisTransactionalDataRegion, ? extends Collection<?>> entry : keysByRegion.entrySet()) {
+            RedisTransactionalDataRegion region = entry.getKey();
+            if (!entry.getValue().isEmpty()) {
+                List<Object> regionKeys = keys.get(region.getName());
+                if (regionKeys == null) {
+                    regionKeys = new ArrayList<Object>();
+                    keys.put(region.getName(), regionKeys);
+                }
+                regionKeys.addAll(entry.getValue());
+                expirations.put(region.getName(), region.getExpireInSeconds());
+                redis = region.redis;
+            }
+        }
+        if (redis == null)
+            return Collections.emptyMap();
+
+        Map<String, List<Object>> values = redis.mget(keys, expirations);
+        Map<RedisTransactionalDataRegion, List<Object>> valuesByRegion =
+                new HashMap<RedisTransactionalDataRegion, List<Object>>(keysByRegion.size());
+        Map<String, Integer> offsets = new HashMap<String, Integer>(values.size());
+        for (Map.Entry<? extends RedisTransactionalDataRegion, ? extends Collection<?>> entry : keysByRegion.entrySet()) {
+            String region = entry.getKey().getName();
+            List<Object> regionValues = values.get(region);
+            if (regionValues == null || entry.getValue().isEmpty())
+                continue;
+            int offset = offsets.containsKey(region) ? offsets.get(region) : 0;
+            valuesByRegion.put(entry.getKey(), regionValues.subList(offset, offset + entry.getValue().size()));
+            offsets.put(region, offset + entry.getValue().size());
+        }
+        return valuesByRegion;
+    }
 
     public void put(Object key, Object value) {
+        RedisPrefetchBuffer.discard(getName(), key);
         try {
             redis.set(getName(), key, value, getExpireInSeconds());
         } catch (Exception e) {
@@ -91,20 +433,211 @@ public class RedisTransactionalDataRegion extends RedisDataRegion implements Tra
         }
     }
 
+    /**
+     * Soft lock the cache item before it is updated or deleted, so it is read as missing,
+     * and values loaded by concurrent transactions are not set until the lock is released.
+     *
+     * @param key     cache key
+     * @param version version of the item, or null
+     * @return the lock, or null if the item could not be locked (it is removed then)
+     */
+    public SoftLock lock(Object key, Object version) {
+        RedisPrefetchBuffer.discard(getName(), key);
+        try {
+            long timestamp = nextTimestamp();
+            String lockId = redis.lock(getName(), key, timestamp, timestamp + getTimeout(),
+                                       ValueEnvelope.toVersionNumber(version));
+            invalidateDependents(key);
+            return new RedisSoftLock(lockId);
+        } catch (Exception e) {
+            log.warn("Fail to lock cache item... key=" + key, e);
+            remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Release the soft lock of the cache item without setting a value
+     */
+    public void unlock(Object key, SoftLock lock) {
+        RedisPrefetchBuffer.discard(getName(), key);
+        if (!(lock instanceof RedisSoftLock)) {
+            remove(key);
+            return;
+        }
+        try {
+            long timestamp = nextTimestamp();
+            redis.unlock(getName(), key, ((RedisSoftLock) lock).getLockId(), timestamp, timestamp + getTimeout());
+            invalidateDependents(key);
+        } catch (Exception e) {
+            log.warn("Fail to unlock cache item... key=" + key, e);
+            remove(key);
+        }
+    }
+
+    /**
+     * Release the soft lock of the cache item and set its new value, unless it was locked concurrently.
+     *
+     * @return true if the value is set
+     */
+    public boolean unlockAndPut(Object key, Object value, SoftLock lock) {
+        RedisPrefetchBuffer.discard(getName(), key);
+        if (!(lock instanceof RedisSoftLock)) {
+            remove(key);
+            return false;
+        }
+        try {
+            long timestamp = nextTimestamp();
+            boolean set = redis.unlockAndSet(getName(), key, ((RedisSoftLock) lock).getLockId(), value,
+                                             timestamp, timestamp + getTimeout(), getExpireInSeconds());
+            invalidateDependents(key);
+            return set;
+        } catch (Exception e) {
+            log.warn("Fail to unlock cache item... key=" + key, e);
+            remove(key);
+            return false;
+        }
+    }
+
+    /**
+     * Put a value loaded from the database, unless the cache item is locked, was unlocked after the transaction
+     * started, or has the same or a newer version.
+     *
+     * @param key         cache key
+     * @param value       value loaded from the database
+     * @param txTimestamp timestamp of the transaction which loaded the value
+     * @param version     version of the value, or null
+     * @param minimalPut  put only if there is no cache item
+     * @return true if the value is put
+     */
+    public boolean putFromLoad(Object key, Object value, long txTimestamp, Object version, boolean minimalPut) {
+        RedisPrefetchBuffer.discard(getName(), key);
+        boolean put = false;
+        try {
+            put = redis.setIfWriteable(getName(), key, value, txTimestamp, ValueEnvelope.toVersionNumber(version),
+                                       minimalPut, getExpireInSeconds());
+        } catch (Exception e) {
+            log.warn("Fail to put cache item... key=" + key, e);
+        } finally {
+            releaseFlight(key, put ? value : null);
+        }
+        return put;
+    }
+
+    /**
+     * Put a value loaded from the database in one round trip, for strategies without soft locks :
+     * only if there is no cache item with minimal puts, otherwise unless the cache item has the same or a newer version.
+     *
+     * @param key        cache key
+     * @param value      value loaded from the database
+     * @param version    version of the value, or null
+     * @param minimalPut put only if there is no cache item
+     * @return true if the value is put
+     */
+    public boolean putFromLoad(Object key, Object value, Object version, boolean minimalPut) {
+        RedisPrefetchBuffer.discard(getName(), key);
+        boolean put = false;
+        try {
+            put = redis.setIfAbsentOrNewer(getName(), key, value, ValueEnvelope.toVersionNumber(version),
+                                           minimalPut, getExpireInSeconds());
+        } catch (Exception e) {
+            log.warn("Fail to put cache item... key=" + key, e);
+        } finally {
+            releaseFlight(key, put ? value : null);
+        }
+        return put;
+    }
+
     public void remove(Object key) throws CacheException {
+        RedisPrefetchBuffer.discard(getName(), key);
         try {
             redis.del(getName(), key);
         } catch (Exception e) {
             log.warn("Fail to remove cache item... key=" + key, e);
         }
+        invalidateDependents(key);
+    }
+
+    /**
+     * Invalidate the cache item after it is updated or removed. With deferred invalidation, the item is added to
+     * the {@link RedisInvalidationBatch} of the current thread and deleted once when the transaction completes,
+     * otherwise it is removed at once. Either way, the deletion is repeated after the invalidation delay if any.
+     *
+     * @param key cache key
+     */
+    public void invalidate(Object key) {
+        if (isDeferredInvalidation()) {
+            RedisInvalidationBatch.add(this, key);
+            RedisPrefetchBuffer.discard(getName(), key);
+            return;
+        }
+        remove(key);
+        RedisInvalidationBatch.scheduleRepeat(this, Collections.singleton(key));
+    }
+
+    /**
+     * Soft lock the region before a bulk update : its items are deleted, and values loaded from the database
+     * are not put until the lock is released or times out.
+     *
+     * @return the lock, or null if the region could not be locked (it is cleared when unlocked then)
+     */
+    public SoftLock lockRegion() {
+        generation.incrementAndGet();
+        clearAggregates();
+        try {
+            redis.lockRegion(getName(), getTimeout());
+            return new RedisSoftLock(getName());
+        } catch (Exception e) {
+            log.warn("Fail to lock region... name=" + getName(), e);
+            return null;
+        }
     }
 
+    /**
+     * Release the soft lock of the region, deleting the items which were put while it was held.
+     */
+    public void unlockRegion(SoftLock lock) {
+        if (!(lock instanceof RedisSoftLock)) {
+            clear();
+            return;
+        }
+        generation.incrementAndGet();
+        clearAggregates();
+        try {
+            redis.unlockRegion(getName());
+        } catch (Exception e) {
+            log.warn("Fail to unlock region... name=" + getName(), e);
+            clear();
+        }
+    }
 
     public void clear() {
+        generation.incrementAndGet();
+        clearAggregates();
         try {
             redis.deleteRegion(getName());
         } catch (Exception e) {
             log.warn("Fail to clear region... name=" + getName(), e);
         }
     }
+
+    /**
+     * miss of a key being loaded from the database
+     */
+    private static final class Flight {
+        private final Thread owner = Thread.currentThread();
+        private final long deadline;
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile Object value;
+
+        private Flight(long deadline) {
+            this.deadline = deadline;
+        }
+    }
+
+    private void clearAggregates() {
+        for (RedisAggregateRegion aggregate : aggregates) {
+            aggregate.clear();
+        }
+    }
 }
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.hibernate.cache.redis.serializer;
+
+import org.hibernate.cache.redis.util.JedisTool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serializer which chooses among several codecs by the values it writes.
+ * <p/>
+ * One of {@code redis.adaptive.sampleRate} values is encoded and decoded with every codec of
+ * {@code redis.adaptive.codecs}, and once {@code redis.adaptive.sampleSize} values are sampled,
+ * new values are written by the codec which fits {@code redis.adaptive.goal} best:
+ * the smallest values for {@code memory}, the fastest encoding and decoding for {@code cpu}.
+ * The codec changes only when it is at least 5% better than the current one, and sampling goes on,
+ * so the codec follows the values of the region. A codec which fails on a sampled value
+ * (no bytes, or a decoded value not equal to the sampled one) is not chosen until the next samples.
+ * <p/>
+ * The first byte of a value is the index of its codec in {@code redis.adaptive.codecs},
+ * so all nodes must list the same codecs in the same order.
+ * Codecs are separated by {@code ;}, and each codec is a serializer chain as in {@code redis.serializer}.
+ */
+public class AdaptiveRedisSerializer<T> implements RedisSerializer<T>, ConfigurableRedisSerializer {
+
+    public static final String CODECS_PROPERTY_KEY = "redis.adaptive.codecs";
+    public static final String GOAL_PROPERTY_KEY = "redis.adaptive.goal";
+    public static final String SAMPLE_RATE_PROPERTY_KEY = "redis.adaptive.sampleRate";
+    public static final String SAMPLE_SIZE_PROPERTY_KEY = "redis.adaptive.sampleSize";
+    public static final String DEFAULT_CODECS = "FstRedisSerializer; SnappyRedisSerializer; Lz4RedisSerializer; "
+            + "KryoRedisSerializer; Lz4RedisSerializer,KryoRedisSerializer";
+    public static final int DEFAULT_SAMPLE_RATE = 100;
+    public static final int DEFAULT_SAMPLE_SIZE = 50;
+    private static final double MIN_IMPROVEMENT_RATIO = 0.05;
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveRedisSerializer.class);
+
+    /**
+     * What the codec is chosen for
+     */
+    public enum Goal {
+        /**
+         * smallest values
+         */
+        MEMORY,
+        /**
+         * fastest encoding and decoding
+         */
+        CPU
+    }
+
+    private volatile List<Codec<T>> codecs;
+
+    private volatile Goal goal = Goal.MEMORY;
+
+    private volatile int sampleRate = DEFAULT_SAMPLE_RATE;
+
+    private volatile int sampleSize = DEFAULT_SAMPLE_SIZE;
+
+    private volatile int current;
+
+    private final AtomicLong writes = new AtomicLong();
+
+    private int samples;
+
+    public AdaptiveRedisSerializer() {
+        this.codecs = createCodecs(DEFAULT_CODECS, null);
+    }
+
+    public AdaptiveRedisSerializer(List<RedisSerializer<T>> serializers) {
+        List<Codec<T>> newCodecs = new ArrayList<Codec<T>>(serializers.size());
+        for (RedisSerializer<T> serializer : serializers) {
+            newCodecs.add(new Codec<T>(serializer.getClass().getSimpleName(), serializer));
+        }
+        this.codecs = newCodecs;
+    }
+
+    @Override
+    public synchronized void configure(final Properties props) {
+        if (props == null)
+            return;
+
+        this.codecs = createCodecs(props.getProperty(CODECS_PROPERTY_KEY, DEFAULT_CODECS), props);
+        this.goal = Goal.valueOf(props.getProperty(GOAL_PROPERTY_KEY, goal.name()).trim().toUpperCase());
+        this.sampleRate = Integer.decode(props.getProperty(SAMPLE_RATE_PROPERTY_KEY, String.valueOf(sampleRate)).trim());
+        this.sampleSize = Integer.decode(props.getProperty(SAMPLE_SIZE_PROPERTY_KEY, String.valueOf(sampleSize)).trim());
+        this.current = 0;
+        this.samples = 0;
+    }
+
+    /**
+     * serializers of the codecs, by codec id
+     */
+    public List<RedisSerializer<T>> getSerializers() {
+        List<RedisSerializer<T>> serializers = new ArrayList<RedisSerializer<T>>(codecs.size());
+        for (Codec<T> codec : codecs) {
+            serializers.add(codec.serializer);
+        }
+        return serializers;
+    }
+
+    /**
+     * id of the codec new values are written by
+     */
+    public int getCurrentCodec() {
+        return current;
+    }
+
+    public Goal getGoal() {
+        return goal;
+    }
+
+    @Override
+    public byte[] serialize(final T graph) {
+        if (graph == null)
+            return EMPTY_BYTES;
+
+        if (sampleRate > 0 && writes.incrementAndGet() % sampleRate == 0) {
+            sample(graph);
+        }
+
+        final int codecId = current;
+        ByteBuffer buffer = SerializationTool.serializeToBuffer(codecs.get(codecId).serializer, graph);
+        if (!buffer.hasRemaining())
+            return EMPTY_BYTES;
+
+        byte[] result = new byte[buffer.remaining() + 1];
+        result[0] = (byte) codecId;
+        buffer.get(result, 1, result.length - 1);
+        return result;
+    }
+
+    @Override
+    public T deserialize(final byte[] bytes) {
+        if (SerializationTool.isEmpty(bytes))
+            return null;
+
+        int codecId = bytes[0] & 0xFF;
+        List<Codec<T>> currentCodecs = codecs;
+        if (codecId >= currentCodecs.size()) {
+            log.warn("Unknown codec. codec=[{}]", codecId);
+            return null;
+        }
+        return SerializationTool.deserialize(currentCodecs.get(codecId).serializer, bytes, 1, bytes.length - 1);
+    }
+
+    /**
+     * encode and decode the value with every codec, and choose the codec when enough values are sampled
+     */
+    private synchronized void sample(final T graph) {
+        for (Codec<T> codec : codecs) {
+            codec.sample(graph);
+        }
+        if (++samples < sampleSize)
+            return;
+
+        int best = current;
+        for (int i = 0; i < codecs.size(); i++) {
+            if (codecs.get(i).cost(goal) < codecs.get(best).cost(goal)) {
+                best = i;
+            }
+        }
+        if (best != current && codecs.get(best).cost(goal) < codecs.get(current).cost(goal) * (1 - MIN_IMPROVEMENT_RATIO)) {
+            log.info("Change codec. codec=[{}], goal=[{}], statistics={}", codecs.get(best).name, goal, codecs);
+            current = best;
+        }
+        for (Codec<T> codec : codecs) {
+            codec.reset();
+        }
+        samples = 0;
+    }
+
+    private static <T> List<Codec<T>> createCodecs(final String codecNames, final Properties props) {
+        List<Codec<T>> newCodecs = new ArrayList<Codec<T>>();
+        for (String codecName : codecNames.split(";")) {
+            @SuppressWarnings("unchecked")
+            RedisSerializer<T> serializer = (RedisSerializer<T>) JedisTool.createValueSerializer(codecName.trim(), props);
+            newCodecs.add(new Codec<T>(codecName.trim(), serializer));
+        }
+        return Collections.unmodifiableList(newCodecs);
+    }
+
+    /**
+     * Codec with the statistics of the sampled values
+     */
+    private static final class Codec<T> {
+
+        private final String name;
+        private final RedisSerializer<T> serializer;
+        private long size;
+        private long encodeNanos;
+        private long decodeNanos;
+        private int count;
+        private int failures;
+
+        private Codec(String name, RedisSerializer<T> serializer) {
+            this.name = name;
+            this.serializer = serializer;
+        }
+
+        /**
+         * serializers catch their errors and write no bytes, so the sample fails
+         * unless the value is decoded back to an equal value (or one encoded the same, if it does not define equals)
+         */
+        private void sample(T graph) {
+            try {
+                long start = System.nanoTime();
+                byte[] bytes = serializer.serialize(graph);
+                long encoded = System.nanoTime();
+                T decoded = serializer.deserialize(bytes);
+                long decodedNanos = System.nanoTime() - encoded;
+                if (SerializationTool.isEmpty(bytes) || decoded == null
+                        || !(graph.equals(decoded) || Arrays.equals(bytes, serializer.serialize(decoded)))) {
+                    log.debug("Fail to sample codec. codec=[{}], graph=[{}]", name, graph);
+                    failures++;
+                    return;
+                }
+                decodeNanos += decodedNanos;
+                encodeNanos += encoded - start;
+                size += bytes.length;
+                count++;
+            } catch (Exception e) {
+                log.warn("Fail to sample codec. codec=" + name, e);
+                failures++;
+            }
+        }
+
+        private double cost(Goal goal) {
+            if (count == 0 || failures > 0)
+                return Double.MAX_VALUE;
+            return (goal == Goal.MEMORY) ? (double) size / count : (double) (encodeNanos + decodeNanos) / count;
+        }
+
+        private void reset() {
+            size = encodeNanos = decodeNanos = 0;
+            count = failures = 0;
+        }
+
+        @Override
+        public String toString() {
+            if (failures > 0)
+                return name + "(failures=" + failures + ")";
+            return (count == 0)
+                   ? name
+                   : name + "(size=" + size / count + ", encode=" + encodeNanos / count + "ns, decode=" + decodeNanos / count + "ns)";
+        }
+    }
+}
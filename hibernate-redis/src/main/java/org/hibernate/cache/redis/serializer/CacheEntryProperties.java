@@ -0,0 +1,155 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.hibernate.cache.redis.serializer;
+
+import org.hibernate.bytecode.instrumentation.spi.LazyPropertyInitializer;
+import org.hibernate.cache.spi.entry.StandardCacheEntryImpl;
+import org.hibernate.property.BackrefPropertyAccessor;
+
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Encoding of the entity cache entries which are stored as one hash per entity, with a field per property,
+ * so an update writes only the properties which changed.
+ * <p/>
+ * Each property of the disassembled state is serialized on its own by the serializer of the region
+ * (empty bytes for null, and markers for unfetched lazy properties and unknown backrefs).
+ * The digest of a state is made of the first 8 bytes of the SHA-1 of each property,
+ * so the properties which changed since a known state can be found by comparing digests.
+ */
+public abstract class CacheEntryProperties {
+
+    public static final String COUNT_FIELD = "n";
+    public static final String SUBCLASS_FIELD = "s";
+    public static final String UNFETCHED_FIELD = "l";
+    public static final String VERSION_FIELD = "v";
+    public static final String DIGEST_FIELD = "d";
+    public static final String STATE_FIELD = "h";
+    private static final int PROPERTY_DIGEST_SIZE = 8;
+    private static final byte[] UNFETCHED = { (byte) 0xE5, 'U' };
+    private static final byte[] UNKNOWN = { (byte) 0xE5, 'B' };
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * whether the value can be stored by properties (entries of a reference cache or custom entries can't)
+     */
+    public static boolean isSupported(Object value) {
+        return value != null && value.getClass() == StandardCacheEntryImpl.class;
+    }
+
+    /**
+     * serialize each property of the cache entry
+     */
+    public static byte[][] serialize(RedisSerializer<Object> serializer, StandardCacheEntryImpl entry) {
+        Serializable[] state = entry.getDisassembledState();
+        byte[][] properties = new byte[state.length][];
+        for (int i = 0; i < state.length; i++) {
+            if (state[i] == null) {
+                properties[i] = RedisSerializer.EMPTY_BYTES;
+            } else if (state[i] == LazyPropertyInitializer.UNFETCHED_PROPERTY) {
+                properties[i] = UNFETCHED;
+            } else if (state[i] == BackrefPropertyAccessor.UNKNOWN) {
+                properties[i] = UNKNOWN;
+            } else {
+                properties[i] = serializer.serialize(state[i]);
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * create the cache entry from its serialized properties
+     */
+    public static StandardCacheEntryImpl deserialize(RedisSerializer<Object> serializer,
+                                                     byte[][] properties,
+                                                     String subclass,
+                                                     boolean unfetched,
+                                                     Object version) {
+        Serializable[] state = new Serializable[properties.length];
+        for (int i = 0; i < properties.length; i++) {
+            byte[] bytes = properties[i];
+            if (bytes == null || bytes.length == 0) {
+                state[i] = null;
+            } else if (Arrays.equals(bytes, UNFETCHED)) {
+                state[i] = LazyPropertyInitializer.UNFETCHED_PROPERTY;
+            } else if (Arrays.equals(bytes, UNKNOWN)) {
+                state[i] = BackrefPropertyAccessor.UNKNOWN;
+            } else {
+                state[i] = (Serializable) serializer.deserialize(bytes);
+            }
+        }
+        return CacheEntryRedisSerializer.newCacheEntry(state, subclass, unfetched, version);
+    }
+
+    /**
+     * digest of the serialized properties
+     */
+    public static byte[] digest(byte[][] properties) {
+        MessageDigest sha1 = sha1();
+        byte[] digest = new byte[properties.length * PROPERTY_DIGEST_SIZE];
+        for (int i = 0; i < properties.length; i++) {
+            System.arraycopy(sha1.digest(properties[i]), 0, digest, i * PROPERTY_DIGEST_SIZE, PROPERTY_DIGEST_SIZE);
+        }
+        return digest;
+    }
+
+    /**
+     * whether the property changed between the two digests
+     */
+    public static boolean isChanged(byte[] digest, byte[] previousDigest, int index) {
+        int offset = index * PROPERTY_DIGEST_SIZE;
+        for (int i = offset; i < offset + PROPERTY_DIGEST_SIZE; i++) {
+            if (digest[i] != previousDigest[i])
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * short identifier of the whole state (hex SHA-1 of its digest)
+     */
+    public static String stateOf(byte[] digest) {
+        byte[] hash = sha1().digest(digest);
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX[hash[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    public static byte[] toBytes(String value) {
+        return (value != null) ? value.getBytes(UTF_8) : RedisSerializer.EMPTY_BYTES;
+    }
+
+    public static String toString(byte[] bytes) {
+        return (bytes != null && bytes.length > 0) ? new String(bytes, UTF_8) : null;
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
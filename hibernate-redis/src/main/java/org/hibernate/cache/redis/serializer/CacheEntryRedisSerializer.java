@@ -0,0 +1,562 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.hibernate.cache.redis.serializer;
+
+import org.hibernate.bytecode.instrumentation.spi.LazyPropertyInitializer;
+import org.hibernate.cache.spi.entry.StandardCacheEntryImpl;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.property.BackrefPropertyAccessor;
+import org.hibernate.type.CollectionType;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Serializer which writes the {@link StandardCacheEntryImpl}s of entity regions as records ordered by the property
+ * types of the entity persister, without class descriptors.
+ * <p/>
+ * A record starts with a fingerprint of the entity name and its property names and types,
+ * followed by a 2 bit state per property (null, value, unfetched lazy property, unknown backref)
+ * and the values encoded by the codec of their Hibernate type.
+ * Identifiers of associations and collection keys are encoded by the identifier / key type,
+ * and values of other types (components, custom types, ...) by the inner serializer.
+ * Any other value, and entries of unregistered entities, are written by the inner serializer (FST by default).
+ * <p/>
+ * Session factories are registered by {@link org.hibernate.cache.redis.RedisCacheIntegrator}.
+ * Records of an unknown fingerprint (e.g. written before a mapping change) are read as cache misses.
+ */
+public class CacheEntryRedisSerializer<T> implements RedisSerializer<T> {
+
+    private static final byte INNER = 0;
+    private static final byte RECORD = 1;
+
+    private static final int STATE_NULL = 0;
+    private static final int STATE_VALUE = 1;
+    private static final int STATE_UNFETCHED = 2;
+    private static final int STATE_UNKNOWN = 3;
+
+    private static final Logger log = LoggerFactory.getLogger(CacheEntryRedisSerializer.class);
+
+    private static final List<SessionFactoryImplementor> sessionFactories =
+            new CopyOnWriteArrayList<SessionFactoryImplementor>();
+
+    private static volatile Schemas schemas;
+
+    private static final Constructor<StandardCacheEntryImpl> entryConstructor;
+
+    static {
+        try {
+            entryConstructor = StandardCacheEntryImpl.class.getDeclaredConstructor(Serializable[].class,
+                                                                                   String.class,
+                                                                                   boolean.class,
+                                                                                   Object.class);
+            entryConstructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Unsupported StandardCacheEntryImpl.", e);
+        }
+    }
+
+    private final RedisSerializer<Object> inner;
+
+    public CacheEntryRedisSerializer() {
+        this(new FstRedisSerializer<T>());
+    }
+
+    @SuppressWarnings("unchecked")
+    public CacheEntryRedisSerializer(RedisSerializer<T> innerSerializer) {
+        assert (innerSerializer != null);
+        this.inner = (RedisSerializer<Object>) innerSerializer;
+    }
+
+    /**
+     * Create a cache entry from its disassembled state (the constructor of {@link StandardCacheEntryImpl} is not public)
+     */
+    static StandardCacheEntryImpl newCacheEntry(final Serializable[] state,
+                                                final String subclass,
+                                                final boolean unfetched,
+                                                final Object version) {
+        try {
+            return entryConstructor.newInstance(state, subclass, unfetched, version);
+        } catch (Exception e) {
+            throw new IllegalStateException("Fail to create cache entry. subclass=" + subclass, e);
+        }
+    }
+
+    /**
+     * Register the session factory whose entities are encoded as records
+     */
+    public static void register(final SessionFactoryImplementor sessionFactory) {
+        sessionFactories.add(sessionFactory);
+        schemas = null;
+    }
+
+    /**
+     * Unregister the session factory when it is closed
+     */
+    public static void unregister(final SessionFactoryImplementor sessionFactory) {
+        sessionFactories.remove(sessionFactory);
+        schemas = null;
+    }
+
+    @Override
+    public byte[] serialize(final T graph) {
+        if (graph == null)
+            return EMPTY_BYTES;
+
+        if (graph.getClass() == StandardCacheEntryImpl.class) {
+            StandardCacheEntryImpl entry = (StandardCacheEntryImpl) graph;
+            EntitySchema schema = getSchema(entry.getSubclass());
+            if (schema != null) {
+                try {
+                    return schema.write(entry, inner);
+                } catch (Exception e) {
+                    log.debug("Fail to write cache entry as record. entity=[{}]", entry.getSubclass(), e);
+                }
+            }
+        }
+        ByteBuffer bytes = SerializationTool.serializeToBuffer(inner, graph);
+        byte[] result = new byte[bytes.remaining() + 1];
+        result[0] = INNER;
+        bytes.get(result, 1, bytes.remaining());
+        return result;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T deserialize(final byte[] bytes) {
+        if (SerializationTool.isEmpty(bytes))
+            return null;
+
+        if (bytes[0] == INNER)
+            return (T) SerializationTool.deserialize(inner, bytes, 1, bytes.length - 1);
+
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 1, bytes.length - 1));
+            int fingerprint = in.readInt();
+            EntitySchema schema = getSchema(fingerprint);
+            if (schema == null) {
+                log.debug("Unknown cache entry record. fingerprint=[{}]", fingerprint);
+                return null;
+            }
+            return (T) schema.read(in, inner);
+        } catch (Exception e) {
+            log.warn("Fail to deserialize cache entry record.", e);
+            return null;
+        }
+    }
+
+    private static EntitySchema getSchema(final String entityName) {
+        EntitySchema schema = getSchemas(false).byEntityName.get(entityName);
+        return (schema != null) ? schema : getSchemas(true).byEntityName.get(entityName);
+    }
+
+    private static EntitySchema getSchema(final int fingerprint) {
+        EntitySchema schema = getSchemas(false).byFingerprint.get(fingerprint);
+        return (schema != null) ? schema : getSchemas(true).byFingerprint.get(fingerprint);
+    }
+
+    /**
+     * Get the schemas, rebuilding them if persisters were added since they were built
+     * (session factories are registered while they are being built)
+     */
+    private static Schemas getSchemas(final boolean refresh) {
+        Schemas current = schemas;
+        if (current == null || (refresh && current.persisterCount != Schemas.countPersisters(sessionFactories))) {
+            current = new Schemas(sessionFactories);
+            schemas = current;
+        }
+        return current;
+    }
+
+    /**
+     * Record schemas of the entities of the registered session factories
+     */
+    private static final class Schemas {
+
+        private final Map<String, EntitySchema> byEntityName = new HashMap<String, EntitySchema>();
+        private final Map<Integer, EntitySchema> byFingerprint = new HashMap<Integer, EntitySchema>();
+        private final int persisterCount;
+
+        private Schemas(final List<SessionFactoryImplementor> sessionFactories) {
+            Set<Integer> collisions = new HashSet<Integer>();
+            for (SessionFactoryImplementor sessionFactory : sessionFactories) {
+                for (EntityPersister persister : sessionFactory.getEntityPersisters().values()) {
+                    if (!persister.hasCache())
+                        continue;
+                    EntitySchema schema = new EntitySchema(persister);
+                    EntitySchema existing = byFingerprint.get(schema.fingerprint);
+                    if (existing != null && !existing.entityName.equals(schema.entityName)) {
+                        collisions.add(schema.fingerprint);
+                    }
+                    byFingerprint.put(schema.fingerprint, schema);
+                    byEntityName.put(schema.entityName, schema);
+                }
+            }
+            for (Integer fingerprint : collisions) {
+                log.warn("Cache entry record fingerprint collides, use inner serializer. fingerprint=[{}]", fingerprint);
+                byFingerprint.remove(fingerprint);
+                Iterator<EntitySchema> iter = byEntityName.values().iterator();
+                while (iter.hasNext()) {
+                    if (iter.next().fingerprint == fingerprint) {
+                        iter.remove();
+                    }
+                }
+            }
+            this.persisterCount = countPersisters(sessionFactories);
+        }
+
+        private static int countPersisters(final List<SessionFactoryImplementor> sessionFactories) {
+            int count = 0;
+            for (SessionFactoryImplementor sessionFactory : sessionFactories) {
+                count += sessionFactory.getEntityPersisters().size();
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Record schema of an entity : codecs of the disassembled properties and of the version
+     */
+    private static final class EntitySchema {
+
+        private final String entityName;
+        private final int fingerprint;
+        private final FieldCodec[] codecs;
+        private final FieldCodec versionCodec;
+
+        private EntitySchema(final EntityPersister persister) {
+            final SessionFactoryImplementor factory = persister.getFactory();
+            final String[] names = persister.getPropertyNames();
+            final Type[] types = persister.getPropertyTypes();
+
+            StringBuilder descriptor = new StringBuilder(persister.getEntityName());
+            this.entityName = persister.getEntityName();
+            this.codecs = new FieldCodec[types.length];
+            for (int i = 0; i < types.length; i++) {
+                codecs[i] = FieldCodec.of(types[i], factory);
+                descriptor.append('|').append(names[i]).append(':').append(types[i].getName()).append(':').append(codecs[i]);
+            }
+            if (persister.isVersioned()) {
+                versionCodec = FieldCodec.of(persister.getVersionType(), factory);
+                descriptor.append("|version:").append(persister.getVersionType().getName());
+            } else {
+                versionCodec = FieldCodec.OBJECT;
+            }
+            this.fingerprint = descriptor.toString().hashCode();
+        }
+
+        private byte[] write(final StandardCacheEntryImpl entry, final RedisSerializer<Object> inner) throws IOException {
+            final Serializable[] state = entry.getDisassembledState();
+            if (state.length != codecs.length)
+                throw new IllegalArgumentException("Unexpected disassembled state length. length=" + state.length);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(RECORD);
+            out.writeInt(fingerprint);
+            out.writeBoolean(entry.areLazyPropertiesUnfetched());
+
+            // 2 bit states of the properties and the version
+            byte[] states = new byte[(state.length + 4) / 4];
+            for (int i = 0; i <= state.length; i++) {
+                Object value = (i < state.length) ? state[i] : entry.getVersion();
+                states[i / 4] |= stateOf(value) << ((i % 4) * 2);
+            }
+            out.write(states);
+
+            for (int i = 0; i < state.length; i++) {
+                if (stateOf(state[i]) == STATE_VALUE) {
+                    codecs[i].write(out, state[i], inner);
+                }
+            }
+            if (entry.getVersion() != null) {
+                versionCodec.write(out, entry.getVersion(), inner);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        private StandardCacheEntryImpl read(final DataInputStream in, final RedisSerializer<Object> inner) throws Exception {
+            final boolean unfetched = in.readBoolean();
+            byte[] states = new byte[(codecs.length + 4) / 4];
+            in.readFully(states);
+
+            Serializable[] state = new Serializable[codecs.length];
+            for (int i = 0; i < codecs.length; i++) {
+                switch ((states[i / 4] >> ((i % 4) * 2)) & 3) {
+                    case STATE_VALUE:
+                        state[i] = (Serializable) codecs[i].read(in, inner);
+                        break;
+                    case STATE_UNFETCHED:
+                        state[i] = LazyPropertyInitializer.UNFETCHED_PROPERTY;
+                        break;
+                    case STATE_UNKNOWN:
+                        state[i] = BackrefPropertyAccessor.UNKNOWN;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            int versionState = (states[codecs.length / 4] >> ((codecs.length % 4) * 2)) & 3;
+            Object version = (versionState == STATE_VALUE) ? versionCodec.read(in, inner) : null;
+
+            return entryConstructor.newInstance(state, entityName, unfetched, version);
+        }
+
+        private static int stateOf(final Object value) {
+            if (value == null)
+                return STATE_NULL;
+            if (value == LazyPropertyInitializer.UNFETCHED_PROPERTY)
+                return STATE_UNFETCHED;
+            if (value == BackrefPropertyAccessor.UNKNOWN)
+                return STATE_UNKNOWN;
+            return STATE_VALUE;
+        }
+    }
+
+    /**
+     * Codec of a disassembled property value by its Hibernate type
+     */
+    private enum FieldCodec {
+        LONG {
+            @Override
+            void write(DataOutputStream out, Object value, RedisSerializer<Object> inner) throws IOException {
+                out.writeLong((Long) value);
+            }
+
+            @Override
+            Object read(DataInputStream in, RedisSerializer<Object> inner) throws IOException {
+                return in.readLong();
+            }
+        },
+        INTEGER {
+            @Override
+            void write(DataOutputStream out, Object value, RedisSerializer<Object> inner) throws IOException {
+                out.writeInt((Integer) value);
+            }
+
+            @Override
+            Object read(DataInputStream in, RedisSerializer<Object> inner) throws IOException {
+                return in.readInt();
+            }
+        },
+        SHORT {
+            @Override
+            void write(DataOutputStream out, Object value, RedisSerializer<Object> inner) throws IOException {
+                out.writeShort((Short) value);
+            }
+
+            @Override
+            Object read(DataInputStream in, RedisSerializer<Object> inner) throws IOException {
+                return in.readShort();
+            }
+        },
+        BYTE {
+            @Override
+            void write(DataOutputStream out, Object value, RedisSerializer<Object> inner) throws IOException {
+                out.writeByte((Byte) value);
+            }
+
+            @Override
+            Object read(DataInputStream in, RedisSerializer<Object> inner) throws IOException {
+                return in.readByte();
+            }
+        },
+        BOOLEAN {
+            @Override
+            void write(DataOutputStream out, Object value, RedisSerializer<Object> inner) throws IOException {
+                out.writeBoolean((Boolean) value);
+            }
+
+            @Override
+            Object read(DataInputStream in, RedisSerializer<Object> inner) throws IOException {
+                return in.readBoolean();
+            }
+        },
+        DOUBLE {
+            @Override
+            void write(DataOutputStream out, Object value, RedisSerializer<Object> inner) throws IOException {
+                out.writeDouble((Double) value);
+            }
+
+            @Override
+            Object read(DataInputStream in, RedisSerializer<Object> inner) throws IOException {
+                return in.readDouble();
+            }
+        },
+        FLOAT {
+            @Override
+            void write(DataOutputStream out, Object value, RedisSerializer<Object> inner) throws IOException {
+                out.writeFloat((Float) value);
+            }
+
+            @Override
+            Object read(DataInputStream in, RedisSerializer<Object> inner) throws IOException {
+                return in.readFloat();
+            }
+        },
+        CHARACTER {
+            @Override
+            void write(DataOutputStream out, Object value, RedisSerializer<Object> inner) throws IOException {
+                out.writeChar((Character) value);
+            }
+
+            @Override
+            Object read(DataInputStream in, RedisSerializer<Object> inner) throws IOException {
+                return in.readChar();
+            }
+        },
+        STRING {
+            @Override
+            void write(DataOutputStream out, Object value, RedisSerializer<Object> inner) throws IOException {
+                writeBytes(out, ((String) value).getBytes(UTF_8));
+            }
+
+            @Override
+            Object read(DataInputStream in, RedisSerializer<Object> inner) throws IOException {
+                return new String(readBytes(in), UTF_8);
+            }
+        },
+        DATE {
+            @Override
+            void write(DataOutputStream out, Object value, RedisSerializer<Object> inner) throws IOException {
+                final Class<?> clazz = value.getClass();
+                if (clazz == Date.class) {
+                    out.writeByte(0);
+                } else if (clazz == java.sql.Date.class) {
+                    out.writeByte(1);
+                } else if (clazz == java.sql.Time.class) {
+                    out.writeByte(2);
+                } else if (clazz == java.sql.Timestamp.class) {
+                    out.writeByte(3);
+                    out.writeInt(((java.sql.Timestamp) value).getNanos());
+                } else {
+                    throw new IllegalArgumentException("Unsupported date class. class=" + clazz);
+                }
+                out.writeLong(((Date) value).getTime());
+            }
+
+            @Override
+            Object read(DataInputStream in, RedisSerializer<Object> inner) throws IOException {
+                switch (in.readByte()) {
+                    case 0:
+                        return new Date(in.readLong());
+                    case 1:
+                        return new java.sql.Date(in.readLong());
+                    case 2:
+                        return new java.sql.Time(in.readLong());
+                    default:
+                        int nanos = in.readInt();
+                        java.sql.Timestamp timestamp = new java.sql.Timestamp(in.readLong());
+                        timestamp.setNanos(nanos);
+                        return timestamp;
+                }
+            }
+        },
+        OBJECT {
+            @Override
+            void write(DataOutputStream out, Object value, RedisSerializer<Object> inner) throws IOException {
+                writeBytes(out, inner.serialize(value));
+            }
+
+            @Override
+            Object read(DataInputStream in, RedisSerializer<Object> inner) throws IOException {
+                return inner.deserialize(readBytes(in));
+            }
+        };
+
+        abstract void write(DataOutputStream out, Object value, RedisSerializer<Object> inner) throws IOException;
+
+        abstract Object read(DataInputStream in, RedisSerializer<Object> inner) throws IOException;
+
+        /**
+         * Codec of the disassembled values of the specified type
+         */
+        static FieldCodec of(final Type type, final SessionFactoryImplementor factory) {
+            if (type instanceof EntityType) {
+                return of(factory.getIdentifierType(((EntityType) type).getAssociatedEntityName()), factory);
+            }
+            if (type instanceof CollectionType) {
+                return of(factory.getCollectionPersister(((CollectionType) type).getRole()).getKeyType(), factory);
+            }
+            if (type.isComponentType() || type.isAssociationType())
+                return OBJECT;
+
+            final Class<?> clazz = type.getReturnedClass();
+            if (clazz == Long.class || clazz == long.class)
+                return LONG;
+            if (clazz == Integer.class || clazz == int.class)
+                return INTEGER;
+            if (clazz == Short.class || clazz == short.class)
+                return SHORT;
+            if (clazz == Byte.class || clazz == byte.class)
+                return BYTE;
+            if (clazz == Boolean.class || clazz == boolean.class)
+                return BOOLEAN;
+            if (clazz == Double.class || clazz == double.class)
+                return DOUBLE;
+            if (clazz == Float.class || clazz == float.class)
+                return FLOAT;
+            if (clazz == Character.class || clazz == char.class)
+                return CHARACTER;
+            if (clazz == String.class)
+                return STRING;
+            if (Date.class.isAssignableFrom(clazz))
+                return DATE;
+            return OBJECT;
+        }
+
+        private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+            writeVarInt(out, bytes.length);
+            out.write(bytes);
+        }
+
+        private static byte[] readBytes(DataInputStream in) throws IOException {
+            byte[] bytes = new byte[readVarInt(in)];
+            in.readFully(bytes);
+            return bytes;
+        }
+
+        private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+
+        private static int readVarInt(DataInputStream in) throws IOException {
+            int value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = in.readByte();
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.hibernate.cache.redis.serializer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Properties;
+
+/**
+ * Base serializer which compresses the bytes of an inner serializer.
+ * <p/>
+ * The first byte of a serialized value records the codec, so values written with or without compression
+ * (or by another codec) can be read back by the same serializer.
+ * Values smaller than {@code redis.compression.minSize} bytes are stored raw,
+ * and so are values whose compressed form does not save at least {@code redis.compression.minSavingRatio}.
+ * Values are compressed from the buffer of a {@link StreamingRedisSerializer} and decompressed into a buffer
+ * of the current thread, so only the resulting array is allocated.
+ */
+public abstract class CompressionRedisSerializer<T> implements RedisSerializer<T>, ConfigurableRedisSerializer {
+
+    public static final byte CODEC_RAW = 0;
+    public static final String MIN_SIZE_PROPERTY_KEY = "redis.compression.minSize";
+    public static final String MIN_SAVING_RATIO_PROPERTY_KEY = "redis.compression.minSavingRatio";
+    public static final int DEFAULT_MIN_SIZE = 128;
+    public static final double DEFAULT_MIN_SAVING_RATIO = 0.1;
+    private static final Logger log = LoggerFactory.getLogger(CompressionRedisSerializer.class);
+
+    /**
+     * Buffers of the current thread to compress into and decompress into
+     */
+    static final ThreadLocalBuffer buffers = new ThreadLocalBuffer();
+
+    protected final RedisSerializer<T> inner;
+
+    private volatile int minSize;
+
+    private volatile double minSavingRatio;
+
+    protected CompressionRedisSerializer(RedisSerializer<T> innerSerializer, int minSize, double minSavingRatio) {
+        assert (innerSerializer != null);
+        this.inner = innerSerializer;
+        this.minSize = minSize;
+        this.minSavingRatio = minSavingRatio;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public double getMinSavingRatio() {
+        return minSavingRatio;
+    }
+
+    @Override
+    public void configure(final Properties props) {
+        if (props == null)
+            return;
+        this.minSize = Integer.decode(props.getProperty(MIN_SIZE_PROPERTY_KEY, String.valueOf(minSize)).trim());
+        this.minSavingRatio = Double.parseDouble(props.getProperty(MIN_SAVING_RATIO_PROPERTY_KEY,
+                                                                   String.valueOf(minSavingRatio)).trim());
+    }
+
+    @Override
+    public byte[] serialize(final T graph) {
+        final ByteBuffer raw = SerializationTool.serializeToBuffer(inner, graph);
+        final byte[] array = raw.array();
+        final int offset = raw.arrayOffset() + raw.position();
+        final int length = raw.remaining();
+        if (length == 0)
+            return EMPTY_BYTES;
+
+        if (length >= minSize) {
+            try {
+                byte[] compressed = compress(array, offset, length);
+                if (compressed != null && compressed.length <= length * (1.0 - minSavingRatio)) {
+                    return compressed;
+                }
+            } catch (Exception e) {
+                log.warn("Fail to compress graph. store raw bytes.", e);
+            }
+        }
+
+        byte[] bytes = new byte[length + 1];
+        bytes[0] = CODEC_RAW;
+        System.arraycopy(array, offset, bytes, 1, length);
+        return bytes;
+    }
+
+    @Override
+    public T deserialize(final byte[] bytes) {
+        if (SerializationTool.isEmpty(bytes))
+            return null;
+
+        final byte codec = bytes[0];
+        if (codec == CODEC_RAW)
+            return SerializationTool.deserialize(inner, bytes, 1, bytes.length - 1);
+
+        byte[] raw = null;
+        try {
+            final int rawLength = getRawLength(codec, bytes);
+            if (rawLength < 0) {
+                log.warn("Unknown compression codec. codec=[{}]", codec);
+                return null;
+            }
+            raw = buffers.acquire(rawLength);
+            if (!decompress(codec, bytes, raw, rawLength))
+                return null;
+            return SerializationTool.deserialize(inner, raw, 0, rawLength);
+        } catch (Exception e) {
+            log.warn("Fail to decompress bytes. codec=" + codec, e);
+            return null;
+        } finally {
+            if (raw != null) {
+                buffers.release(raw);
+            }
+        }
+    }
+
+    /**
+     * Compress the specified range of raw bytes
+     *
+     * @return compressed bytes starting with the codec byte
+     */
+    protected abstract byte[] compress(final byte[] raw, final int offset, final int length) throws Exception;
+
+    /**
+     * Get the raw length of the specified bytes written by {@link #compress(byte[], int, int)}
+     *
+     * @param codec codec recorded in the first byte
+     * @return raw length, or -1 if the codec is not supported
+     */
+    protected abstract int getRawLength(final byte codec, final byte[] bytes);
+
+    /**
+     * Decompress the specified bytes written by {@link #compress(byte[], int, int)}
+     *
+     * @param codec     codec recorded in the first byte
+     * @param raw       buffer to decompress into
+     * @param rawLength raw length
+     * @return false if the bytes can not be decompressed by this serializer
+     */
+    protected abstract boolean decompress(final byte codec,
+                                          final byte[] bytes,
+                                          final byte[] raw,
+                                          final int rawLength) throws Exception;
+
+    protected static void writeInt(final byte[] bytes, final int offset, final int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    protected static int readInt(final byte[] bytes, final int offset) {
+        return ((bytes[offset] & 0xFF) << 24)
+               | ((bytes[offset + 1] & 0xFF) << 16)
+               | ((bytes[offset + 2] & 0xFF) << 8)
+               | (bytes[offset + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.hibernate.cache.redis.serializer;
+
+import java.util.Properties;
+
+/**
+ * Serializer which reads its settings from the cache properties
+ * when it is created by {@link org.hibernate.cache.redis.util.JedisTool#createValueSerializer(String, Properties)}
+ */
+public interface ConfigurableRedisSerializer {
+
+    /**
+     * Configure serializer
+     *
+     * @param props cache properties
+     */
+    void configure(final Properties props);
+}
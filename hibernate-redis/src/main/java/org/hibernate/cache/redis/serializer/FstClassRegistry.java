@@ -0,0 +1,263 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.hibernate.cache.redis.serializer;
+
+import org.nustaq.serialization.FSTClazzNameRegistry;
+import org.nustaq.serialization.FSTConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the classes written by {@link FstRedisSerializer} with a class id instead of the class name.
+ * <p/>
+ * The class names are kept in a {@link ClassStore} shared by all nodes (a list in redis),
+ * and the id of a class is its position in the list, so every node registers the same class with the same id
+ * whatever the classes of its own application version are. Classes are only appended, never removed,
+ * so values written with a smaller list are always readable.
+ * <p/>
+ * FST does not support registering classes to a configuration in use,
+ * so the registry builds a new {@link FSTConfiguration} when the list grows.
+ */
+public class FstClassRegistry {
+
+    /**
+     * id of the first registered class, above the ids of the classes registered by FST itself
+     */
+    public static final int FIRST_CLASS_ID = 100;
+
+    /**
+     * FST assigns the ids from {@link FSTClazzNameRegistry#FIRST_USER_CLZ_ID} to the classes written by name in a stream
+     */
+    public static final int MAX_CLASS_ID = FSTClazzNameRegistry.FIRST_USER_CLZ_ID - 1;
+
+    private static final long REFRESH_INTERVAL_MILLIS = 1000L;
+    private static final Logger log = LoggerFactory.getLogger(FstClassRegistry.class);
+
+    /**
+     * Storage of the registered class names, shared by all nodes
+     */
+    public interface ClassStore {
+
+        /**
+         * Load the registered class names in registration order
+         */
+        List<String> load();
+
+        /**
+         * Append class names to the registered class names
+         */
+        void add(final Collection<String> classNames);
+    }
+
+    private final ClassStore store;
+
+    private final ClassLoader classLoader;
+
+    private final Set<String> requestedClassNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private volatile Set<String> registeredClassNames = Collections.emptySet();
+
+    private volatile List<String> storedClassNames = Collections.emptyList();
+
+    private volatile FSTConfiguration configuration;
+
+    private volatile long lastRefresh;
+
+    public FstClassRegistry(final ClassStore store, final ClassLoader classLoader) {
+        this.store = store;
+        this.classLoader = classLoader;
+        this.configuration = createConfiguration();
+        reload();
+    }
+
+    /**
+     * FST configuration with the registered classes
+     */
+    public FSTConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * id of the specified class, or -1 if it is not registered
+     */
+    public int getClassId(final String className) {
+        return registeredClassNames.contains(className) ? FIRST_CLASS_ID + storedClassNames.indexOf(className) : -1;
+    }
+
+    /**
+     * Register the specified class if FST writes its name
+     */
+    public void register(final Class<?> clazz) {
+        if (!registeredClassNames.contains(clazz.getName()) && !requestedClassNames.contains(clazz.getName())) {
+            register(Collections.singleton(clazz.getName()));
+        }
+    }
+
+    /**
+     * Register the specified classes, which are not registered yet and whose name FST writes
+     */
+    public synchronized void register(final Collection<String> classNames) {
+        List<String> added = new ArrayList<String>();
+        for (String className : classNames) {
+            if (requestedClassNames.add(className) && !registeredClassNames.contains(className)
+                    && isRegistrable(className)) {
+                added.add(className);
+            }
+        }
+        if (added.isEmpty())
+            return;
+
+        try {
+            store.add(added);
+            log.debug("Registered FST classes. classes=[{}]", added);
+        } catch (Exception e) {
+            log.warn("Fail to register FST classes. classes=" + added, e);
+        }
+        reload();
+    }
+
+    /**
+     * Reload the registered classes if the last reload is older than a second,
+     * e.g. when a value written by another node can not be read.
+     *
+     * @return true if classes registered by other nodes are loaded
+     */
+    public boolean refresh() {
+        if (System.currentTimeMillis() - lastRefresh < REFRESH_INTERVAL_MILLIS)
+            return false;
+        return reload();
+    }
+
+    /**
+     * Reload the registered classes from the store
+     *
+     * @return true if classes registered by other nodes are loaded
+     */
+    public synchronized boolean reload() {
+        lastRefresh = System.currentTimeMillis();
+        List<String> classNames;
+        try {
+            classNames = store.load();
+        } catch (Exception e) {
+            log.warn("Fail to load FST classes.", e);
+            return false;
+        }
+        if (classNames.equals(storedClassNames))
+            return false;
+
+        if (classNames.size() < storedClassNames.size()) {
+            // the store was flushed, register the classes again
+            log.info("FST classes are removed from the store, register again. classes=[{}]", requestedClassNames);
+            storedClassNames = Collections.emptyList();
+            registeredClassNames = Collections.emptySet();
+            configuration = createConfiguration();
+            List<String> classNamesToRegister = new ArrayList<String>(requestedClassNames);
+            requestedClassNames.clear();
+            register(classNamesToRegister);
+            if (storedClassNames.isEmpty()) {
+                reload();
+            }
+            return true;
+        }
+
+        FSTConfiguration newConfiguration = createConfiguration();
+        Set<String> newRegisteredClassNames = new HashSet<String>();
+        for (int i = 0; i < classNames.size(); i++) {
+            String className = classNames.get(i);
+            int id = FIRST_CLASS_ID + i;
+            if (id > MAX_CLASS_ID) {
+                log.warn("Too many FST classes, the others are written by name. registered=[{}]", i);
+                break;
+            }
+            if (newRegisteredClassNames.contains(className))
+                continue;
+            try {
+                Class<?> clazz = Class.forName(className, false, classLoader);
+                newConfiguration.getClassRegistry().registerClass(clazz, id, newConfiguration);
+            } catch (ClassNotFoundException e) {
+                // registered by another version of the application, keep its id unused
+                log.debug("Unknown FST class. class=[{}]", className);
+            }
+            newRegisteredClassNames.add(className);
+        }
+
+        storedClassNames = classNames;
+        registeredClassNames = newRegisteredClassNames;
+        configuration = newConfiguration;
+        log.info("Loaded FST classes. size=[{}]", newRegisteredClassNames.size());
+        return true;
+    }
+
+    private FSTConfiguration createConfiguration() {
+        FSTConfiguration conf = IsolatedConfiguration.create();
+        conf.setClassLoader(classLoader);
+        return conf;
+    }
+
+    private boolean isRegistrable(final String className) {
+        try {
+            Class<?> clazz = Class.forName(className, false, classLoader);
+            return !clazz.isInterface() && !clazz.isPrimitive() && !clazz.isArray()
+                    && configuration.getClassRegistry().getIdFromClazz(clazz) == Integer.MIN_VALUE;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Configurations created by {@link FSTConfiguration#createDefaultConfiguration()} share the field infos
+     * and the streams of the current thread, which cache the class infos holding the class ids,
+     * so a configuration with registered classes would make the others write class ids unknown to them.
+     */
+    private static final class IsolatedConfiguration extends FSTConfiguration {
+
+        private IsolatedConfiguration() {
+            super(null);
+        }
+
+        // the key type of the field info map is package private in fst
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        private static FSTConfiguration create() {
+            FSTConfiguration conf = createDefaultConfiguration(new ConcurrentHashMap());
+            conf.setStreamCoderFactory(new IsolatedStreamCoderFactory(conf));
+            return conf;
+        }
+
+        private static final class IsolatedStreamCoderFactory extends FSTDefaultStreamCoderFactory {
+
+            private final ThreadLocal<Object> input = new ThreadLocal<Object>();
+            private final ThreadLocal<Object> output = new ThreadLocal<Object>();
+
+            private IsolatedStreamCoderFactory(FSTConfiguration conf) {
+                super(conf);
+            }
+
+            @Override
+            public ThreadLocal<Object> getInput() {
+                return input;
+            }
+
+            @Override
+            public ThreadLocal<Object> getOutput() {
+                return output;
+            }
+        }
+    }
+}
@@ -1,44 +1,84 @@
 package org.hibernate.cache.redis.serializer;
 
 import org.nustaq.serialization.FSTConfiguration;
-import org.nustaq.serialization.FSTObjectInput;
 import org.nustaq.serialization.FSTObjectOutput;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
  * Serializer using Fast-Serialization
+ * <p/>
+ * Uses the object output and input FST keeps per thread, so only the resulting array is allocated.
+ * <p/>
+ * When a {@link FstClassRegistry} is set, the registered classes are written by class id instead of class name,
+ * and the classes of the written values are registered as they come.
  *
  * @author Sunghyouk Bae
  */
-public class FstRedisSerializer<T> implements RedisSerializer<T> {
+public class FstRedisSerializer<T> implements StreamingRedisSerializer<T> {
 
     private static final FSTConfiguration conf = FSTConfiguration.createDefaultConfiguration();
+    private static final Set<String> classNames = new CopyOnWriteArraySet<String>();
+    private static final ThreadLocalBuffer buffers = new ThreadLocalBuffer();
     private static final Logger log = LoggerFactory.getLogger(FstRedisSerializer.class);
 
+    private static volatile FstClassRegistry classRegistry;
+
     /**
      * Provides access to serialization configuration, to inject custom ClassLoaders
-     * among other things.
+     * among other things. The configurations of the class registry are created with its class loader.
      * @return serialization configuration.
      */
     public static FSTConfiguration getConf() {
 	return conf;
     }
 
+    /**
+     * Registry of the classes written by class id, null if class names are written
+     */
+    public static FstClassRegistry getClassRegistry() {
+        return classRegistry;
+    }
+
+    /**
+     * Write the classes registered to the specified registry by class id.
+     * The registry gets the classes already requested by {@link #registerClasses(Collection)}.
+     */
+    public static synchronized void setClassRegistry(final FstClassRegistry registry) {
+        if (registry != null) {
+            registry.register(classNames);
+        }
+        classRegistry = registry;
+    }
+
+    /**
+     * Register classes (e.g. the entity classes) to the class registry, when it is set.
+     */
+    public static synchronized void registerClasses(final Collection<String> classNamesToRegister) {
+        classNames.addAll(classNamesToRegister);
+        if (classRegistry != null) {
+            classRegistry.register(classNamesToRegister);
+        }
+    }
+
+    private static FSTConfiguration getConf(final FstClassRegistry registry) {
+        return (registry != null) ? registry.getConfiguration() : conf;
+    }
+
     @Override
     public byte[] serialize(final T graph) {
         if (graph == null)
             return EMPTY_BYTES;
 
-        try (ByteArrayOutputStream os = new ByteArrayOutputStream()){
-            FSTObjectOutput oos = conf.getObjectOutput(os);
+        try {
+            FSTObjectOutput oos = getObjectOutput(graph);
             oos.writeObject(graph);
-            oos.flush();
-
-            return os.toByteArray();
+            return oos.getCopyOfWrittenBuffer();
         } catch (Exception e) {
             log.warn("Fail to serializer graph. graph=" + graph, e);
             return EMPTY_BYTES;
@@ -46,17 +86,64 @@ public class FstRedisSerializer<T> implements RedisSerializer<T> {
     }
 
     @Override
-    @SuppressWarnings("unchecked")
+    public ByteBuffer serializeToBuffer(final T graph) {
+        if (graph == null)
+            return ByteBuffer.wrap(EMPTY_BYTES);
+
+        try {
+            FSTObjectOutput oos = getObjectOutput(graph);
+            oos.writeObject(graph);
+            return ByteBuffer.wrap(oos.getBuffer(), 0, oos.getWritten());
+        } catch (Exception e) {
+            log.warn("Fail to serializer graph. graph=" + graph, e);
+            return ByteBuffer.wrap(EMPTY_BYTES);
+        }
+    }
+
+    @Override
     public T deserialize(final byte[] bytes) {
         if (SerializationTool.isEmpty(bytes))
             return null;
 
-        try (ByteArrayInputStream is = new ByteArrayInputStream(bytes)){
-            FSTObjectInput ois = conf.getObjectInput(is);
-            return (T) ois.readObject();
+        return deserialize(bytes, 0, bytes.length);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T deserialize(final byte[] bytes, final int offset, final int length) {
+        if (length == 0)
+            return null;
+
+        // FST reads from the start of an array, so copy the range into a buffer of the current thread
+        final byte[] buffer = (offset == 0) ? bytes : buffers.acquire(length);
+        try {
+            if (buffer != bytes) {
+                System.arraycopy(bytes, offset, buffer, 0, length);
+            }
+            FstClassRegistry registry = classRegistry;
+            try {
+                return (T) getConf(registry).getObjectInput(buffer, length).readObject();
+            } catch (Exception e) {
+                // the value may use classes registered by another node
+                if (registry == null || !registry.refresh())
+                    throw e;
+                return (T) getConf(registry).getObjectInput(buffer, length).readObject();
+            }
         } catch (Exception e) {
             log.warn("Fail to deserialize bytes.", e);
             return null;
+        } finally {
+            if (buffer != bytes) {
+                buffers.release(buffer);
+            }
+        }
+    }
+
+    private static FSTObjectOutput getObjectOutput(final Object graph) {
+        FstClassRegistry registry = classRegistry;
+        if (registry != null) {
+            registry.register(graph.getClass());
         }
+        return getConf(registry).getObjectOutput();
     }
 }
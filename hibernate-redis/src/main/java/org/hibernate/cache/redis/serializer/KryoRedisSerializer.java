@@ -0,0 +1,238 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.hibernate.cache.redis.serializer;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.io.UnsafeInput;
+import com.esotericsoftware.kryo.io.UnsafeOutput;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Serializer using Kryo.
+ * <p/>
+ * Kryo is not thread safe, so every thread keeps its own Kryo instance with a reusable input and output.
+ * The common JDK classes and the hibernate cache entries are registered, and the classes listed in
+ * {@code redis.kryo.classes} are registered after them in that order, so they are written by id instead of by name.
+ * All nodes must list the same classes in the same order.
+ * <p/>
+ * Set {@code redis.kryo.references=false} when the cached values have no shared or circular references
+ * (e.g. the hibernate cache entries), which makes kryo faster and the values smaller.
+ * Set {@code redis.kryo.unsafe=true} to read and write by unsafe memory access, in the native byte order.
+ * Both settings must be the same on all nodes.
+ */
+public class KryoRedisSerializer<T> implements StreamingRedisSerializer<T>, ConfigurableRedisSerializer {
+
+    public static final String CLASSES_PROPERTY_KEY = "redis.kryo.classes";
+    public static final String REGISTRATION_REQUIRED_PROPERTY_KEY = "redis.kryo.registrationRequired";
+    public static final String REFERENCES_PROPERTY_KEY = "redis.kryo.references";
+    public static final String UNSAFE_PROPERTY_KEY = "redis.kryo.unsafe";
+    private static final int BUFFER_SIZE = 4 * 1024;
+    private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+    private static final Logger log = LoggerFactory.getLogger(KryoRedisSerializer.class);
+
+    /**
+     * registered before the configured classes, the order must not change
+     */
+    private static final String[] DEFAULT_CLASS_NAMES = {
+            "[Ljava.lang.Object;",
+            "[Ljava.io.Serializable;",
+            "java.util.Date",
+            "java.sql.Date",
+            "java.sql.Time",
+            "java.sql.Timestamp",
+            "java.math.BigDecimal",
+            "java.math.BigInteger",
+            "java.util.ArrayList",
+            "java.util.HashMap",
+            "java.util.HashSet",
+            "java.util.LinkedHashMap",
+            "java.util.TreeMap",
+            "org.hibernate.cache.spi.entry.StandardCacheEntryImpl",
+            "org.hibernate.cache.spi.entry.CollectionCacheEntry"
+    };
+
+    private List<Class<?>> registeredClasses = Collections.emptyList();
+
+    private boolean registrationRequired = false;
+
+    private boolean references = true;
+
+    private boolean unsafe = false;
+
+    private volatile ThreadLocal<KryoContext> contexts = createContexts();
+
+    @Override
+    public void configure(final Properties props) {
+        if (props == null)
+            return;
+
+        List<Class<?>> classes = new ArrayList<Class<?>>();
+        String classNames = props.getProperty(CLASSES_PROPERTY_KEY, "").trim();
+        if (!classNames.isEmpty()) {
+            for (String className : classNames.split(",")) {
+                classes.add(forName(className.trim()));
+            }
+        }
+        this.registeredClasses = classes;
+        this.registrationRequired = Boolean.parseBoolean(props.getProperty(REGISTRATION_REQUIRED_PROPERTY_KEY,
+                                                                           String.valueOf(registrationRequired)).trim());
+        this.references = Boolean.parseBoolean(props.getProperty(REFERENCES_PROPERTY_KEY,
+                                                                 String.valueOf(references)).trim());
+        this.unsafe = Boolean.parseBoolean(props.getProperty(UNSAFE_PROPERTY_KEY, String.valueOf(unsafe)).trim());
+        this.contexts = createContexts();
+    }
+
+    @Override
+    public byte[] serialize(final T graph) {
+        if (graph == null)
+            return EMPTY_BYTES;
+
+        KryoContext context = contexts.get();
+        try {
+            context.write(graph);
+            return context.output.toBytes();
+        } catch (Exception e) {
+            log.warn("Fail to serializer graph. graph=" + graph, e);
+            return EMPTY_BYTES;
+        }
+    }
+
+    @Override
+    public ByteBuffer serializeToBuffer(final T graph) {
+        if (graph == null)
+            return ByteBuffer.wrap(EMPTY_BYTES);
+
+        KryoContext context = contexts.get();
+        try {
+            context.write(graph);
+            return ByteBuffer.wrap(context.output.getBuffer(), 0, context.output.position());
+        } catch (Exception e) {
+            log.warn("Fail to serializer graph. graph=" + graph, e);
+            return ByteBuffer.wrap(EMPTY_BYTES);
+        }
+    }
+
+    @Override
+    public T deserialize(final byte[] bytes) {
+        if (SerializationTool.isEmpty(bytes))
+            return null;
+
+        return deserialize(bytes, 0, bytes.length);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T deserialize(final byte[] bytes, final int offset, final int length) {
+        if (length == 0)
+            return null;
+
+        KryoContext context = contexts.get();
+        try {
+            context.input.setBuffer(bytes, offset, length);
+            return (T) context.kryo.readClassAndObject(context.input);
+        } catch (Exception e) {
+            log.warn("Fail to deserialize bytes.", e);
+            return null;
+        } finally {
+            context.input.setBuffer(EMPTY_BYTES);
+        }
+    }
+
+    private ThreadLocal<KryoContext> createContexts() {
+        return new ThreadLocal<KryoContext>() {
+            @Override
+            protected KryoContext initialValue() {
+                return new KryoContext(createKryo(), unsafe);
+            }
+        };
+    }
+
+    private Kryo createKryo() {
+        Kryo kryo = new Kryo();
+        // hibernate cache entries have no default constructor
+        kryo.setInstantiatorStrategy(new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+        kryo.setRegistrationRequired(registrationRequired);
+        kryo.setReferences(references);
+        for (String className : DEFAULT_CLASS_NAMES) {
+            kryo.register(forName(className));
+        }
+        for (Class<?> clazz : registeredClasses) {
+            kryo.register(clazz);
+        }
+        return kryo;
+    }
+
+    private static Class<?> forName(final String className) {
+        try {
+            return Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Fail to register class to kryo. class=" + className, e);
+        }
+    }
+
+    /**
+     * Kryo instance of a thread with its input and output
+     */
+    private static final class KryoContext {
+
+        private final Kryo kryo;
+        private final boolean unsafe;
+        private final Input input;
+        private Output output;
+
+        private KryoContext(Kryo kryo, boolean unsafe) {
+            this.kryo = kryo;
+            this.unsafe = unsafe;
+            if (unsafe) {
+                UnsafeInput unsafeInput = new UnsafeInput();
+                unsafeInput.setVarIntsEnabled(true);
+                this.input = unsafeInput;
+            } else {
+                this.input = new Input();
+            }
+            this.output = createOutput();
+        }
+
+        private void write(Object graph) {
+            // drop the buffer grown by a large value
+            if (output.getBuffer().length > MAX_POOLED_BUFFER_SIZE) {
+                output = createOutput();
+            }
+            output.clear();
+            kryo.writeClassAndObject(output, graph);
+        }
+
+        private Output createOutput() {
+            if (unsafe) {
+                UnsafeOutput unsafeOutput = new UnsafeOutput(BUFFER_SIZE, -1);
+                unsafeOutput.supportVarInts(true);
+                return unsafeOutput;
+            }
+            return new Output(BUFFER_SIZE, -1);
+        }
+    }
+}
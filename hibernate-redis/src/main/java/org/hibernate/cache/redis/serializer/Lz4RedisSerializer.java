@@ -0,0 +1,105 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.hibernate.cache.redis.serializer;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Serializer which compresses the bytes of an inner serializer (FST by default) with LZ4.
+ * <p/>
+ * Layout of a compressed value : codec (1 byte), raw length (4 bytes), LZ4 block.
+ * Set {@code redis.compression.lz4.highCompression=true} to use the slower LZ4 HC compressor,
+ * the values are decompressed the same way.
+ *
+ * @see CompressionRedisSerializer
+ */
+public class Lz4RedisSerializer<T> extends CompressionRedisSerializer<T> {
+
+    public static final byte CODEC_LZ4 = 1;
+    public static final String HIGH_COMPRESSION_PROPERTY_KEY = "redis.compression.lz4.highCompression";
+    private static final int HEADER_SIZE = 5;
+
+    private static final LZ4Factory factory = LZ4Factory.fastestInstance();
+
+    private volatile LZ4Compressor compressor;
+
+    private final LZ4FastDecompressor decompressor = factory.fastDecompressor();
+
+    public Lz4RedisSerializer() {
+        this(new FstRedisSerializer<T>());
+    }
+
+    public Lz4RedisSerializer(RedisSerializer<T> innerSerializer) {
+        this(innerSerializer, DEFAULT_MIN_SIZE, DEFAULT_MIN_SAVING_RATIO, false);
+    }
+
+    public Lz4RedisSerializer(RedisSerializer<T> innerSerializer,
+                              int minSize,
+                              double minSavingRatio,
+                              boolean highCompression) {
+        super(innerSerializer, minSize, minSavingRatio);
+        setHighCompression(highCompression);
+    }
+
+    public boolean isHighCompression() {
+        return compressor == factory.highCompressor();
+    }
+
+    public void setHighCompression(boolean highCompression) {
+        this.compressor = highCompression ? factory.highCompressor() : factory.fastCompressor();
+    }
+
+    @Override
+    public void configure(final Properties props) {
+        super.configure(props);
+        if (props != null) {
+            setHighCompression(Boolean.parseBoolean(props.getProperty(HIGH_COMPRESSION_PROPERTY_KEY,
+                                                                      String.valueOf(isHighCompression())).trim()));
+        }
+    }
+
+    @Override
+    protected byte[] compress(final byte[] raw, final int offset, final int length) {
+        final LZ4Compressor compressor = this.compressor;
+        final int maxLength = HEADER_SIZE + compressor.maxCompressedLength(length);
+        final byte[] buffer = buffers.acquire(maxLength);
+        try {
+            int compressedLength = compressor.compress(raw, offset, length, buffer, HEADER_SIZE, maxLength - HEADER_SIZE);
+            buffer[0] = CODEC_LZ4;
+            writeInt(buffer, 1, length);
+            return Arrays.copyOf(buffer, HEADER_SIZE + compressedLength);
+        } finally {
+            buffers.release(buffer);
+        }
+    }
+
+    @Override
+    protected int getRawLength(final byte codec, final byte[] bytes) {
+        return (codec == CODEC_LZ4) ? readInt(bytes, 1) : -1;
+    }
+
+    @Override
+    protected boolean decompress(final byte codec, final byte[] bytes, final byte[] raw, final int rawLength) {
+        decompressor.decompress(bytes, HEADER_SIZE, raw, 0, rawLength);
+        return true;
+    }
+}
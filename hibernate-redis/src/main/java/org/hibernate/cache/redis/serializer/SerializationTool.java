@@ -16,24 +16,76 @@
 
 package org.hibernate.cache.redis.serializer;
 
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Serialization Helper class
+ * <p/>
+ * Collections of at least {@link #getParallelThreshold()} values are deserialized in parallel
+ * on a shared {@link ForkJoinPool}, keeping the order of the values.
  *
  * @author sunghyouk.bae@gmail.com
  * @since 13. 4. 4. 오후 11:38
  */
 public abstract class SerializationTool {
 
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 256;
+    private static final int MIN_CHUNK_SIZE = 32;
+
+    private static volatile int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    private static volatile ForkJoinPool pool;
+
+    /**
+     * Decodes the raw values of a collection, when they need more than a {@link RedisSerializer} to be read
+     */
+    public interface Deserializer<T> {
+
+        T deserialize(final byte[] bytes);
+    }
+
+    public static int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * set the minimum number of values deserialized in parallel, 0 to always deserialize on the calling thread
+     */
+    public static void setParallelThreshold(int threshold) {
+        parallelThreshold = threshold;
+    }
+
     static boolean isEmpty(byte[] data) {
         return (data == null || data.length == 0);
     }
 
+    /**
+     * serialize without copying the bytes if the serializer is a {@link StreamingRedisSerializer}
+     */
+    static <T> ByteBuffer serializeToBuffer(RedisSerializer<T> redisSerializer, T graph) {
+        if (redisSerializer instanceof StreamingRedisSerializer)
+            return ((StreamingRedisSerializer<T>) redisSerializer).serializeToBuffer(graph);
+        return ByteBuffer.wrap(redisSerializer.serialize(graph));
+    }
+
+    /**
+     * deserialize the specified range of bytes without copying them if the serializer is a {@link StreamingRedisSerializer}
+     */
+    static <T> T deserialize(RedisSerializer<T> redisSerializer, byte[] bytes, int offset, int length) {
+        if (redisSerializer instanceof StreamingRedisSerializer)
+            return ((StreamingRedisSerializer<T>) redisSerializer).deserialize(bytes, offset, length);
+        if (offset == 0 && length == bytes.length)
+            return redisSerializer.deserialize(bytes);
+        return redisSerializer.deserialize(Arrays.copyOfRange(bytes, offset, offset + length));
+    }
+
     @SuppressWarnings("unchecked")
     private static <T extends Collection<?>> T deserializeValues(Collection<byte[]> rawValues,
                                                                  Class<T> clazz,
-                                                                 RedisSerializer<?> redisSerializer) {
+                                                                 Deserializer<?> deserializer) {
         if (rawValues == null)
             return null;
 
@@ -43,24 +95,106 @@ public abstract class SerializationTool {
                 ? new ArrayList<Object>(valueCount)
                 : new HashSet<Object>(valueCount);
 
+        if (isParallel(valueCount)) {
+            Collections.addAll(values, deserializeParallel(rawValues, deserializer));
+            return (T) values;
+        }
         for (byte[] bs : rawValues) {
-            values.add(redisSerializer.deserialize(bs));
+            values.add(deserializer.deserialize(bs));
         }
         return (T) values;
     }
 
+    private static boolean isParallel(int valueCount) {
+        int threshold = parallelThreshold;
+        return threshold > 0 && valueCount >= threshold && valueCount >= 2 * MIN_CHUNK_SIZE
+                && Runtime.getRuntime().availableProcessors() > 1;
+    }
+
+    private static Object[] deserializeParallel(Collection<byte[]> rawValues, Deserializer<?> deserializer) {
+        byte[][] raws = rawValues.toArray(new byte[rawValues.size()][]);
+        Object[] values = new Object[raws.length];
+        ForkJoinPool currentPool = getPool();
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, raws.length / (currentPool.getParallelism() * 4));
+        currentPool.invoke(new DeserializeTask(deserializer, raws, values, 0, raws.length, chunkSize));
+        return values;
+    }
+
+    private static ForkJoinPool getPool() {
+        if (pool == null) {
+            synchronized (SerializationTool.class) {
+                if (pool == null) {
+                    pool = new ForkJoinPool();
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * deserialize a range of values, splitting it in halves down to the chunk size
+     */
+    private static final class DeserializeTask extends RecursiveAction {
+
+        private final Deserializer<?> deserializer;
+        private final byte[][] raws;
+        private final Object[] values;
+        private final int from;
+        private final int to;
+        private final int chunkSize;
+
+        private DeserializeTask(Deserializer<?> deserializer, byte[][] raws, Object[] values,
+                                int from, int to, int chunkSize) {
+            this.deserializer = deserializer;
+            this.raws = raws;
+            this.values = values;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunkSize) {
+                for (int i = from; i < to; i++) {
+                    values[i] = deserializer.deserialize(raws[i]);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new DeserializeTask(deserializer, raws, values, from, middle, chunkSize),
+                      new DeserializeTask(deserializer, raws, values, middle, to, chunkSize));
+        }
+
+        private static final long serialVersionUID = 7305941822183076452L;
+    }
+
     @SuppressWarnings("unchecked")
     public static <T> Set<T> deserialize(Set<byte[]> rawValues, RedisSerializer<T> redisSerializer) {
-        return deserializeValues(rawValues, Set.class, redisSerializer);
+        return deserializeValues(rawValues, Set.class, deserializer(redisSerializer));
     }
 
     @SuppressWarnings("unchecked")
     public static <T> List<T> deserialize(List<byte[]> rawValues, RedisSerializer<T> redisSerializer) {
-        return deserializeValues(rawValues, List.class, redisSerializer);
+        return deserializeValues(rawValues, List.class, deserializer(redisSerializer));
     }
 
     @SuppressWarnings("unchecked")
     public static <T> Collection<T> deserialize(Collection<byte[]> rawValues, RedisSerializer<T> redisSerializer) {
-        return deserializeValues(rawValues, List.class, redisSerializer);
+        return deserializeValues(rawValues, List.class, deserializer(redisSerializer));
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> List<T> deserialize(List<byte[]> rawValues, Deserializer<T> deserializer) {
+        return deserializeValues(rawValues, List.class, deserializer);
+    }
+
+    private static <T> Deserializer<T> deserializer(final RedisSerializer<T> redisSerializer) {
+        return new Deserializer<T>() {
+            @Override
+            public T deserialize(byte[] bytes) {
+                return redisSerializer.deserialize(bytes);
+            }
+        };
     }
 }
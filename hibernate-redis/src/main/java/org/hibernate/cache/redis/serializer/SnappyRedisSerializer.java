@@ -5,14 +5,19 @@ import org.slf4j.LoggerFactory;
 import org.xerial.snappy.Snappy;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * SnappyRedisSerializer
+ * <p/>
+ * Compresses from and decompresses into buffers of the current thread, so only the resulting array is allocated.
  * Created by debop on 2014. 3. 15.
  */
 public class SnappyRedisSerializer<T> implements RedisSerializer<T> {
 
     private static final Logger log = LoggerFactory.getLogger(SnappyRedisSerializer.class);
+    private static final ThreadLocalBuffer buffers = new ThreadLocalBuffer();
     private final RedisSerializer<T> inner;
 
     public SnappyRedisSerializer() {
@@ -26,11 +31,16 @@ public class SnappyRedisSerializer<T> implements RedisSerializer<T> {
 
     @Override
     public byte[] serialize(T graph) {
+        ByteBuffer raw = SerializationTool.serializeToBuffer(inner, graph);
+        byte[] buffer = buffers.acquire(Snappy.maxCompressedLength(raw.remaining()));
         try {
-            return Snappy.compress(inner.serialize(graph));
+            int length = Snappy.compress(raw.array(), raw.arrayOffset() + raw.position(), raw.remaining(), buffer, 0);
+            return Arrays.copyOf(buffer, length);
         } catch (IOException e) {
             log.error("Fail to serialize graph.", e);
             return EMPTY_BYTES;
+        } finally {
+            buffers.release(buffer);
         }
     }
 
@@ -38,11 +48,19 @@ public class SnappyRedisSerializer<T> implements RedisSerializer<T> {
     public T deserialize(byte[] bytes) {
         if (bytes == null || bytes.length == 0)
             return null;
+        byte[] buffer = null;
         try {
-            return inner.deserialize(Snappy.uncompress(bytes));
+            int length = Snappy.uncompressedLength(bytes);
+            buffer = buffers.acquire(length);
+            Snappy.uncompress(bytes, 0, bytes.length, buffer, 0);
+            return SerializationTool.deserialize(inner, buffer, 0, length);
         } catch (IOException e) {
             log.error("Fail to deserialize graph.", e);
             return null;
+        } finally {
+            if (buffer != null) {
+                buffers.release(buffer);
+            }
         }
     }
 }
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.hibernate.cache.redis.serializer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Serializer which writes into a buffer of the current thread and reads from a range of a byte array,
+ * so wrapping serializers (e.g. compression) need no intermediate copies.
+ */
+public interface StreamingRedisSerializer<T> extends RedisSerializer<T> {
+
+    /**
+     * Serialize into a buffer of the current thread, valid until the next serialization on this thread
+     *
+     * @return buffer holding the serialized bytes between its position and limit
+     */
+    ByteBuffer serializeToBuffer(final T graph);
+
+    /**
+     * Deserialize the specified range of bytes
+     */
+    T deserialize(final byte[] bytes, final int offset, final int length);
+}
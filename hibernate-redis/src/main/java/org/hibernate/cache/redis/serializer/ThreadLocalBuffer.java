@@ -0,0 +1,53 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.hibernate.cache.redis.serializer;
+
+/**
+ * Byte array reused by the serializers of the current thread.
+ * <p/>
+ * A buffer is taken by {@link #acquire(int)} and given back by {@link #release(byte[])},
+ * so a nested use on the same thread gets a new array instead of the one in use.
+ * Buffers larger than 1MB are not kept.
+ */
+final class ThreadLocalBuffer {
+
+    private static final int INITIAL_SIZE = 4 * 1024;
+    private static final int MAX_POOLED_SIZE = 1024 * 1024;
+
+    private final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>();
+
+    /**
+     * Take the buffer of the current thread, or a new one if it is in use or smaller than the specified size
+     */
+    byte[] acquire(final int minSize) {
+        byte[] buffer = buffers.get();
+        if (buffer != null && buffer.length >= minSize) {
+            buffers.set(null);
+            return buffer;
+        }
+        return new byte[Math.max(minSize, INITIAL_SIZE)];
+    }
+
+    /**
+     * Give back the buffer for the next use on the current thread
+     */
+    void release(final byte[] buffer) {
+        if (buffer.length <= MAX_POOLED_SIZE) {
+            buffers.set(buffer);
+        }
+    }
+}
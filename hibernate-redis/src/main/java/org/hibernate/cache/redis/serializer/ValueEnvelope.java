@@ -0,0 +1,198 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.hibernate.cache.redis.serializer;
+
+import org.hibernate.cache.spi.entry.CacheEntry;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Fixed layout header written in front of cached values, so values of several serializers can live in one region,
+ * and their expiration and entity version can be read without deserializing them (e.g. by server side scripts).
+ * <p/>
+ * Layout (big endian) :
+ * <pre>
+ * offset  size
+ *      0     2  magic (0xE5 0x7A)
+ *      2     1  format version (1)
+ *      3     1  codec id, 0 for the serializer of the region
+ *      4     1  flags : 1 compressed, 2 versioned
+ *      5     8  expiration time in milliseconds, 0 for none
+ *     13     8  entity version (numeric version, or milliseconds of a timestamp version), 0 if not versioned
+ *     21        serialized value
+ * </pre>
+ * Values without the header, written before it was enabled, are read as they are.
+ */
+public abstract class ValueEnvelope {
+
+    public static final byte FORMAT_VERSION = 1;
+    public static final int HEADER_SIZE = 21;
+    public static final int FLAG_COMPRESSED = 1;
+    public static final int FLAG_VERSIONED = 2;
+    private static final byte MAGIC_0 = (byte) 0xE5;
+    private static final byte MAGIC_1 = (byte) 0x7A;
+    private static final int KNOWN_FLAGS = FLAG_COMPRESSED | FLAG_VERSIONED;
+    private static final String STRUCTURED_VERSION_KEY = "_version";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * serialize the value with the specified serializer, in an envelope
+     *
+     * @param redisSerializer serializer of the value
+     * @param codecId         id of the serializer
+     * @param graph           value
+     * @param expiration      expiration time in milliseconds, 0 for none
+     * @return enveloped value, or empty bytes for null
+     */
+    public static <T> byte[] serialize(RedisSerializer<T> redisSerializer, int codecId, T graph, long expiration) {
+        ByteBuffer payload = SerializationTool.serializeToBuffer(redisSerializer, graph);
+        if (!payload.hasRemaining())
+            return RedisSerializer.EMPTY_BYTES;
+
+        Long version = toVersion(graph);
+        int flags = (version != null) ? FLAG_VERSIONED : 0;
+        if (isCompressed(redisSerializer, payload)) {
+            flags |= FLAG_COMPRESSED;
+        }
+
+        byte[] bytes = new byte[HEADER_SIZE + payload.remaining()];
+        bytes[0] = MAGIC_0;
+        bytes[1] = MAGIC_1;
+        bytes[2] = FORMAT_VERSION;
+        bytes[3] = (byte) codecId;
+        bytes[4] = (byte) flags;
+        writeLong(bytes, 5, expiration);
+        writeLong(bytes, 13, (version != null) ? version : 0L);
+        payload.get(bytes, HEADER_SIZE, payload.remaining());
+        return bytes;
+    }
+
+    /**
+     * deserialize the value of an envelope
+     */
+    public static <T> T deserialize(RedisSerializer<T> redisSerializer, byte[] bytes) {
+        return SerializationTool.deserialize(redisSerializer, bytes, HEADER_SIZE, bytes.length - HEADER_SIZE);
+    }
+
+    /**
+     * whether the bytes start with an envelope header
+     */
+    public static boolean isEnvelope(byte[] bytes) {
+        return bytes != null
+                && bytes.length > HEADER_SIZE
+                && bytes[0] == MAGIC_0
+                && bytes[1] == MAGIC_1
+                && bytes[2] == FORMAT_VERSION
+                && (bytes[4] & ~KNOWN_FLAGS) == 0;
+    }
+
+    /**
+     * SHA-1 digest (hex) of the value, without the expiration time of the envelope,
+     * so the digest of a value does not change when it is written again. same as computed by scripts with redis.sha1hex.
+     */
+    public static String digest(byte[] bytes) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            if (bytes.length > HEADER_SIZE && bytes[0] == MAGIC_0 && bytes[1] == MAGIC_1 && bytes[2] == FORMAT_VERSION) {
+                sha1.update(bytes, 0, 5);
+                sha1.update(bytes, 13, bytes.length - 13);
+            } else {
+                sha1.update(bytes);
+            }
+            byte[] digest = sha1.digest();
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+                hex[i * 2 + 1] = HEX[digest[i] & 0xF];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static int getCodecId(byte[] bytes) {
+        return bytes[3] & 0xFF;
+    }
+
+    public static boolean isCompressed(byte[] bytes) {
+        return (bytes[4] & FLAG_COMPRESSED) != 0;
+    }
+
+    /**
+     * expiration time in milliseconds, 0 for none
+     */
+    public static long getExpiration(byte[] bytes) {
+        return readLong(bytes, 5);
+    }
+
+    /**
+     * entity version, or null if the value is not versioned
+     */
+    public static Long getVersion(byte[] bytes) {
+        return ((bytes[4] & FLAG_VERSIONED) != 0) ? readLong(bytes, 13) : null;
+    }
+
+    /**
+     * the entity version of cache entries (and of structured cache entries), as a number
+     */
+    public static Long toVersion(Object value) {
+        if (value instanceof CacheEntry)
+            return toVersionNumber(((CacheEntry) value).getVersion());
+        if (value instanceof Map)
+            return toVersionNumber(((Map<?, ?>) value).get(STRUCTURED_VERSION_KEY));
+        return null;
+    }
+
+    /**
+     * the entity version as a number : numeric versions as they are, timestamp versions in milliseconds
+     */
+    public static Long toVersionNumber(Object version) {
+        if (version instanceof Number)
+            return ((Number) version).longValue();
+        if (version instanceof Date)
+            return ((Date) version).getTime();
+        return null;
+    }
+
+    private static boolean isCompressed(RedisSerializer<?> redisSerializer, ByteBuffer payload) {
+        if (redisSerializer instanceof SnappyRedisSerializer)
+            return true;
+        if (redisSerializer instanceof CompressionRedisSerializer)
+            return payload.get(payload.position()) != CompressionRedisSerializer.CODEC_RAW;
+        return false;
+    }
+
+    private static void writeLong(byte[] bytes, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            bytes[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.hibernate.cache.redis.serializer;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Serializer which compresses the bytes of an inner serializer (FST by default) with Zstandard,
+ * using a dictionary trained from the values of the region.
+ * <p/>
+ * Once the serializer is bound to the {@link DictionaryStore} of its region, it loads the stored dictionaries,
+ * or samples the values it compresses until {@code redis.compression.zstd.trainingSize} bytes are collected,
+ * then trains a dictionary and saves it as a new version in the background.
+ * Layout of a compressed value : codec (1 byte), dictionary version (4 bytes, 0 for none), raw length (4 bytes),
+ * Zstandard frame. So values written with an older dictionary can be read as long as it is stored.
+ *
+ * @see CompressionRedisSerializer
+ */
+public class ZstdRedisSerializer<T> extends CompressionRedisSerializer<T> {
+
+    public static final byte CODEC_ZSTD = 2;
+    public static final String LEVEL_PROPERTY_KEY = "redis.compression.zstd.level";
+    public static final String DICTIONARY_SIZE_PROPERTY_KEY = "redis.compression.zstd.dictionarySize";
+    public static final String TRAINING_SIZE_PROPERTY_KEY = "redis.compression.zstd.trainingSize";
+    public static final int DEFAULT_MIN_SIZE = 32;
+    public static final int DEFAULT_LEVEL = 3;
+    public static final int DEFAULT_DICTIONARY_SIZE = 16 * 1024;
+    public static final int DEFAULT_TRAINING_SIZE = 1024 * 1024;
+    private static final int HEADER_SIZE = 9;
+    private static final long RELOAD_INTERVAL_MILLIS = 1000L;
+    private static final Logger log = LoggerFactory.getLogger(ZstdRedisSerializer.class);
+
+    /**
+     * Storage of the versioned dictionaries of a region
+     */
+    public interface DictionaryStore {
+
+        /**
+         * Load all dictionaries by version
+         */
+        Map<Integer, byte[]> load();
+
+        /**
+         * Save a new dictionary
+         *
+         * @return version of the saved dictionary
+         */
+        int save(final byte[] dictionary);
+    }
+
+    private int level = DEFAULT_LEVEL;
+
+    private int dictionarySize = DEFAULT_DICTIONARY_SIZE;
+
+    private int trainingSize = DEFAULT_TRAINING_SIZE;
+
+    private volatile DictionaryStore store;
+
+    private volatile ZstdDictTrainer trainer;
+
+    private volatile CompressDictionary current = new CompressDictionary(0, null);
+
+    private volatile long lastLoad;
+
+    private static volatile ExecutorService trainingExecutor;
+
+    private final ConcurrentMap<Integer, ZstdDictDecompress> decompressDictionaries =
+            new ConcurrentHashMap<Integer, ZstdDictDecompress>();
+
+    public ZstdRedisSerializer() {
+        this(new FstRedisSerializer<T>());
+    }
+
+    public ZstdRedisSerializer(RedisSerializer<T> innerSerializer) {
+        super(innerSerializer, DEFAULT_MIN_SIZE, DEFAULT_MIN_SAVING_RATIO);
+    }
+
+    public int getVersion() {
+        return current.version;
+    }
+
+    @Override
+    public void configure(final Properties props) {
+        super.configure(props);
+        if (props == null)
+            return;
+        this.level = Integer.decode(props.getProperty(LEVEL_PROPERTY_KEY, String.valueOf(level)).trim());
+        this.dictionarySize = Integer.decode(props.getProperty(DICTIONARY_SIZE_PROPERTY_KEY,
+                                                               String.valueOf(dictionarySize)).trim());
+        this.trainingSize = Integer.decode(props.getProperty(TRAINING_SIZE_PROPERTY_KEY,
+                                                             String.valueOf(trainingSize)).trim());
+    }
+
+    /**
+     * Bind to the dictionary store of the region, load the latest dictionary,
+     * and start sampling values for training if there is none.
+     */
+    public synchronized void bind(final DictionaryStore store) {
+        this.store = store;
+        if (!loadDictionaries() && trainingSize > 0) {
+            retrain();
+        }
+    }
+
+    /**
+     * Start sampling values to train a new dictionary version.
+     * Values written with the previous versions are still readable.
+     */
+    public synchronized void retrain() {
+        if (store == null)
+            throw new IllegalStateException("ZstdRedisSerializer is not bound to a dictionary store.");
+        trainer = new ZstdDictTrainer(trainingSize, dictionarySize);
+    }
+
+    @Override
+    protected byte[] compress(final byte[] raw, final int offset, final int length) {
+        final ZstdDictTrainer currentTrainer = trainer;
+        if (currentTrainer != null && !currentTrainer.addSample(Arrays.copyOfRange(raw, offset, offset + length))) {
+            train(currentTrainer);
+        }
+
+        final CompressDictionary dictionary = current;
+        final int maxLength = HEADER_SIZE + (int) Zstd.compressBound(length);
+        final byte[] buffer = buffers.acquire(maxLength);
+        try {
+            long compressedLength = (dictionary.dictionary != null)
+                                    ? Zstd.compressFastDict(buffer, HEADER_SIZE, raw, offset, length, dictionary.dictionary)
+                                    : Zstd.compressByteArray(buffer, HEADER_SIZE, maxLength - HEADER_SIZE,
+                                                             raw, offset, length, level);
+            if (Zstd.isError(compressedLength))
+                throw new IllegalStateException("Fail to compress. error=" + Zstd.getErrorName(compressedLength));
+
+            buffer[0] = CODEC_ZSTD;
+            writeInt(buffer, 1, dictionary.version);
+            writeInt(buffer, 5, length);
+            return Arrays.copyOf(buffer, HEADER_SIZE + (int) compressedLength);
+        } finally {
+            buffers.release(buffer);
+        }
+    }
+
+    @Override
+    protected int getRawLength(final byte codec, final byte[] bytes) {
+        return (codec == CODEC_ZSTD) ? readInt(bytes, 5) : -1;
+    }
+
+    @Override
+    protected boolean decompress(final byte codec, final byte[] bytes, final byte[] raw, final int rawLength) {
+        final int dictionaryVersion = readInt(bytes, 1);
+        final long decompressedLength;
+        if (dictionaryVersion == 0) {
+            decompressedLength = Zstd.decompressByteArray(raw, 0, rawLength,
+                                                          bytes, HEADER_SIZE, bytes.length - HEADER_SIZE);
+        } else {
+            ZstdDictDecompress dictionary = decompressDictionaries.get(dictionaryVersion);
+            if (dictionary == null && store != null
+                    && System.currentTimeMillis() - lastLoad >= RELOAD_INTERVAL_MILLIS) {
+                // trained by another node, reloaded at most once a second (e.g. if the dictionaries are lost)
+                refreshDictionaries();
+                dictionary = decompressDictionaries.get(dictionaryVersion);
+            }
+            if (dictionary == null) {
+                log.warn("Unknown zstd dictionary. version=[{}]", dictionaryVersion);
+                return false;
+            }
+            decompressedLength = Zstd.decompressFastDict(raw, 0, bytes, HEADER_SIZE, bytes.length - HEADER_SIZE, dictionary);
+        }
+        if (decompressedLength != rawLength)
+            throw new IllegalStateException("Fail to decompress. result=" + decompressedLength);
+        return true;
+    }
+
+    private void train(final ZstdDictTrainer currentTrainer) {
+        synchronized (this) {
+            if (trainer != currentTrainer)
+                return;
+            trainer = null;
+        }
+        // values are compressed with the current dictionary until the new one is trained
+        getTrainingExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    byte[] dictionary = currentTrainer.trainSamples();
+                    int newVersion = store.save(dictionary);
+                    log.info("Trained zstd dictionary. version=[{}], size=[{}]", newVersion, dictionary.length);
+                    addDictionary(newVersion, dictionary);
+                } catch (Exception e) {
+                    log.warn("Fail to train zstd dictionary.", e);
+                }
+            }
+        });
+    }
+
+    private static ExecutorService getTrainingExecutor() {
+        if (trainingExecutor == null) {
+            synchronized (ZstdRedisSerializer.class) {
+                if (trainingExecutor == null) {
+                    trainingExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "hibernate-redis-zstd-training");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                }
+            }
+        }
+        return trainingExecutor;
+    }
+
+    /**
+     * Load the dictionaries of the store
+     *
+     * @return true if any dictionary is loaded
+     */
+    private synchronized boolean loadDictionaries() {
+        lastLoad = System.currentTimeMillis();
+        try {
+            for (Map.Entry<Integer, byte[]> entry : store.load().entrySet()) {
+                if (!decompressDictionaries.containsKey(entry.getKey())) {
+                    addDictionary(entry.getKey(), entry.getValue());
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Fail to load zstd dictionaries.", e);
+        }
+        return current.version > 0;
+    }
+
+    private synchronized void refreshDictionaries() {
+        if (System.currentTimeMillis() - lastLoad >= RELOAD_INTERVAL_MILLIS) {
+            loadDictionaries();
+        }
+    }
+
+    private synchronized void addDictionary(final int dictionaryVersion, final byte[] dictionary) {
+        decompressDictionaries.put(dictionaryVersion, new ZstdDictDecompress(dictionary));
+        if (dictionaryVersion > current.version) {
+            current = new CompressDictionary(dictionaryVersion, new ZstdDictCompress(dictionary, level));
+        }
+    }
+
+    private static final class CompressDictionary {
+        private final int version;
+        private final ZstdDictCompress dictionary;
+
+        private CompressDictionary(int version, ZstdDictCompress dictionary) {
+            this.version = version;
+            this.dictionary = dictionary;
+        }
+    }
+}
@@ -42,35 +42,36 @@ public class AbstractReadWriteRedisAccessStrategy<T extends RedisTransactionalDa
     }
 
     /**
-     * Returns <code>null</code> if the item is not readable.  Locked items are not readable, nor are items created
-     * after the start of this transaction.
+     * Returns <code>null</code> if the item is not readable.  Locked items are not readable.
      */
     public final Object get(Object key, long txTimestamp) {
         return region.get(key);
     }
 
+    /**
+     * Put the loaded value unless the item is locked, was unlocked after the transaction started,
+     * or has the same or a newer version, in one server side script call.
+     */
     @Override
     public final boolean putFromLoad(Object key,
                                      Object value,
                                      long txTimestamp,
                                      Object version,
                                      boolean minimalPutOverride) {
-        region.put(key, value);
-        return true;
+        return region.putFromLoad(key, value, txTimestamp, version, false);
     }
 
     /**
      * Soft-lock a cache item.
      */
     public final SoftLock lockItem(Object key, Object version) {
-        region.remove(key);
-        return null;
+        return region.lock(key, version);
     }
 
     /**
      * Soft-unlock a cache item.
      */
     public final void unlockItem(Object key, SoftLock lock) {
-        region.remove(key);
+        region.unlock(key, lock);
     }
 }
@@ -22,6 +22,9 @@ import org.hibernate.cfg.Settings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
+import java.util.Map;
+
 /**
  * AbstractRedisAccessStrategy
  *
@@ -43,6 +46,17 @@ abstract class AbstractRedisAccessStrategy<T extends RedisTransactionalDataRegio
         return settings;
     }
 
+    /**
+     * Attempt to retrieve multiple objects from the cache in one round trip.
+     *
+     * @param keys        cache keys of the items to retrieve
+     * @param txTimestamp a timestamp prior to the transaction start time
+     * @return map of the keys and the cached objects which were found
+     */
+    public Map<Object, Object> getAll(Collection<?> keys, long txTimestamp) {
+        return region.getAll(keys);
+    }
+
     public final boolean putFromLoad(Object key,
                                      Object value,
                                      long txTimestamp,
@@ -57,19 +71,19 @@ abstract class AbstractRedisAccessStrategy<T extends RedisTransactionalDataRegio
                                         boolean minimalPutOverride);
 
     /**
-     * Region locks are not supported
+     * Soft lock the region before a bulk update, so cache items are read as missing and not put until it is released.
      */
     public final SoftLock lockRegion() {
-        return null;
+        return region.lockRegion();
     }
 
     /**
-     * Region locks are not supported - perform a cache clear as a precaution.
+     * Release the region lock, deleting the items which were put while it was held.
      *
      * @param lock soft lock instance
      */
     public final void unlockRegion(SoftLock lock) {
-        region.clear();
+        region.unlockRegion(lock);
     }
 
     /**
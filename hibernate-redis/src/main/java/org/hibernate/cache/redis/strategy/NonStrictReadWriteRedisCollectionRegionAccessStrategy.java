@@ -54,11 +54,7 @@ public class NonStrictReadWriteRedisCollectionRegionAccessStrategy
                                long txTimestamp,
                                Object version,
                                boolean minimalPutOverride) {
-        if (minimalPutOverride && region.contains(key)) {
-            return false;
-        }
-        region.put(key, value);
-        return true;
+        return region.putFromLoad(key, value, version, minimalPutOverride);
     }
 
     @Override
@@ -68,11 +64,11 @@ public class NonStrictReadWriteRedisCollectionRegionAccessStrategy
 
     @Override
     public void unlockItem(Object key, SoftLock lock) {
-        region.remove(key);
+        region.invalidate(key);
     }
 
     @Override
     public void remove(Object key) {
-        region.remove(key);
+        region.invalidate(key);
     }
 }
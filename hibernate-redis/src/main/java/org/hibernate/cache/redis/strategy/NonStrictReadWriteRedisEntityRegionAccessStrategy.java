@@ -52,12 +52,7 @@ public class NonStrictReadWriteRedisEntityRegionAccessStrategy
                                long txTimestamp,
                                Object version,
                                boolean minimalPutOverride) {
-        if (minimalPutOverride && region.contains(key)) {
-            return false;
-        }
-        region.put(key, value);
-        return true;
-
+        return region.putFromLoad(key, value, version, minimalPutOverride);
     }
 
     @Override
@@ -67,7 +62,7 @@ public class NonStrictReadWriteRedisEntityRegionAccessStrategy
 
     @Override
     public void unlockItem(Object key, SoftLock lock) {
-        region.remove(key);
+        region.invalidate(key);
     }
 
     @Override
@@ -101,6 +96,6 @@ public class NonStrictReadWriteRedisEntityRegionAccessStrategy
 
     @Override
     public void remove(Object key) {
-        region.remove(key);
+        region.invalidate(key);
     }
 }
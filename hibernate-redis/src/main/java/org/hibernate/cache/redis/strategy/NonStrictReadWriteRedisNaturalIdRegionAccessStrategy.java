@@ -59,11 +59,7 @@ public class NonStrictReadWriteRedisNaturalIdRegionAccessStrategy
                                long txTimestamp,
                                Object version,
                                boolean minimalPutOverride) {
-        if (minimalPutOverride && region.contains(key)) {
-            return false;
-        }
-        region.put(key, value);
-        return true;
+        return region.putFromLoad(key, value, version, minimalPutOverride);
     }
 
     @Override
@@ -73,7 +69,7 @@ public class NonStrictReadWriteRedisNaturalIdRegionAccessStrategy
 
     @Override
     public void unlockItem(Object key, SoftLock lock) {
-        region.remove(key);
+        region.invalidate(key);
     }
 
     @Override
@@ -101,6 +97,6 @@ public class NonStrictReadWriteRedisNaturalIdRegionAccessStrategy
     @Override
     public void remove(Object key) {
         log.trace("remove cache item... key=[{}]", key);
-        region.remove(key);
+        region.invalidate(key);
     }
 }
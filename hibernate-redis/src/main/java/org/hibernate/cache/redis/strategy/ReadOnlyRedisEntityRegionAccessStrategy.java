@@ -52,11 +52,7 @@ public class ReadOnlyRedisEntityRegionAccessStrategy
                                long txTimestamp,
                                Object version,
                                boolean minimalPutOverride) {
-        if (minimalPutOverride && region.contains(key)) {
-            return false;
-        }
-        region.put(key, value);
-        return true;
+        return region.putFromLoad(key, value, version, minimalPutOverride);
     }
 
     @Override
@@ -44,25 +44,28 @@ public class ReadWriteRedisEntityRegionAccessStrategy
         return region;
     }
 
+    /**
+     * The item is put after the transaction completes, by {@link #afterInsert}.
+     */
     @Override
     public boolean insert(Object key, Object value, Object version) {
-        region.put(key, value);
-        return true;
+        return false;
     }
 
     @Override
     public boolean afterInsert(Object key, Object value, Object version) {
-        region.put(key, value);
-        return true;
+        return region.putFromLoad(key, value, region.nextTimestamp(), version, true);
     }
 
+    /**
+     * The item is put after the transaction completes, by {@link #afterUpdate}.
+     */
     @Override
     public boolean update(Object key,
                           Object value,
                           Object currentVersion,
                           Object previousVersion) {
-        region.put(key, value);
-        return true;
+        return false;
     }
 
     @Override
@@ -71,7 +74,6 @@ public class ReadWriteRedisEntityRegionAccessStrategy
                                Object currentVersion,
                                Object previousVersion,
                                SoftLock lock) {
-        region.put(key, value);
-        return true;
+        return region.unlockAndPut(key, value, lock);
     }
 }
@@ -44,27 +44,29 @@ public class ReadWriteRedisNaturalIdRegionAccessStrategy
         return region;
     }
 
+    /**
+     * The item is put after the transaction completes, by {@link #afterInsert}.
+     */
     @Override
     public boolean insert(Object key, Object value) {
-        region.put(key, value);
-        return true;
+        return false;
     }
 
     @Override
     public boolean afterInsert(Object key, Object value) {
-        region.put(key, value);
-        return true;
+        return region.putFromLoad(key, value, region.nextTimestamp(), null, true);
     }
 
+    /**
+     * The item is put after the transaction completes, by {@link #afterUpdate}.
+     */
     @Override
     public boolean update(Object key, Object value) {
-        region.put(key, value);
-        return true;
+        return false;
     }
 
     @Override
     public boolean afterUpdate(Object key, Object value, SoftLock lock) {
-        region.put(key, value);
-        return true;
+        return region.unlockAndPut(key, value, lock);
     }
 }
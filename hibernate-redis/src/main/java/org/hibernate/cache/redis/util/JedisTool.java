@@ -17,6 +17,13 @@
 package org.hibernate.cache.redis.util;
 
 import org.hibernate.cache.redis.jedis.JedisClient;
+import org.hibernate.cache.redis.serializer.AdaptiveRedisSerializer;
+import org.hibernate.cache.redis.serializer.ConfigurableRedisSerializer;
+import org.hibernate.cache.redis.serializer.FstClassRegistry;
+import org.hibernate.cache.redis.serializer.FstRedisSerializer;
+import org.hibernate.cache.redis.serializer.RedisSerializer;
+import org.hibernate.cache.redis.serializer.SerializationTool;
+import org.hibernate.cache.redis.serializer.ZstdRedisSerializer;
 import org.hibernate.cache.redis.timestamper.JedisCacheTimestamper;
 import org.hibernate.cache.redis.timestamper.JedisCacheTimestamperJvmImpl;
 import org.hibernate.cfg.Environment;
@@ -30,8 +37,13 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
@@ -47,6 +59,40 @@ public final class JedisTool {
     private static final String EXPIRY_PROPERTY_PREFIX = EXPIRE_IN_SECONDS + ".";
     private static final String FILE_URL_PREFIX = "file:";
     public static final String TIMESTAMPER_PROPERTY_KEY = "redis.timestamper.class";
+    public static final String TRACK_DEPENDENCIES_PROPERTY_KEY = "redis.query.trackDependencies";
+    public static final String QUERY_PREFETCH_PROPERTY_KEY = "redis.query.prefetch";
+    public static final String PREFETCH_COLLECTIONS_PROPERTY_KEY = "redis.prefetch.collections";
+    public static final String SERIALIZER_PROPERTY_KEY = "redis.serializer";
+    public static final String FST_CLASS_REGISTRY_PROPERTY_KEY = "redis.fst.classRegistry";
+    public static final String PARALLEL_THRESHOLD_PROPERTY_KEY = "redis.deserialize.parallelThreshold";
+    public static final String ENVELOPE_PROPERTY_KEY = "redis.envelope";
+    public static final String ENVELOPE_CODECS_PROPERTY_KEY = "redis.envelope.codecs";
+    public static final String DEFERRED_INVALIDATION_PROPERTY_KEY = "redis.invalidation.deferred";
+    public static final String INVALIDATION_DELAY_PROPERTY_KEY = "redis.invalidation.delayMillis";
+    public static final String SKIP_UNCHANGED_WRITES_PROPERTY_KEY = "redis.write.skipUnchanged";
+    public static final String WRITE_DIGESTS_PROPERTY_KEY = "redis.write.digestCacheSize";
+    public static final int DEFAULT_WRITE_DIGESTS = 10000;
+    public static final String PROPERTY_HASH_PROPERTY_KEY = "redis.entity.propertyHash";
+    public static final String AGGREGATE_PROPERTY_KEY = "redis.aggregate";
+    public static final String SINGLE_FLIGHT_PROPERTY_KEY = "redis.miss.singleFlight";
+    public static final String MISS_WAIT_PROPERTY_KEY = "redis.miss.waitMillis";
+    public static final long DEFAULT_MISS_WAIT_MILLIS = 200;
+    public static final String EXPIRY_JITTER_PROPERTY_KEY = "redis.expiry.jitter";
+    public static final String EARLY_RELOAD_PROPERTY_KEY = "redis.expiry.earlyReloadMillis";
+    public static final String EARLY_BETA_PROPERTY_KEY = "redis.expiry.earlyBeta";
+    public static final String MAX_ENTRIES_PROPERTY_KEY = "redis.eviction.maxEntries";
+    public static final String EVICTION_POLICY_PROPERTY_KEY = "redis.eviction.policy";
+    public static final String LFU_DECAY_PROPERTY_KEY = "redis.eviction.lfuDecayMillis";
+    public static final String EVICTION_STEP_PROPERTY_KEY = "redis.eviction.step";
+    public static final long DEFAULT_LFU_DECAY_MILLIS = 60 * 60 * 1000L;
+    public static final int DEFAULT_EVICTION_STEP = 16;
+    public static final String LEASE_PROPERTY_KEY = "redis.query.lease";
+    public static final String LEASE_MILLIS_PROPERTY_KEY = "redis.query.leaseMillis";
+    public static final String LEASE_WAIT_PROPERTY_KEY = "redis.query.leaseWaitMillis";
+    public static final long DEFAULT_LEASE_MILLIS = 5000;
+    public static final long DEFAULT_LEASE_WAIT_MILLIS = 1000;
+    private static final String DEFAULT_SERIALIZER_NAME = "SnappyRedisSerializer";
+    private static final String SERIALIZER_PACKAGE = RedisSerializer.class.getPackage().getName() + ".";
     public static final Class<?> DEFAULT_TIMESTAMPER_CLASS = JedisCacheTimestamperJvmImpl.class;
     private static final Logger log = LoggerFactory.getLogger(JedisTool.class);
 
@@ -58,13 +104,186 @@ public final class JedisTool {
     public static JedisClient createJedisClient(Properties props) {
         log.info("Creating JedisClient.");
 
-        return new JedisClient(createJedisPool(props), getDefaultExpireInSeconds(props));
+        JedisClient jedisClient = new JedisClient(createJedisPool(props), getDefaultExpireInSeconds(props));
+        if (isLeaseEnabled(props)) {
+            jedisClient.setSubscriptionPool(createJedisPool(props, createSubscriptionPoolConfig()));
+        }
+        String serializer = (props != null) ? props.getProperty(SERIALIZER_PROPERTY_KEY) : null;
+        if (serializer != null) {
+            jedisClient.setValueSerializer(createValueSerializer(serializer, props));
+        }
+        if (props != null && Boolean.parseBoolean(props.getProperty(FST_CLASS_REGISTRY_PROPERTY_KEY, "false"))) {
+            FstRedisSerializer.setClassRegistry(new FstClassRegistry(createClassStore(jedisClient),
+                                                                     FstRedisSerializer.getConf().getClassLoader()));
+        }
+        if (props != null) {
+            jedisClient.setEnvelope(Boolean.parseBoolean(props.getProperty(ENVELOPE_PROPERTY_KEY, "false")));
+            setCodecs(jedisClient, (serializer != null) ? serializer : DEFAULT_SERIALIZER_NAME, props);
+        }
+        if (props != null && props.getProperty(PARALLEL_THRESHOLD_PROPERTY_KEY) != null) {
+            SerializationTool.setParallelThreshold(Integer.decode(props.getProperty(PARALLEL_THRESHOLD_PROPERTY_KEY).trim()));
+        }
+        return jedisClient;
+    }
+
+    /**
+     * register the codecs of {@code redis.envelope.codecs}, separated by {@code ;}, by their position (from 1).
+     * The default value serializer is registered as the codec of the same serializer chain.
+     */
+    private static void setCodecs(final JedisClient jedisClient, final String serializerNames, final Properties props) {
+        List<String> codecNames = getCodecNames(props);
+        String defaultName = normalizeSerializerNames(serializerNames);
+        for (int i = 0; i < codecNames.size(); i++) {
+            RedisSerializer<Object> codec = codecNames.get(i).equals(defaultName)
+                                            ? jedisClient.getValueSerializer(null)
+                                            : createValueSerializer(codecNames.get(i), props);
+            jedisClient.setCodec(i + 1, codec);
+        }
+    }
+
+    private static List<String> getCodecNames(final Properties props) {
+        String codecs = (props != null) ? props.getProperty(ENVELOPE_CODECS_PROPERTY_KEY) : null;
+        if (codecs == null || codecs.trim().isEmpty())
+            return Collections.emptyList();
+
+        List<String> codecNames = new ArrayList<String>();
+        for (String codec : codecs.split(";")) {
+            codecNames.add(normalizeSerializerNames(codec));
+        }
+        return codecNames;
+    }
+
+    private static String normalizeSerializerNames(final String serializerNames) {
+        StringBuilder builder = new StringBuilder();
+        for (String name : serializerNames.split(",")) {
+            name = name.trim();
+            if (name.startsWith(SERIALIZER_PACKAGE)) {
+                name = name.substring(SERIALIZER_PACKAGE.length());
+            }
+            builder.append((builder.length() > 0) ? "," : "").append(name);
+        }
+        return builder.toString();
+    }
+
+    private static FstClassRegistry.ClassStore createClassStore(final JedisClient redis) {
+        return new FstClassRegistry.ClassStore() {
+            @Override
+            public List<String> load() {
+                return redis.getClassNames();
+            }
+
+            @Override
+            public void add(Collection<String> classNames) {
+                redis.addClassNames(classNames);
+            }
+        };
+    }
+
+    /**
+     * create the value serializer configured by {@code redis.serializer} or {@code redis.serializer.<region>}.
+     * <p/>
+     * The value is a serializer class name (the package may be omitted for the built-in serializers),
+     * or a comma separated chain in which each serializer wraps the next one,
+     * e.g. {@code SnappyRedisSerializer,BinaryRedisSerializer}.
+     * {@link ConfigurableRedisSerializer}s are configured by the specified properties.
+     *
+     * @param serializerNames serializer class name or chain of class names
+     * @param props           cache properties
+     * @return value serializer
+     */
+    @SuppressWarnings("unchecked")
+    public static RedisSerializer<Object> createValueSerializer(final String serializerNames, final Properties props) {
+        String[] names = serializerNames.split(",");
+        try {
+            RedisSerializer<Object> serializer = null;
+            for (int i = names.length - 1; i >= 0; i--) {
+                Class<?> clazz = getSerializerClass(names[i].trim());
+                serializer = (serializer == null)
+                             ? (RedisSerializer<Object>) clazz.newInstance()
+                             : (RedisSerializer<Object>) clazz.getConstructor(RedisSerializer.class).newInstance(serializer);
+                if (serializer instanceof ConfigurableRedisSerializer) {
+                    ((ConfigurableRedisSerializer) serializer).configure(props);
+                }
+            }
+            log.info("Created value serializer. serializer=[{}]", serializerNames);
+            return serializer;
+        } catch (Exception e) {
+            throw new IllegalStateException("Fail to create value serializer. serializer=" + serializerNames, e);
+        }
+    }
+
+    /**
+     * create the value serializer of the specified region configured by {@code redis.serializer.<region>}.
+     * <p/>
+     * Serializers keeping state per region ({@link ZstdRedisSerializer}, {@link AdaptiveRedisSerializer})
+     * also get an instance per region when they are configured by {@code redis.serializer},
+     * and zstd serializers are bound to the dictionaries of the region.
+     *
+     * @param redis      JedisClient instance
+     * @param regionName region name
+     * @param props      cache properties
+     * @return value serializer of the region, or null if the region uses the default value serializer
+     */
+    @SuppressWarnings("unchecked")
+    public static RedisSerializer<Object> createRegionValueSerializer(final JedisClient redis,
+                                                                      final String regionName,
+                                                                      final Properties props) {
+        String serializerNames = props.getProperty(SERIALIZER_PROPERTY_KEY + "." + regionName);
+        RedisSerializer<Object> defaultSerializer = redis.getValueSerializer(null);
+        if (serializerNames == null
+                && (defaultSerializer instanceof ZstdRedisSerializer || defaultSerializer instanceof AdaptiveRedisSerializer)) {
+            serializerNames = props.getProperty(SERIALIZER_PROPERTY_KEY);
+        }
+        if (serializerNames == null)
+            return null;
+
+        RedisSerializer<Object> serializer = createValueSerializer(serializerNames, props);
+        int codecId = getCodecNames(props).indexOf(normalizeSerializerNames(serializerNames)) + 1;
+        if (codecId > 0) {
+            redis.setCodec(codecId, serializer);
+        }
+        if (serializer instanceof ZstdRedisSerializer) {
+            ((ZstdRedisSerializer<Object>) serializer).bind(createDictionaryStore(redis, regionName));
+        } else if (serializer instanceof AdaptiveRedisSerializer) {
+            for (RedisSerializer<Object> codec : ((AdaptiveRedisSerializer<Object>) serializer).getSerializers()) {
+                if (codec instanceof ZstdRedisSerializer) {
+                    ((ZstdRedisSerializer<Object>) codec).bind(createDictionaryStore(redis, regionName));
+                }
+            }
+        }
+        return serializer;
+    }
+
+    private static ZstdRedisSerializer.DictionaryStore createDictionaryStore(final JedisClient redis,
+                                                                             final String regionName) {
+        return new ZstdRedisSerializer.DictionaryStore() {
+            @Override
+            public Map<Integer, byte[]> load() {
+                return redis.getDictionaries(regionName);
+            }
+
+            @Override
+            public int save(byte[] dictionary) {
+                return redis.addDictionary(regionName, dictionary);
+            }
+        };
+    }
+
+    private static Class<?> getSerializerClass(final String name) throws ClassNotFoundException {
+        if (name.indexOf('.') < 0) {
+            return Class.forName(SERIALIZER_PACKAGE + name);
+        }
+        return Class.forName(name);
     }
 
     /**
      * create {@link redis.clients.util.Pool<Jedis>} instance.
      */
     public static Pool<Jedis> createJedisPool(Properties props) {
+        return createJedisPool(props, createJedisPoolConfig());
+    }
+
+    private static Pool<Jedis> createJedisPool(Properties props, JedisPoolConfig jedisPoolConfig) {
 
         String host = props.getProperty("redis.host", "localhost");
         Integer port = Integer.decode(props.getProperty("redis.port", String.valueOf(Protocol.DEFAULT_PORT)));
@@ -75,8 +294,6 @@ public final class JedisTool {
         Set<String> sentinels = sentinelsString != null ? new HashSet<String>(Arrays.asList(sentinelsString.split(","))) : null;
         String masterName = props.getProperty("redis.masterName", null);
 
-        JedisPoolConfig jedisPoolConfig = createJedisPoolConfig();
-
         Pool<Jedis> pool;
         if (sentinels != null && !sentinels.isEmpty() && masterName != null) {
             log.info("Creating JedisSentinelPool. masterName=[{}], sentinels=[{}], timeout=[{}], database=[{}]",
@@ -116,6 +333,17 @@ public final class JedisTool {
         return poolConfig;
     }
 
+    /**
+     * config of the pool of the connection held by the lease subscription, so that it does not take one of the commands
+     */
+    private static JedisPoolConfig createSubscriptionPoolConfig() {
+        JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxTotal(1);
+        poolConfig.setMaxIdle(1);
+        poolConfig.setMinIdle(0);
+        return poolConfig;
+    }
+
     public static Properties loadCacheProperties(final Properties props) {
         Properties cacheProps = new Properties();
         cacheProps.putAll(props); // start with the properties we got
@@ -177,4 +405,69 @@ public final class JedisTool {
 
         return Integer.decode(props.getProperty(EXPIRE_IN_SECONDS, String.valueOf(JedisClient.DEFAULT_EXPIRY_IN_SECONDS)));
     }
+
+    /**
+     * Get the value of a region specific property, falling back to the global one.
+     * <p/>
+     * e.g. {@code redis.query.trackDependencies.hibernate.common} overrides {@code redis.query.trackDependencies}
+     *
+     * @param props        properties containing the settings
+     * @param key          global property key
+     * @param regionName   region name defined at Entity
+     * @param defaultValue value to use if neither the region specific nor the global property is defined
+     * @return property value
+     */
+    public static String getRegionProperty(final Properties props,
+                                           final String key,
+                                           final String regionName,
+                                           final String defaultValue) {
+        if (props == null)
+            return defaultValue;
+        String value = props.getProperty(key + "." + regionName);
+        return (value != null) ? value.trim() : props.getProperty(key, defaultValue);
+    }
+
+    /**
+     * Get the boolean value of a region specific property, falling back to the global one.
+     */
+    public static boolean getRegionBooleanProperty(final Properties props,
+                                                   final String key,
+                                                   final String regionName,
+                                                   final boolean defaultValue) {
+        return Boolean.parseBoolean(getRegionProperty(props, key, regionName, String.valueOf(defaultValue)).trim());
+    }
+
+    /**
+     * Whether any region defers its non-strict read/write invalidations until the transaction completes.
+     * The session listener flushing the invalidations is only installed when this returns true.
+     *
+     * @param props properties containing the settings
+     * @return true if deferred invalidation is enabled globally or for at least one region
+     */
+    public static boolean isDeferredInvalidationEnabled(final Properties props) {
+        return isEnabledForAnyRegion(props, DEFERRED_INVALIDATION_PROPERTY_KEY);
+    }
+
+    /**
+     * Whether any query results region takes miss leases.
+     * The connection pool of the lease subscription is only created when this returns true.
+     *
+     * @param props properties containing the settings
+     * @return true if miss leases are enabled globally or for at least one region
+     */
+    public static boolean isLeaseEnabled(final Properties props) {
+        return isEnabledForAnyRegion(props, LEASE_PROPERTY_KEY);
+    }
+
+    private static boolean isEnabledForAnyRegion(final Properties props, final String key) {
+        if (props == null)
+            return false;
+        for (String name : props.stringPropertyNames()) {
+            if ((name.equals(key) || name.startsWith(key + "."))
+                    && Boolean.parseBoolean(props.getProperty(name).trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
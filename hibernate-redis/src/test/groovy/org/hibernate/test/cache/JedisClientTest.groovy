@@ -17,11 +17,17 @@
 package org.hibernate.test.cache
 
 import org.hibernate.cache.redis.jedis.JedisClient
+import org.hibernate.cache.redis.util.JedisTool
+import org.hibernate.cache.redis.serializer.BinaryRedisSerializer
+import org.hibernate.cache.redis.serializer.CacheEntryRedisSerializer
 import org.hibernate.cache.redis.serializer.SnappyRedisSerializer
 import org.hibernate.cache.redis.serializer.StringRedisSerializer
+import org.hibernate.cache.redis.serializer.ValueEnvelope
+import org.hibernate.cache.spi.entry.StandardCacheEntryImpl
 import redis.clients.jedis.Client
 import redis.clients.jedis.Jedis
 import redis.clients.jedis.JedisPool
+import redis.clients.jedis.JedisPoolConfig
 import redis.clients.jedis.Transaction
 
 import spock.lang.*
@@ -125,6 +131,22 @@ class JedisClientTest extends Specification {
         values.size() == keys.size()
     }
 
+    void 'mget with expiration'() {
+        given:
+        def keys = (0..9).toList()
+        keys.each { i ->
+            client.set(JedisClient.DEFAULT_REGION_NAME, i, i, 60)
+        }
+        client.set(JedisClient.DEFAULT_REGION_NAME, 'expired', 'expired', 1)
+        Thread.sleep(1500)
+
+        when:
+        List<Object> values = client.mget(JedisClient.DEFAULT_REGION_NAME, keys + ['expired', 'missing'], 60)
+
+        then:
+        values == keys + [null, null]
+    }
+
     void 'mdel'() {
         given:
         def keys = (0..99).toList()
@@ -147,6 +169,168 @@ class JedisClientTest extends Specification {
         }
     }
 
+    void 'mdel of several regions'() {
+        given:
+        def keys = (0..9).toList()
+        ['region1', 'region2', 'region3'].each { region ->
+            keys.each { i -> client.set(region, i, i, 100) }
+        }
+
+        when:
+        client.mdel([region1: keys, region2: keys.subList(0, 5), region3: []])
+
+        then:
+        !keys.any { i -> client.get('region1', i) }
+        keys.collect { i -> client.get('region2', i) } == [null] * 5 + (5..9).toList()
+        keys.collect { i -> client.get('region3', i) } == keys
+    }
+
+    void 'region locks'() {
+        given:
+        def region = 'regionLock'
+        client.deleteRegion(region)
+        (0..9).each { i -> client.set(region, i, i, 100) }
+
+        when:
+        client.lockRegion(region, 10000)
+
+        then:
+        client.get(region, 1) == null
+        !client.setIfAbsentOrNewer(region, 1, 'loaded', null, false, 100)
+        client.get(region, 1) == null
+
+        when: 'a concurrent bulk update locks the region too'
+        client.lockRegion(region, 10000)
+        client.set(region, 2, 'put', 100)
+
+        then: 'values are not put while the region is locked'
+        client.get(region, 2) == null
+        !client.unlockRegion(region)
+        !client.setIfAbsentOrNewer(region, 1, 'loaded', null, false, 100)
+
+        and:
+        client.unlockRegion(region)
+        client.get(region, 2) == null
+        client.setIfAbsentOrNewer(region, 1, 'loaded', null, false, 100)
+        client.get(region, 1) == 'loaded'
+
+        when:
+        while (client.reclaimRetiredRegions() > 0) {}
+
+        then:
+        keys('x:*').isEmpty()
+    }
+
+    void 'timed out region locks'() {
+        given:
+        def region = 'regionLock'
+        client.deleteRegion(region)
+
+        when:
+        client.lockRegion(region, 50)
+        Thread.sleep(100)
+
+        then:
+        client.setIfAbsentOrNewer(region, 1, 'loaded', null, false, 100)
+        client.get(region, 1) == 'loaded'
+        client.unlockRegion(region)
+        client.get(region, 1) == null
+    }
+
+    void 'unchanged writes'() {
+        given:
+        def region = 'unchangedWrites'
+        client.setEnvelope(true)
+        client.setWriteDigests(region, 100)
+        client.set(region, 'key', 'value', 100)
+        def hsets = commandCalls('hset')
+
+        when: 'written again later, with another expiration time in the envelope'
+        Thread.sleep(5)
+        client.set(region, 'key', 'value', 100)
+        client.set(region, 'key', 'value', 100)
+
+        then: 'only the expiration is updated'
+        commandCalls('hset') == hsets
+        client.get(region, 'key') == 'value'
+
+        when: 'the value is changed by another client'
+        hset(region, 'key', 'changed'.bytes)
+        client.set(region, 'key', 'value', 100)
+
+        then:
+        client.get(region, 'key') == 'value'
+
+        when:
+        client.set(region, 'key', 'other', 100)
+
+        then: 'the change and the two values are written'
+        commandCalls('hset') == hsets + 3
+        client.get(region, 'key') == 'other'
+
+        cleanup:
+        client.setWriteDigests(region, 0)
+    }
+
+    void 'entries stored by properties'() {
+        given:
+        def region = 'propertyHashes'
+        client.setPropertyHashes(region, 100)
+        client.set(region, 'key', CacheEntryRedisSerializer.newCacheEntry(['a', 'b', 'c'] as Serializable[], 'Foo', false, 1), 100)
+        def hsets = commandCalls('hset')
+
+        when:
+        client.set(region, 'key', CacheEntryRedisSerializer.newCacheEntry(['a', 'B', 'c'] as Serializable[], 'Foo', false, 2), 100)
+
+        then: 'only the changed property and the entry field are written'
+        commandCalls('hset') == hsets + 2
+        keys("p:${region}:*") == ["p:${region}:key"] as Set
+
+        when: 'read by another client'
+        client.setPropertyHashes(region, 0)
+        client.setPropertyHashes(region, 100)
+        StandardCacheEntryImpl entry = client.get(region, 'key')
+
+        then:
+        entry.disassembledState as List == ['a', 'B', 'c']
+        entry.subclass == 'Foo'
+        entry.version == 2
+        client.mget(region, ['key', 'none']).first().disassembledState as List == ['a', 'B', 'c']
+
+        when: 'the entry is replaced by another client'
+        hset(region, 'key', 'changed'.bytes)
+        client.set(region, 'key', CacheEntryRedisSerializer.newCacheEntry(['a', 'B', 'C'] as Serializable[], 'Foo', false, 3), 100)
+
+        then: 'all properties are written'
+        client.get(region, 'key').disassembledState as List == ['a', 'B', 'C']
+
+        when:
+        client.del(region, 'key')
+
+        then: 'the properties hash is deleted with the entry'
+        client.get(region, 'key') == null
+        keys("p:${region}:*").isEmpty()
+
+        when:
+        ['key', 'other'].each {
+            client.set(region, it, CacheEntryRedisSerializer.newCacheEntry(['a'] as Serializable[], 'Foo', false, 1), 100)
+        }
+        client.lock(region, 'key', System.currentTimeMillis(), 10000, 1L)
+
+        then: 'and when the entry is locked'
+        keys("p:${region}:*") == ["p:${region}:other"] as Set
+
+        when:
+        client.mdel(region, ['other'])
+
+        then:
+        keys("p:${region}:*").isEmpty()
+
+        cleanup:
+        client.setPropertyHashes(region, 0)
+        client.deleteRegion(region)
+    }
+
     void 'keys in region'() {
         given:
         client.flushDb()
@@ -169,6 +353,206 @@ class JedisClientTest extends Specification {
         keysInRegion.size() == 0
     }
 
+    void 'region value serializer'() {
+        given:
+        client.setValueSerializer("binary", JedisTool.createValueSerializer("BinaryRedisSerializer", null))
+
+        when:
+        client.set("binary", "key", "value", -1)
+        client.set(JedisClient.DEFAULT_REGION_NAME, "key", "value", -1)
+
+        then:
+        client.getValueSerializer("binary") instanceof BinaryRedisSerializer
+        client.getValueSerializer(JedisClient.DEFAULT_REGION_NAME) instanceof SnappyRedisSerializer
+        client.get("binary", "key") == "value"
+        client.mget("binary", ["key"]) == ["value"]
+        client.get(JedisClient.DEFAULT_REGION_NAME, "key") == "value"
+    }
+
+    void 'value serializer chain'() {
+        when:
+        def serializer = JedisTool.createValueSerializer("SnappyRedisSerializer, BinaryRedisSerializer", null)
+
+        then:
+        serializer instanceof SnappyRedisSerializer
+        serializer.deserialize(serializer.serialize([1, 2, 3])) == [1, 2, 3]
+    }
+
+    void 'value envelope'() {
+        given:
+        def snappy = JedisTool.createValueSerializer("SnappyRedisSerializer", null)
+        def binary = JedisTool.createValueSerializer("BinaryRedisSerializer", null)
+        client.setValueSerializer("items", snappy)
+        client.setCodec(1, snappy)
+        client.setCodec(2, binary)
+        client.set("items", "legacy", "legacy value", 60)
+
+        when:
+        client.setEnvelope(true)
+        client.set("items", "old", "old value", 60)
+        byte[] raw = hget("items", "old")
+
+        then:
+        ValueEnvelope.isEnvelope(raw)
+        ValueEnvelope.getCodecId(raw) == 1
+        ValueEnvelope.isCompressed(raw)
+        ValueEnvelope.getExpiration(raw) > System.currentTimeMillis()
+        ValueEnvelope.getVersion(raw) == null
+        ValueEnvelope.getVersion(ValueEnvelope.serialize(snappy, 1, [_version: 3L, name: 'item'], 0L)) == 3L
+        !ValueEnvelope.isEnvelope(hget("items", "legacy"))
+        client.get("items", "legacy", 60) == "legacy value"
+        client.mget("items", ["legacy", "old"]) == ["legacy value", "old value"]
+
+        when: 'switch the serializer of the region without flushing it'
+        client.setValueSerializer("items", binary)
+        client.set("items", "new", "new value", 60)
+
+        then:
+        ValueEnvelope.getCodecId(hget("items", "new")) == 2
+        client.get("items", "new", 60) == "new value"
+        client.get("items", "old", 60) == "old value"
+        client.mget("items", ["old", "new"]) == ["old value", "new value"]
+    }
+
+    void 'soft locks'() {
+        given:
+        long now = System.currentTimeMillis()
+        client.set("items", "item", "old", 60)
+
+        when: 'locked items are missing, and loaded values are not put'
+        String lockId = client.lock("items", "item", now, now + 60000, 1L)
+
+        then:
+        client.get("items", "item", 60) == null
+        client.mget("items", ["item"]) == [null]
+        !client.setIfWriteable("items", "item", "loaded", now, 2L, false, 60)
+
+        when: 'values loaded before the unlock are stale'
+        client.unlock("items", "item", lockId, now + 10, now + 60000)
+
+        then:
+        !client.setIfWriteable("items", "item", "stale", now + 5, null, false, 60)
+        client.setIfWriteable("items", "item", "loaded", now + 20, null, false, 60)
+        client.get("items", "item", 60) == "loaded"
+
+        when: 'the value of an update is set when the lock is released, unless it was locked concurrently'
+        lockId = client.lock("items", "item", now, now + 60000, null)
+        String concurrentLockId = client.lock("items", "item", now, now + 60000, null)
+
+        then:
+        concurrentLockId == lockId
+        !client.unlockAndSet("items", "item", lockId, "first", now, now + 60000, 60)
+        !client.unlockAndSet("items", "item", lockId, "second", now, now + 60000, 60)
+        client.get("items", "item", 60) == null
+
+        when:
+        client.del("items", "item")
+        lockId = client.lock("items", "item", now, now + 60000, null)
+
+        then:
+        client.unlockAndSet("items", "item", lockId, "updated", now, now + 60000, 60)
+        client.get("items", "item", 60) == "updated"
+        !client.setIfWriteable("items", "item", "loaded", now, null, true, 60)
+    }
+
+    void 'versioned puts from load'() {
+        given:
+        client.setEnvelope(true)
+        long now = System.currentTimeMillis()
+
+        expect: 'the version of the cached value is read from its envelope'
+        client.setIfWriteable("items", "item", [_version: 3L], now, 3L, false, 60)
+        !client.setIfWriteable("items", "item", [_version: 3L], now, 3L, false, 60)
+        !client.setIfWriteable("items", "item", [_version: 2L], now, 2L, false, 60)
+        client.setIfWriteable("items", "item", [_version: 4L], now, 4L, false, 60)
+        client.get("items", "item", 60) == [_version: 4L]
+        !client.setIfWriteable("items", "item", [_version: 5L], now, 5L, true, 60)
+    }
+
+    void 'conditional puts from load'() {
+        given:
+        client.setEnvelope(true)
+
+        expect: 'minimal puts set absent items only'
+        client.setIfAbsentOrNewer("items", "a", "first", null, true, 60)
+        !client.setIfAbsentOrNewer("items", "a", "second", null, true, 60)
+        client.get("items", "a", 60) == "first"
+
+        and: 'other puts do not replace the same or a newer version'
+        client.setIfAbsentOrNewer("items", "b", [_version: 2L], 2L, false, 60)
+        !client.setIfAbsentOrNewer("items", "b", [_version: 1L], 1L, false, 60)
+        !client.setIfAbsentOrNewer("items", "b", [_version: 2L], 2L, false, 60)
+        client.setIfAbsentOrNewer("items", "b", [_version: 3L], 3L, false, 60)
+        client.setIfAbsentOrNewer("items", "b", "unversioned", null, false, 60)
+        client.get("items", "b", 60) == "unversioned"
+    }
+
+    void 'timed out soft locks'() {
+        given:
+        long now = System.currentTimeMillis()
+        String lockId = client.lock("items", "item", now, now + 100, null)
+
+        expect: 'loads after the timeout are put, and a late unlock keeps stale values out'
+        client.setIfWriteable("items", "item", "loaded", now + 200, null, false, 60)
+        !client.unlockAndSet("items", "item", lockId, "late", now + 300, now + 60000, 60)
+        client.get("items", "item", 60) == null
+        !client.setIfWriteable("items", "item", "stale", now + 400, null, false, 60)
+    }
+
+    void 'compression dictionaries'() {
+        when:
+        int v1 = client.addDictionary("items", [1, 2, 3] as byte[])
+        int v2 = client.addDictionary("items", [4, 5] as byte[])
+        Map<Integer, byte[]> dictionaries = client.getDictionaries("items")
+
+        then:
+        v1 == 1
+        v2 == 2
+        dictionaries.keySet() == [1, 2] as Set
+        dictionaries[2] == [4, 5] as byte[]
+        client.getDictionaries("unknown").isEmpty()
+    }
+
+    void 'fst class names'() {
+        when:
+        client.addClassNames(["a.A", "b.B"])
+        client.addClassNames(["c.C"])
+
+        then:
+        client.getClassNames() == ["a.A", "b.B", "c.C"]
+    }
+
+    void 'delete dependents'() {
+        given:
+        client.set("queries", "q1", [1, 2], -1)
+        client.set("queries", "q2", [2, 3], -1)
+        client.addDependents("queries", "q1", ["item#1", "item#2"], 60)
+        client.addDependents("queries", "q2", ["item#2", "item#3"], 60)
+
+        when:
+        int count = client.delDependents("item#1")
+
+        then:
+        count == 1
+        client.get("queries", "q1") == null
+        client.get("queries", "q2") == [2, 3]
+
+        when:
+        count = client.delDependents("item#2")
+
+        then:
+        count == 2
+        client.get("queries", "q2") == null
+    }
+
+    void 'region timestamps'() {
+        when:
+        client.setRegionTimestamp("items", 1000L)
+
+        then:
+        client.getRegionTimestamps(["items", "unknown"]) == [1000L, null]
+    }
+
     void 'nextTimestamp with no existing value'() {
         given:
         long currentMillis = System.currentTimeMillis()
@@ -223,6 +607,250 @@ class JedisClientTest extends Specification {
         nextTimestamp == 1000L
     }
 
+    void 'expiry jitter'() {
+        given:
+        String region = 'jitter-region'
+        client.deleteRegion(region)
+        client.setExpiryJitter(region, 0.5)
+        long now = System.currentTimeMillis()
+
+        when:
+        (1..20).each { client.set(region, "key-$it", "value-$it", 100) }
+        def scores = (1..20).collect { zscore("z:$region", "key-$it") }
+
+        then:
+        scores.every { it >= now + 50000 && it <= System.currentTimeMillis() + 100000 }
+        scores.unique(false).size() > 1
+
+        when: 'read again together'
+        client.mget(region, (1..20).collect { "key-$it" }, 100)
+        scores = (1..20).collect { zscore("z:$region", "key-$it") }
+
+        then: 'the expiration time is refreshed with jitter too'
+        scores.unique(false).size() > 1
+
+        cleanup:
+        client.setExpiryJitter(region, 0)
+        client.deleteRegion(region)
+    }
+
+    void 'early expiration'() {
+        given:
+        String region = 'early-region'
+        client.deleteRegion(region)
+        client.set(region, 'soon', 'value', 1)
+        client.set(region, 'later', 'value', 100)
+
+        when:
+        client.setEarlyExpiration(region, 100000000, 1.0)
+
+        then:
+        client.get(region, 'soon', 1) == null
+        !client.exists(region, 'soon')
+
+        when: 'read by multiple get'
+        client.set(region, 'soon', 'value', 1)
+
+        then:
+        client.mget(region, ['soon'], 1) == [null]
+        !client.exists(region, 'soon')
+
+        when:
+        client.setEarlyExpiration(region, 1, 1.0)
+
+        then:
+        client.get(region, 'later', 100) == 'value'
+        client.mget(region, ['later'], 100) == ['value']
+
+        cleanup:
+        client.setEarlyExpiration(region, 0, 1.0)
+        client.deleteRegion(region)
+    }
+
+    void 'bounded region evicts least recently used items'() {
+        given:
+        String region = 'lru-region'
+        client.deleteRegion(region)
+        client.setEvictionPolicy(region, 5, 0, 16)
+
+        when:
+        (1..5).each {
+            client.set(region, "key-$it", "value-$it", 100)
+            Thread.sleep(2)
+        }
+        client.get(region, 'key-1', 100)
+        Thread.sleep(2)
+        client.set(region, 'key-6', 'value-6', 100)
+
+        then:
+        client.keySizeInRegion(region) == 5
+        client.exists(region, 'key-1')
+        !client.exists(region, 'key-2')
+        keys("a:$region").size() == 1
+
+        when:
+        client.deleteRegion(region)
+
+        then:
+        keys("a:$region").isEmpty()
+
+        cleanup:
+        client.setEvictionPolicy(region, 0, 0, 0)
+        client.deleteRegion(region)
+    }
+
+    void 'bounded region evicts least frequently used items'() {
+        given:
+        String region = 'lfu-region'
+        client.deleteRegion(region)
+        client.setEvictionPolicy(region, 3, 3600000, 16)
+
+        when:
+        ['a', 'b', 'c'].each { client.set(region, it, it, 100) }
+        3.times { client.get(region, 'a', 100) }
+        client.get(region, 'c', 100)
+        client.set(region, 'd', 'd', 100)
+
+        then:
+        client.keySizeInRegion(region) == 3
+        !client.exists(region, 'b')
+        ['a', 'c', 'd'].every { client.exists(region, it) }
+
+        cleanup:
+        client.setEvictionPolicy(region, 0, 0, 0)
+        client.deleteRegion(region)
+    }
+
+    void 'bounded region tracks access in the scripts reading and writing its items'() {
+        given:
+        String region = 'tracked-region'
+        client.deleteRegion(region)
+        client.setEvictionPolicy(region, 2, 0, 16)
+        client.setPropertyHashes(region, 100)
+        def scripts = { commandCalls('evalsha') + commandCalls('eval') }
+
+        when:
+        def calls = 0
+        2.times {
+            calls = scripts()
+            client.set(region, 'a', CacheEntryRedisSerializer.newCacheEntry([it] as Serializable[], 'Foo', false, it), 100)
+            client.set(region, 'b', 'b', 100)
+            client.get(region, 'b', 100)
+        }
+
+        then: 'one script call for each set, the get reads the properties then tracks the access and expiration'
+        scripts() == calls + 2 + 2
+        keys("p:${region}:*") == ["p:${region}:a"] as Set
+
+        when:
+        Thread.sleep(2)
+        client.set(region, 'c', 'c', 100)
+
+        then: 'the properties hash of the evicted item is deleted'
+        !client.exists(region, 'a')
+        keys("p:${region}:*").isEmpty()
+
+        when: 'an item expires'
+        client.set(region, 'd', 'd', 1)
+        Thread.sleep(1100)
+
+        then:
+        client.get(region, 'd', 1) == null
+        zscore("a:$region", 'd') == null
+
+        when: 'an item is picked for early expiration'
+        client.setEarlyExpiration(region, 100000000, 1.0)
+
+        then:
+        client.get(region, 'c', 1) == null
+        zscore("a:$region", 'c') == null
+
+        cleanup:
+        client.setEarlyExpiration(region, 0, 1.0)
+        client.setPropertyHashes(region, 0)
+        client.setEvictionPolicy(region, 0, 0, 0)
+        client.deleteRegion(region)
+    }
+
+    void 'query miss leases'() {
+        given:
+        String region = 'lease-region'
+        JedisPool subscriptionPool = new JedisPool(new JedisPoolConfig(maxTotal: 1), "localhost")
+        client.setSubscriptionPool(subscriptionPool)
+        client.releaseLease(region, 'q1')
+
+        expect:
+        client.tryLease(region, 'q1', 5000)
+        !client.tryLease(region, 'q1', 5000)
+        !client.awaitLease(region, 'q1', 100)
+
+        when:
+        Thread.start {
+            Thread.sleep(200)
+            client.releaseLease(region, 'q1')
+        }
+        long started = System.currentTimeMillis()
+        boolean released = client.awaitLease(region, 'q1', 5000)
+
+        then:
+        released
+        System.currentTimeMillis() - started < 5000
+        client.tryLease(region, 'q1', 5000)
+
+        and: 'the subscription holds the connection of its own pool'
+        subscriptionPool.internalPool.numActive == 1
+
+        cleanup:
+        client.releaseLease(region, 'q1')
+        client.destroy()
+    }
+
+    private Double zscore(String zkey, String key) {
+        Jedis jedis = client.jedisPool.resource
+        try {
+            return jedis.zscore(zkey.getBytes("UTF-8"), key.getBytes("UTF-8"))
+        } finally {
+            client.jedisPool.returnResource(jedis)
+        }
+    }
+
+    private void hset(String region, String key, byte[] value) {
+        Jedis jedis = client.jedisPool.resource
+        try {
+            jedis.hset(region.getBytes("UTF-8"), key.getBytes("UTF-8"), value)
+        } finally {
+            client.jedisPool.returnResource(jedis)
+        }
+    }
+
+    private long commandCalls(String command) {
+        Jedis jedis = client.jedisPool.resource
+        try {
+            def stats = jedis.info('commandstats').readLines().find { it.startsWith("cmdstat_${command}:") }
+            return stats ? (stats =~ /calls=(\d+)/)[0][1] as long : 0L
+        } finally {
+            client.jedisPool.returnResource(jedis)
+        }
+    }
+
+    private Set<String> keys(String pattern) {
+        Jedis jedis = client.jedisPool.resource
+        try {
+            return jedis.keys(pattern)
+        } finally {
+            client.jedisPool.returnResource(jedis)
+        }
+    }
+
+    private byte[] hget(String region, String key) {
+        Jedis jedis = client.jedisPool.resource
+        try {
+            return jedis.hget(region.getBytes("UTF-8"), key.getBytes("UTF-8"))
+        } finally {
+            client.jedisPool.returnResource(jedis)
+        }
+    }
+
     private void setTimestamp(String cacheKey, long timestamp) {
         JedisPool pool = new JedisPool("localhost")
         Jedis jedis = pool.getResource()
@@ -62,11 +62,15 @@ public class HibernateRedisConfiguration {
 
     @Bean
     public DataSource dataSource() {
+        return createDataSource("test");
+    }
+
+    protected DataSource createDataSource(String databaseName) {
 
         HikariConfig config = new HikariConfig();
 
         config.setDriverClassName("org.h2.Driver");
-        config.setJdbcUrl("jdbc:h2:mem:test;MVCC=true;");
+        config.setJdbcUrl("jdbc:h2:mem:" + databaseName + ";MVCC=true;");
         config.setUsername("sa");
         config.setPassword("");
 
@@ -89,6 +93,28 @@ public class HibernateRedisConfiguration {
         return factoryBean.getObject();
     }
 
+    /**
+     * Build another session factory with its own database and cache regions, for tests which need other cache settings.
+     * The caller must close it.
+     *
+     * @param name       database name and cache region prefix
+     * @param properties hibernate properties overriding the default ones
+     */
+    public SessionFactory createSessionFactory(String name, Properties properties) throws IOException {
+        Properties props = hibernateProperties();
+        props.put(Environment.CACHE_REGION_PREFIX, name);
+        props.putAll(properties);
+
+        LocalSessionFactoryBean factoryBean = new LocalSessionFactoryBean();
+        factoryBean.setPackagesToScan(getMappedPackageNames());
+        factoryBean.setDataSource(createDataSource(name));
+        factoryBean.setHibernateProperties(props);
+
+        factoryBean.afterPropertiesSet();
+
+        return factoryBean.getObject();
+    }
+
     @Bean
     public PlatformTransactionManager transactionManager() throws IOException {
         return new HibernateTransactionManager(sessionFactory());
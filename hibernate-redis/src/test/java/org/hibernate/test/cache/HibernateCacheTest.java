@@ -1,21 +1,54 @@
 package org.hibernate.test.cache;
 
+import org.hibernate.Hibernate;
 import org.hibernate.Query;
 import org.hibernate.Session;
+import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
+import org.hibernate.cache.redis.RedisInvalidationSessionListener;
+import org.hibernate.cache.redis.RedisQueryCacheFactory;
+import org.hibernate.cache.redis.regions.RedisAggregateRegion;
+import org.hibernate.cache.redis.regions.RedisEntityRegion;
+import org.hibernate.cache.redis.regions.RedisInvalidationBatch;
+import org.hibernate.cache.redis.regions.RedisQueryResultsRegion;
+import org.hibernate.cache.redis.serializer.CacheEntryRedisSerializer;
+import org.hibernate.cache.redis.serializer.SnappyRedisSerializer;
 import org.hibernate.cache.redis.util.HibernateCacheUtil;
+import org.hibernate.cache.spi.CacheKey;
+import org.hibernate.cache.spi.entry.StandardCacheEntryImpl;
+import org.hibernate.cfg.Environment;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
 import org.hibernate.stat.SecondLevelCacheStatistics;
 import org.hibernate.stat.Statistics;
 import org.hibernate.test.AbstractHibernateTest;
+import org.hibernate.test.HibernateRedisConfiguration;
 import org.hibernate.test.domain.Account;
 import org.hibernate.test.domain.Item;
+import org.hibernate.test.domain.ItemGroup;
 import org.hibernate.test.domain.Person;
+import org.hibernate.test.domain.VersionedItem;
 import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-
+import org.springframework.beans.factory.annotation.Autowired;
+import redis.clients.jedis.Jedis;
+import redis.clients.util.Pool;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.fest.assertions.Assertions.assertThat;
 
@@ -29,6 +62,9 @@ import static org.fest.assertions.Assertions.assertThat;
 public class HibernateCacheTest extends AbstractHibernateTest {
     private static final Logger log = LoggerFactory.getLogger(HibernateCacheTest.class);
 
+    @Autowired
+    private HibernateRedisConfiguration configuration;
+
     @Before
     public void before() {
         sessionFactory.getStatistics().setStatisticsEnabled(true);
@@ -146,6 +182,123 @@ public class HibernateCacheTest extends AbstractHibernateTest {
         // assertThat(slcs.getElementCountInMemory()).isEqualTo(1);
     }
 
+    @Test
+    public void batchLoadFromCache() throws Exception {
+        sessionFactory.getCache().evictEntityRegion(Item.class);
+
+        Session session = sessionFactory.openSession();
+        Transaction tx = session.beginTransaction();
+        List<Long> ids = new ArrayList<Long>();
+        for (int i = 0; i < 25; i++) {
+            Item item = new Item();
+            item.setName("batch-" + i);
+            session.save(item);
+            ids.add(item.getId());
+        }
+        tx.commit();
+        session.close();
+
+        // load from database by batch, and put into the cache
+        session = sessionFactory.openSession();
+        List<Item> items = new ArrayList<Item>();
+        for (Long id : ids) {
+            items.add((Item) session.load(Item.class, id));
+        }
+        for (Item item : items) {
+            Hibernate.initialize(item);
+        }
+        session.close();
+
+        // load from cache
+        Statistics stats = sessionFactory.getStatistics();
+        stats.clear();
+
+        session = sessionFactory.openSession();
+        items.clear();
+        for (Long id : ids) {
+            items.add((Item) session.load(Item.class, id));
+        }
+        for (int i = 0; i < items.size(); i++) {
+            assertThat(items.get(i).getName()).isEqualTo("batch-" + i);
+        }
+        session.close();
+
+        assertThat(stats.getSecondLevelCacheHitCount()).isEqualTo(ids.size());
+        assertThat(stats.getPrepareStatementCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void prefetchedEntriesEndWithTransaction() throws Exception {
+        sessionFactory.getCache().evictEntityRegion(Item.class);
+
+        Session session = sessionFactory.openSession();
+        Transaction tx = session.beginTransaction();
+        final List<Long> ids = new ArrayList<Long>();
+        for (int i = 0; i < 5; i++) {
+            Item item = new Item();
+            item.setName("prefetch-" + i);
+            session.save(item);
+            ids.add(item.getId());
+        }
+        tx.commit();
+        session.close();
+
+        session = sessionFactory.openSession();
+        tx = session.beginTransaction();
+        List<Item> items = new ArrayList<Item>();
+        for (Long id : ids) {
+            items.add((Item) session.load(Item.class, id));
+        }
+        for (Item item : items) {
+            Hibernate.initialize(item);
+        }
+        tx.commit();
+        session.close();
+
+        // the first proxy reads the whole batch ahead
+        session = sessionFactory.openSession();
+        tx = session.beginTransaction();
+        items.clear();
+        for (Long id : ids) {
+            items.add((Item) session.load(Item.class, id));
+        }
+        Hibernate.initialize(items.get(0));
+        tx.commit();
+
+        // updated by another session, on another thread
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    Session other = sessionFactory.openSession();
+                    Transaction otherTx = other.beginTransaction();
+                    Item item = (Item) other.get(Item.class, ids.get(4));
+                    item.setName("updated");
+                    otherTx.commit();
+                    other.close();
+                    return null;
+                }
+            }).get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+
+        // the items read ahead were dropped when the transaction completed
+        tx = session.beginTransaction();
+        assertThat(items.get(4).getName()).isEqualTo("updated");
+        tx.commit();
+        session.close();
+
+        session = sessionFactory.openSession();
+        tx = session.beginTransaction();
+        for (Long id : ids) {
+            session.delete(session.get(Item.class, id));
+        }
+        tx.commit();
+        session.close();
+    }
+
     @Test
     public void hqlLoad() throws Exception {
         sessionFactory.getCache().evictEntityRegion(Item.class);
@@ -190,6 +343,268 @@ public class HibernateCacheTest extends AbstractHibernateTest {
         session.close();
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void trackedQueryCaching() throws Exception {
+        Properties props = new Properties();
+        props.put(Environment.QUERY_CACHE_FACTORY, RedisQueryCacheFactory.class.getName());
+        props.put("redis.query.trackDependencies", "true");
+        SessionFactory factory = configuration.createSessionFactory("tracking", props);
+        try {
+            factory.getCache().evictEntityRegions();
+            factory.getCache().evictQueryRegions();
+
+            Session session = factory.openSession();
+            Transaction tx = session.beginTransaction();
+            List<Long> ids = new ArrayList<Long>();
+            for (int i = 0; i < 3; i++) {
+                Item item = new Item();
+                item.setName("tracked-" + i);
+                session.save(item);
+                ids.add(item.getId());
+            }
+            tx.commit();
+            session.close();
+
+            String hql = "select e from Item e where e.name like 'tracked-%' order by e.id";
+            for (int i = 0; i < 2; i++) {
+                session = factory.openSession();
+                assertThat(session.createQuery(hql).setCacheable(true).list()).hasSize(3);
+                session.close();
+            }
+
+            Statistics stats = factory.getStatistics();
+            stats.setStatisticsEnabled(true);
+            stats.clear();
+            session = factory.openSession();
+            assertThat(session.createQuery(hql).setCacheable(true).list()).hasSize(3);
+            session.close();
+            assertThat(stats.getQueryCacheHitCount()).isEqualTo(1);
+
+            // updating an entity of the result evicts it
+            session = factory.openSession();
+            tx = session.beginTransaction();
+            ((Item) session.get(Item.class, ids.get(1))).setName("tracked-updated");
+            tx.commit();
+            session.close();
+
+            stats.clear();
+            session = factory.openSession();
+            List<Item> items = session.createQuery(hql).setCacheable(true).list();
+            session.close();
+            assertThat(stats.getQueryCacheHitCount()).isEqualTo(0);
+            assertThat(items.get(1).getName()).isEqualTo("tracked-updated");
+
+            // results read before an entity was invalidated are not put
+            SessionFactoryImplementor factoryImplementor = (SessionFactoryImplementor) factory;
+            RedisQueryResultsRegion queryRegion =
+                    (RedisQueryResultsRegion) factoryImplementor.getQueryCache().getRegion();
+            EntityPersister persister = factoryImplementor.getEntityPersister(Item.class.getName());
+            RedisEntityRegion entityRegion = (RedisEntityRegion) persister.getCacheAccessStrategy().getRegion();
+            Object entityKey = new CacheKey(ids.get(0), persister.getIdentifierType(), persister.getRootEntityName(),
+                                            null, factoryImplementor);
+            Set<String> dependencies = Collections.singleton(entityRegion.getDependencyKey(entityKey));
+            List<Object> cacheable = new ArrayList<Object>();
+            cacheable.add(ids.get(0));
+
+            long timestamp = queryRegion.nextTimestamp();
+            entityRegion.invalidateDependents(entityKey);
+            assertThat(queryRegion.putDependent("tracked", cacheable, dependencies, timestamp)).isFalse();
+            assertThat(queryRegion.get("tracked")).isNull();
+
+            Thread.sleep(10);
+            assertThat(queryRegion.putDependent("tracked", cacheable, dependencies, queryRegion.nextTimestamp())).isTrue();
+            entityRegion.invalidateDependents(entityKey);
+            assertThat(queryRegion.get("tracked")).isNull();
+
+            // the dependents of a batch of entities are deleted at once
+            Thread.sleep(10);
+            Object otherKey = new CacheKey(ids.get(2), persister.getIdentifierType(), persister.getRootEntityName(),
+                                           null, factoryImplementor);
+            assertThat(queryRegion.putDependent("tracked", cacheable, dependencies, queryRegion.nextTimestamp())).isTrue();
+            entityRegion.invalidateDependents(Arrays.asList(otherKey, entityKey));
+            assertThat(queryRegion.get("tracked")).isNull();
+
+            // entity regions which don't track dependencies skip the dependent invalidation
+            RedisEntityRegion untracked = (RedisEntityRegion) ((SessionFactoryImplementor) sessionFactory)
+                    .getEntityPersister(Item.class.getName()).getCacheAccessStrategy().getRegion();
+            assertThat(entityRegion.hasDependents()).isTrue();
+            assertThat(untracked.hasDependents()).isFalse();
+        } finally {
+            factory.close();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void queryCachePrefetch() throws Exception {
+        Properties props = new Properties();
+        props.put(Environment.QUERY_CACHE_FACTORY, RedisQueryCacheFactory.class.getName());
+        props.put("redis.query.prefetch.prefetch.noPrefetch", "false");
+        SessionFactory factory = configuration.createSessionFactory("prefetch", props);
+        try {
+            factory.getCache().evictEntityRegions();
+            factory.getCache().evictQueryRegions();
+
+            Session session = factory.openSession();
+            Transaction tx = session.beginTransaction();
+            for (int i = 0; i < 5; i++) {
+                Person person = new Person();
+                person.setFirstname("prefetch-" + i);
+                person.setAge(i);
+                session.save(person);
+            }
+            tx.commit();
+            session.close();
+
+            String hql = "select p from Person p where p.firstname like 'prefetch-%' order by p.age";
+            for (String cacheRegion : new String[] { null, "noPrefetch" }) {
+                for (int i = 0; i < 2; i++) {
+                    session = factory.openSession();
+                    assertThat(session.createQuery(hql).setCacheable(true).setCacheRegion(cacheRegion).list()).hasSize(5);
+                    session.close();
+                }
+            }
+
+            Pool<Jedis> pool = ((RedisQueryResultsRegion) ((SessionFactoryImplementor) factory).getQueryCache().getRegion())
+                    .getRedis().getJedisPool();
+            Statistics stats = factory.getStatistics();
+            stats.setStatisticsEnabled(true);
+            stats.clear();
+
+            // the cached persons are fetched with one HMGET on a query cache hit
+            long hmgets = commandCalls(pool, "hmget");
+            session = factory.openSession();
+            List<Person> prefetched = session.createQuery(hql).setCacheable(true).list();
+            List<String> names = new ArrayList<String>();
+            for (Person person : prefetched) {
+                names.add(person.getFirstname());
+            }
+            session.close();
+            assertThat(commandCalls(pool, "hmget")).isEqualTo(hmgets + 1);
+            assertThat(stats.getQueryCacheHitCount()).isEqualTo(1);
+            assertThat(stats.getPrepareStatementCount()).isEqualTo(0);
+
+            // same result, one request per person
+            hmgets = commandCalls(pool, "hmget");
+            session = factory.openSession();
+            List<Person> fetched = session.createQuery(hql).setCacheable(true).setCacheRegion("noPrefetch").list();
+            List<String> fetchedNames = new ArrayList<String>();
+            for (Person person : fetched) {
+                fetchedNames.add(person.getFirstname());
+            }
+            session.close();
+            assertThat(commandCalls(pool, "hmget")).isEqualTo(hmgets);
+            assertThat(stats.getQueryCacheHitCount()).isEqualTo(2);
+            assertThat(stats.getPrepareStatementCount()).isEqualTo(0);
+
+            assertThat(prefetched).isEqualTo(fetched);
+            assertThat(names).isEqualTo(fetchedNames);
+            assertThat(names).containsExactly("prefetch-0", "prefetch-1", "prefetch-2", "prefetch-3", "prefetch-4");
+        } finally {
+            factory.close();
+        }
+    }
+
+    @Test
+    public void collectionPrefetch() throws Exception {
+        Properties props = new Properties();
+        props.put("redis.prefetch.collections.org.hibernate.test.domain.Person.emailAddresses", "true");
+        final SessionFactory factory = configuration.createSessionFactory("collections", props);
+        try {
+            factory.getCache().evictEntityRegions();
+            factory.getCache().evictCollectionRegions();
+
+            Session session = factory.openSession();
+            Transaction tx = session.beginTransaction();
+            final Person person = new Person();
+            person.setFirstname("Prefetch");
+            person.getEmailAddresses().add("first@prefetch.org");
+            person.getEmailAddresses().add("second@prefetch.org");
+            session.save(person);
+            tx.commit();
+            session.close();
+
+            // the collection is not put by a session started in the millisecond it was unlocked
+            Thread.sleep(10);
+
+            session = factory.openSession();
+            Hibernate.initialize(((Person) session.get(Person.class, person.getId())).getEmailAddresses());
+            session.close();
+
+            Pool<Jedis> pool = ((RedisEntityRegion) ((SessionFactoryImplementor) factory)
+                    .getEntityPersister(Person.class.getName()).getCacheAccessStrategy().getRegion())
+                    .getRedis().getJedisPool();
+            Statistics stats = factory.getStatistics();
+            stats.setStatisticsEnabled(true);
+            stats.clear();
+
+            // the person and its collection are read in one pipeline, one HMGET per region
+            long hmgets = commandCalls(pool, "hmget");
+            long hgets = commandCalls(pool, "hget");
+            session = factory.openSession();
+            tx = session.beginTransaction();
+            Person loaded = (Person) session.get(Person.class, person.getId());
+            assertThat(loaded.getEmailAddresses()).containsOnly("first@prefetch.org", "second@prefetch.org");
+            tx.commit();
+            session.close();
+            assertThat(commandCalls(pool, "hmget")).isEqualTo(hmgets + 2);
+            assertThat(commandCalls(pool, "hget")).isEqualTo(hgets);
+            assertThat(stats.getCollectionLoadCount()).isEqualTo(0);
+            assertThat(stats.getPrepareStatementCount()).isEqualTo(0);
+
+            // the collection prefetched in a transaction is not served after another session updated it
+            session = factory.openSession();
+            tx = session.beginTransaction();
+            loaded = (Person) session.get(Person.class, person.getId());
+            tx.commit();
+
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        Session other = factory.openSession();
+                        Transaction otherTx = other.beginTransaction();
+                        ((Person) other.get(Person.class, person.getId())).getEmailAddresses().add("third@prefetch.org");
+                        otherTx.commit();
+                        other.close();
+                        return null;
+                    }
+                }).get(5, TimeUnit.SECONDS);
+            } finally {
+                executor.shutdown();
+            }
+
+            tx = session.beginTransaction();
+            assertThat(loaded.getEmailAddresses()).containsOnly("first@prefetch.org", "second@prefetch.org",
+                                                                "third@prefetch.org");
+            tx.commit();
+            session.close();
+
+            // and prefetched again once it is cached
+            Thread.sleep(10);
+            session = factory.openSession();
+            Hibernate.initialize(((Person) session.get(Person.class, person.getId())).getEmailAddresses());
+            session.close();
+
+            stats.clear();
+            hmgets = commandCalls(pool, "hmget");
+            hgets = commandCalls(pool, "hget");
+            session = factory.openSession();
+            tx = session.beginTransaction();
+            loaded = (Person) session.get(Person.class, person.getId());
+            assertThat(loaded.getEmailAddresses()).hasSize(3);
+            tx.commit();
+            session.close();
+            assertThat(commandCalls(pool, "hmget")).isEqualTo(hmgets + 2);
+            assertThat(commandCalls(pool, "hget")).isEqualTo(hgets);
+            assertThat(stats.getCollectionLoadCount()).isEqualTo(0);
+        } finally {
+            factory.close();
+        }
+    }
+
     @Test
     public void nonrestrictCaching() {
         sessionFactory.getCache().evictEntityRegion(Account.class);
@@ -242,6 +657,173 @@ public class HibernateCacheTest extends AbstractHibernateTest {
         assertThat(slcs2.getElementCountInMemory()).isEqualTo(1);
     }
 
+    @Test
+    public void aggregateCaching() throws Exception {
+        Properties props = new Properties();
+        props.put("redis.aggregate.aggregate.itemGroup", "items");
+        SessionFactory factory = configuration.createSessionFactory("aggregate", props);
+        try {
+            factory.getCache().evictEntityRegions();
+            factory.getCache().evictCollectionRegions();
+
+            Session session = factory.openSession();
+            Transaction tx = session.beginTransaction();
+            ItemGroup group = new ItemGroup();
+            group.setName("Aggregate");
+            for (int i = 0; i < 3; i++) {
+                Item item = new Item();
+                item.setName("Member " + i);
+                group.getItems().add(item);
+            }
+            session.save(group);
+            tx.commit();
+            session.close();
+
+            EntityPersister persister = ((SessionFactoryImplementor) factory).getEntityPersister(ItemGroup.class.getName());
+            RedisAggregateRegion aggregate = ((RedisEntityRegion) persister.getCacheAccessStrategy().getRegion()).getAggregateRegion();
+            assertThat(aggregate).isNotNull();
+
+            // the collection is not put by a session started in the millisecond it was unlocked
+            Thread.sleep(10);
+
+            // cache the group, its items and the collection, then assemble the aggregate
+            for (int i = 0; i < 2; i++) {
+                session = factory.openSession();
+                Hibernate.initialize(((ItemGroup) session.get(ItemGroup.class, group.getId())).getItems());
+                session.close();
+            }
+            Object key = ((SessionImplementor) session).generateCacheKey(group.getId(), persister.getIdentifierType(),
+                                                                         persister.getRootEntityName());
+            assertThat(aggregate.contains(key)).isTrue();
+
+            Statistics stats = factory.getStatistics();
+            stats.setStatisticsEnabled(true);
+            stats.clear();
+            session = factory.openSession();
+            ItemGroup loaded = (ItemGroup) session.get(ItemGroup.class, group.getId());
+            assertThat(loaded.getItems()).hasSize(3);
+            for (Item item : loaded.getItems()) {
+                assertThat(item.getName()).startsWith("Member");
+            }
+            session.close();
+            assertThat(stats.getEntityLoadCount()).isEqualTo(0);
+            assertThat(stats.getCollectionLoadCount()).isEqualTo(0);
+
+            // updating a member invalidates the aggregate
+            session = factory.openSession();
+            tx = session.beginTransaction();
+            Item member = ((ItemGroup) session.get(ItemGroup.class, group.getId())).getItems().iterator().next();
+            member.setName("Updated");
+            tx.commit();
+            session.close();
+            assertThat(aggregate.contains(key)).isFalse();
+
+            session = factory.openSession();
+            Item updated = (Item) session.get(Item.class, member.getId());
+            assertThat(updated.getName()).isEqualTo("Updated");
+            session.close();
+        } finally {
+            factory.close();
+        }
+    }
+
+    @Test
+    public void singleFlightMiss() throws Exception {
+        Properties props = new Properties();
+        props.put("redis.miss.singleFlight.misses.itemGroup", "true");
+        SessionFactory factory = configuration.createSessionFactory("misses", props);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            EntityPersister persister = ((SessionFactoryImplementor) factory).getEntityPersister(ItemGroup.class.getName());
+            final RedisEntityRegion region = (RedisEntityRegion) persister.getCacheAccessStrategy().getRegion();
+            final Object key = "singleFlight#" + System.nanoTime();
+            final Object other = "singleFlight#other" + System.nanoTime();
+
+            // this thread loads the missing item, the concurrent miss waits for it
+            assertThat(region.get(key)).isNull();
+            Future<Object> waiting = executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return region.get(key);
+                }
+            });
+            Thread.sleep(50);
+            assertThat(waiting.isDone()).isFalse();
+            region.putFromLoad(key, "loaded", region.nextTimestamp(), null, false);
+            assertThat(waiting.get(1, TimeUnit.SECONDS)).isEqualTo("loaded");
+
+            // the wait is bounded when the item is never put
+            assertThat(region.get(other)).isNull();
+            long start = System.currentTimeMillis();
+            Future<Object> timedOut = executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return region.get(other);
+                }
+            });
+            assertThat(timedOut.get(1, TimeUnit.SECONDS)).isNull();
+            assertThat(System.currentTimeMillis() - start).isGreaterThanOrEqualTo(100);
+
+            region.remove(key);
+        } finally {
+            executor.shutdown();
+            factory.close();
+        }
+    }
+
+    @Test
+    public void deferredInvalidation() throws Exception {
+        Properties props = new Properties();
+        props.put("redis.invalidation.deferred.deferred.account", "true");
+        SessionFactory factory = configuration.createSessionFactory("deferred", props);
+        try {
+            // the session listener flushing the invalidations is only installed when a region defers them
+            assertThat(((SessionFactoryImplementor) factory).getSettings().getBaselineSessionEventsListenerBuilder()
+                                                              .getAutoListener())
+                    .isEqualTo(RedisInvalidationSessionListener.class);
+            assertThat(((SessionFactoryImplementor) sessionFactory).getSettings().getBaselineSessionEventsListenerBuilder()
+                                                                    .getAutoListener())
+                    .isNull();
+            factory.getCache().evictEntityRegions();
+
+            Session session = factory.openSession();
+            Transaction tx = session.beginTransaction();
+            Person person = new Person();
+            person.setFirstname("Deferred");
+            session.save(person);
+            Person other = new Person();
+            other.setFirstname("Other");
+            session.save(other);
+            Account account = new Account();
+            account.setPerson(person);
+            session.save(account);
+            tx.commit();
+            session.close();
+
+            session = factory.openSession();
+            session.get(Account.class, account.getId());
+            session.close();
+            assertThat(factory.getCache().containsEntity(Account.class, account.getId())).isTrue();
+
+            session = factory.openSession();
+            tx = session.beginTransaction();
+            Account acc = (Account) session.get(Account.class, account.getId());
+            acc.setPerson(other);
+            session.flush();
+
+            // invalidated once the transaction completes
+            assertThat(RedisInvalidationBatch.isPending()).isTrue();
+            assertThat(factory.getCache().containsEntity(Account.class, account.getId())).isTrue();
+
+            tx.commit();
+            assertThat(RedisInvalidationBatch.isPending()).isFalse();
+            assertThat(factory.getCache().containsEntity(Account.class, account.getId())).isFalse();
+            session.close();
+        } finally {
+            factory.close();
+        }
+    }
+
     @Test
     @SuppressWarnings("unchecked")
     public void massiveCaching() {
@@ -299,4 +881,68 @@ public class HibernateCacheTest extends AbstractHibernateTest {
         session.flush();
         session.close();
     }
+
+    @Test
+    public void cacheEntryRecord() throws Exception {
+        Session session = sessionFactory.openSession();
+        Transaction tx = session.beginTransaction();
+        Person person = new Person();
+        person.setAge(40);
+        person.setFirstname("Sunghyouk");
+        person.setLastname("Bae");
+        session.save(person);
+        VersionedItem item = new VersionedItem();
+        item.setName("record");
+        session.save(item);
+        tx.commit();
+        session.close();
+
+        CacheEntryRedisSerializer<Object> serializer = new CacheEntryRedisSerializer<Object>();
+        SnappyRedisSerializer<Object> snappy = new SnappyRedisSerializer<Object>();
+
+        for (Object[] entity : new Object[][] { { Person.class, person.getId() }, { VersionedItem.class, item.getId() } }) {
+            StandardCacheEntryImpl entry = getCacheEntry((Class<?>) entity[0], (Serializable) entity[1]);
+            assertThat(entry).isNotNull();
+
+            byte[] record = serializer.serialize(entry);
+            assertThat(record.length).isLessThan(snappy.serialize(entry).length);
+
+            StandardCacheEntryImpl decoded = (StandardCacheEntryImpl) serializer.deserialize(record);
+            assertThat(decoded.getSubclass()).isEqualTo(entry.getSubclass());
+            assertThat(decoded.getVersion()).isEqualTo(entry.getVersion());
+            assertThat(decoded.getDisassembledState()).isEqualTo(entry.getDisassembledState());
+        }
+    }
+
+    private static long commandCalls(Pool<Jedis> pool, String command) {
+        Jedis jedis = pool.getResource();
+        try {
+            for (String line : jedis.info("commandstats").split("\r?\n")) {
+                if (line.startsWith("cmdstat_" + command + ":calls=")) {
+                    return Long.parseLong(line.substring(line.indexOf('=') + 1, line.indexOf(',')));
+                }
+            }
+            return 0L;
+        } finally {
+            pool.returnResource(jedis);
+        }
+    }
+
+    private StandardCacheEntryImpl getCacheEntry(Class<?> entityClass, Serializable id) {
+        sessionFactory.getCache().evictEntity(entityClass, id);
+        Session session = sessionFactory.openSession();
+        try {
+            session.get(entityClass, id);
+            EntityPersister persister = ((SessionFactoryImplementor) sessionFactory).getEntityPersister(entityClass.getName());
+            RedisEntityRegion region = (RedisEntityRegion) persister.getCacheAccessStrategy().getRegion();
+            Object cached = region.get(((SessionImplementor) session).generateCacheKey(id,
+                                                                                       persister.getIdentifierType(),
+                                                                                       persister.getRootEntityName()));
+            // structured entries are destructured into the standard cache entry
+            return (StandardCacheEntryImpl) persister.getCacheEntryStructure()
+                                                     .destructure(cached, (SessionFactoryImplementor) sessionFactory);
+        } finally {
+            session.close();
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package org.hibernate.test.cache;
 
+import org.hibernate.cache.redis.util.JedisTool;
 import org.junit.Test;
 import org.slf4j.Logger;
 
@@ -45,4 +46,14 @@ public class PropertiesTest {
             log.warn("Cache용 환경설정 정보를 로드하는데 실패했습니다. cachePath=" + cachePath, e);
         }
     }
+
+    @Test
+    public void leaseEnabledByRegion() {
+        Properties props = new Properties();
+        props.setProperty(JedisTool.LEASE_MILLIS_PROPERTY_KEY, "true");
+        assertThat(JedisTool.isLeaseEnabled(props)).isFalse();
+
+        props.setProperty(JedisTool.LEASE_PROPERTY_KEY + ".hibernate.queries", "true");
+        assertThat(JedisTool.isLeaseEnabled(props)).isTrue();
+    }
 }
@@ -1,5 +1,6 @@
 package org.hibernate.test.domain;
 
+import org.hibernate.annotations.BatchSize;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.Entity;
@@ -15,6 +16,7 @@ import java.io.Serializable;
  */
 @Entity
 @org.hibernate.annotations.Cache(region = "common", usage = CacheConcurrencyStrategy.READ_WRITE)
+@BatchSize(size = 10)
 public class Item implements Serializable {
 
     @Id
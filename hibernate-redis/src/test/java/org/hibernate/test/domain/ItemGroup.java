@@ -0,0 +1,53 @@
+package org.hibernate.test.domain;
+
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * org.hibernate.test.domain.ItemGroup
+ */
+@Entity
+@org.hibernate.annotations.Cache(region = "itemGroup", usage = CacheConcurrencyStrategy.READ_WRITE)
+public class ItemGroup implements Serializable {
+
+    private static final long serialVersionUID = -2460371328307946186L;
+
+    @Id
+    @GeneratedValue
+    private Long id;
+
+    private String name;
+
+    @OneToMany(cascade = CascadeType.ALL)
+    @JoinColumn(name = "GroupId")
+    @org.hibernate.annotations.Cache(region = "itemGroup", usage = CacheConcurrencyStrategy.READ_WRITE)
+    private Set<Item> items = new HashSet<Item>();
+
+    public Long getId() {
+        return this.id;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public Set<Item> getItems() {
+        return this.items;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public void setItems(Set<Item> items) {
+        this.items = items;
+    }
+}
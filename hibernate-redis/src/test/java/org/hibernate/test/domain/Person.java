@@ -35,6 +35,7 @@ public class Person implements Serializable {
     @CollectionTable(name = "EmailAddressSet", joinColumns = @JoinColumn(name = "PersonId"))
     @ElementCollection(targetClass = String.class)
     @org.hibernate.annotations.Cascade(org.hibernate.annotations.CascadeType.ALL)
+    @org.hibernate.annotations.Cache(region = "emailAddresses", usage = CacheConcurrencyStrategy.READ_WRITE)
     private Set<String> emailAddresses = new HashSet<String>();
 
     @CollectionTable(name = "PhoneNumberSet", joinColumns = @JoinColumn(name = "ProductItemId"))
@@ -1,15 +1,30 @@
 package org.hibernate.test.serializer;
 
+import org.hibernate.cache.redis.serializer.AdaptiveRedisSerializer;
 import org.hibernate.cache.redis.serializer.BinaryRedisSerializer;
+import org.hibernate.cache.redis.serializer.CompressionRedisSerializer;
+import org.hibernate.cache.redis.serializer.FstClassRegistry;
 import org.hibernate.cache.redis.serializer.FstRedisSerializer;
+import org.hibernate.cache.redis.serializer.KryoRedisSerializer;
+import org.hibernate.cache.redis.serializer.Lz4RedisSerializer;
 import org.hibernate.cache.redis.serializer.RedisSerializer;
+import org.hibernate.cache.redis.serializer.SerializationTool;
 import org.hibernate.cache.redis.serializer.SnappyRedisSerializer;
+import org.hibernate.cache.redis.serializer.ZstdRedisSerializer;
 import org.hibernate.test.domain.Event;
 import org.hibernate.test.domain.Person;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.fest.assertions.Assertions.assertThat;
 
@@ -24,6 +39,8 @@ public class SerializerTest {
     private RedisSerializer<Object> binSnappy = new SnappyRedisSerializer<Object>(new BinaryRedisSerializer<Object>());
     private RedisSerializer<Object> fst = new FstRedisSerializer<Object>();
     private RedisSerializer<Object> fstSnappy = new SnappyRedisSerializer<Object>(new FstRedisSerializer<Object>());
+    private RedisSerializer<Object> fstLz4 = new Lz4RedisSerializer<Object>(new FstRedisSerializer<Object>());
+    private RedisSerializer<Object> kryo = new KryoRedisSerializer<Object>();
 
     private Person smallPerson;
     private Person largePerson;
@@ -169,6 +186,303 @@ public class SerializerTest {
     }
 
 
+    @Test
+    public void fstLz4_serializer_benchmark() {
+        final Person small = smallPerson;
+        final Person large = largePerson;
+
+        Runnable smallAction = new Runnable() {
+            @Override
+            public void run() {
+                byte[] bytes = fstLz4.serialize(small);
+                Person person = (Person) fstLz4.deserialize(bytes);
+                assertThat(person).isEqualTo(small);
+            }
+        };
+
+        Runnable largeAction = new Runnable() {
+            @Override
+            public void run() {
+                byte[] bytes = fstLz4.serialize(large);
+                Person person = (Person) fstLz4.deserialize(bytes);
+                assertThat(person).isEqualTo(large);
+            }
+        };
+
+        stopwatch("fst lz4 warm-up", 1, smallAction);
+        stopwatch("fst lz4 warm-up", 1, largeAction);
+
+        stopwatch("fst lz4 small", 100, smallAction);
+        stopwatch("fst lz4 large", 100, largeAction);
+    }
+
+    @Test
+    public void kryo_serializer_benchmark() {
+        final Person small = smallPerson;
+        final Person large = largePerson;
+
+        Runnable smallAction = new Runnable() {
+            @Override
+            public void run() {
+                byte[] bytes = kryo.serialize(small);
+                Person person = (Person) kryo.deserialize(bytes);
+                assertThat(person).isEqualTo(small);
+            }
+        };
+
+        Runnable largeAction = new Runnable() {
+            @Override
+            public void run() {
+                byte[] bytes = kryo.serialize(large);
+                Person person = (Person) kryo.deserialize(bytes);
+                assertThat(person).isEqualTo(large);
+            }
+        };
+
+        stopwatch("kryo warm-up", 1, smallAction);
+        stopwatch("kryo warm-up", 1, largeAction);
+
+        stopwatch("kryo small", 100, smallAction);
+        stopwatch("kryo large", 100, largeAction);
+    }
+
+    @Test
+    public void kryo_class_registration() {
+        Properties props = new Properties();
+        props.setProperty(KryoRedisSerializer.CLASSES_PROPERTY_KEY, Person.class.getName() + ", " + Event.class.getName());
+        KryoRedisSerializer<Object> registered = new KryoRedisSerializer<Object>();
+        registered.configure(props);
+
+        byte[] bytes = registered.serialize(largePerson);
+        assertThat(bytes.length).isLessThan(kryo.serialize(largePerson).length);
+        assertThat(registered.deserialize(bytes)).isEqualTo(largePerson);
+
+        props.setProperty(KryoRedisSerializer.UNSAFE_PROPERTY_KEY, "true");
+        KryoRedisSerializer<Object> unsafe = new KryoRedisSerializer<Object>();
+        unsafe.configure(props);
+        assertThat(unsafe.deserialize(unsafe.serialize(largePerson))).isEqualTo(largePerson);
+    }
+
+    @Test
+    public void adaptive_codec_selection() {
+        Properties props = new Properties();
+        props.setProperty(AdaptiveRedisSerializer.CODECS_PROPERTY_KEY, "BinaryRedisSerializer; Lz4RedisSerializer");
+        props.setProperty(AdaptiveRedisSerializer.SAMPLE_RATE_PROPERTY_KEY, "1");
+        props.setProperty(AdaptiveRedisSerializer.SAMPLE_SIZE_PROPERTY_KEY, "10");
+        AdaptiveRedisSerializer<Object> serializer = new AdaptiveRedisSerializer<Object>();
+        serializer.configure(props);
+
+        byte[] first = serializer.serialize(largePerson);
+        assertThat(first[0]).isEqualTo((byte) 0);
+        for (int i = 0; i < 10; i++) {
+            serializer.serialize(largePerson);
+        }
+
+        // lz4 writes the smallest values, and values of the previous codec are still readable
+        assertThat(serializer.getCurrentCodec()).isEqualTo(1);
+        byte[] next = serializer.serialize(largePerson);
+        assertThat(next[0]).isEqualTo((byte) 1);
+        assertThat(next.length).isLessThan(first.length);
+        assertThat(serializer.deserialize(first)).isEqualTo(largePerson);
+        assertThat(serializer.deserialize(next)).isEqualTo(largePerson);
+    }
+
+    @Test
+    public void adaptive_codec_skips_failing_codec() {
+        Properties props = new Properties();
+        props.setProperty(AdaptiveRedisSerializer.CODECS_PROPERTY_KEY, "KryoRedisSerializer; BinaryRedisSerializer");
+        props.setProperty(AdaptiveRedisSerializer.SAMPLE_RATE_PROPERTY_KEY, "1");
+        props.setProperty(AdaptiveRedisSerializer.SAMPLE_SIZE_PROPERTY_KEY, "10");
+        AdaptiveRedisSerializer<Object> serializer = new AdaptiveRedisSerializer<Object>();
+        serializer.configure(props);
+
+        // java serialization writes no bytes for the value, which must not count as the smallest values
+        Unserializable value = new Unserializable("value");
+        for (int i = 0; i < 20; i++) {
+            serializer.serialize(value);
+        }
+
+        assertThat(serializer.getCurrentCodec()).isEqualTo(0);
+        assertThat(serializer.deserialize(serializer.serialize(value))).isEqualTo(value);
+    }
+
+    @Test
+    public void parallel_deserialization_keeps_order() {
+        RedisSerializer<Object> serializer = new Lz4RedisSerializer<Object>();
+        List<byte[]> rawValues = new ArrayList<byte[]>();
+        List<Object> expected = new ArrayList<Object>();
+        for (int i = 0; i < 2000; i++) {
+            Object value = (i % 10 == 0) ? largePerson : "value-" + i;
+            expected.add(value);
+            rawValues.add(serializer.serialize(value));
+        }
+
+        assertThat(SerializationTool.deserialize(rawValues, serializer)).isEqualTo(expected);
+
+        SerializationTool.setParallelThreshold(0);
+        try {
+            assertThat(SerializationTool.deserialize(rawValues, serializer)).isEqualTo(expected);
+        } finally {
+            SerializationTool.setParallelThreshold(SerializationTool.DEFAULT_PARALLEL_THRESHOLD);
+        }
+    }
+
+    @Test
+    public void lz4_codec_header() {
+        Lz4RedisSerializer<Object> serializer = new Lz4RedisSerializer<Object>(new FstRedisSerializer<Object>());
+
+        byte[] small = serializer.serialize("small");
+        assertThat(small[0]).isEqualTo(CompressionRedisSerializer.CODEC_RAW);
+        assertThat(serializer.deserialize(small)).isEqualTo("small");
+
+        byte[] large = serializer.serialize(largePerson);
+        assertThat(large[0]).isEqualTo(Lz4RedisSerializer.CODEC_LZ4);
+
+        // values written in high compression mode are read back by any mode
+        Lz4RedisSerializer<Object> hc = new Lz4RedisSerializer<Object>(new FstRedisSerializer<Object>(), 0, 0.1, true);
+        byte[] hcLarge = hc.serialize(largePerson);
+        assertThat(hcLarge[0]).isEqualTo(Lz4RedisSerializer.CODEC_LZ4);
+        assertThat(serializer.deserialize(hcLarge)).isEqualTo(largePerson);
+        assertThat(hc.deserialize(small)).isEqualTo("small");
+    }
+
+    @Test
+    public void zstd_dictionary_versions() throws Exception {
+        final Map<Integer, byte[]> dictionaries = new HashMap<Integer, byte[]>();
+        final AtomicInteger loads = new AtomicInteger();
+        ZstdRedisSerializer.DictionaryStore store = new ZstdRedisSerializer.DictionaryStore() {
+            @Override
+            public Map<Integer, byte[]> load() {
+                loads.incrementAndGet();
+                return new HashMap<Integer, byte[]>(dictionaries);
+            }
+
+            @Override
+            public int save(byte[] dictionary) {
+                dictionaries.put(dictionaries.size() + 1, dictionary);
+                return dictionaries.size();
+            }
+        };
+        Properties props = new Properties();
+        props.setProperty(ZstdRedisSerializer.TRAINING_SIZE_PROPERTY_KEY, String.valueOf(64 * 1024));
+        props.setProperty(ZstdRedisSerializer.DICTIONARY_SIZE_PROPERTY_KEY, String.valueOf(4 * 1024));
+
+        ZstdRedisSerializer<Object> serializer = new ZstdRedisSerializer<Object>(new FstRedisSerializer<Object>());
+        serializer.configure(props);
+        serializer.bind(store);
+        assertThat(serializer.getVersion()).isEqualTo(0);
+
+        byte[] plain = serializer.serialize(samplePerson(0));
+        for (int i = 1; serializer.getVersion() == 0 && i < 10000; i++) {
+            serializer.serialize(samplePerson(i));
+        }
+        awaitVersion(serializer, 1);
+        assertThat(serializer.getVersion()).isEqualTo(1);
+
+        byte[] trained = serializer.serialize(samplePerson(0));
+        assertThat(trained.length).isLessThan(plain.length);
+        assertThat(serializer.deserialize(plain)).isEqualTo(samplePerson(0));
+        assertThat(serializer.deserialize(trained)).isEqualTo(samplePerson(0));
+
+        // another node loads the stored dictionaries
+        ZstdRedisSerializer<Object> other = new ZstdRedisSerializer<Object>(new FstRedisSerializer<Object>());
+        other.configure(props);
+        other.bind(store);
+        assertThat(other.getVersion()).isEqualTo(1);
+        assertThat(other.deserialize(trained)).isEqualTo(samplePerson(0));
+
+        // values of the previous version are readable after retraining
+        serializer.retrain();
+        for (int i = 1; serializer.getVersion() == 1 && i < 10000; i++) {
+            serializer.serialize(samplePerson(i));
+        }
+        awaitVersion(serializer, 2);
+        assertThat(serializer.getVersion()).isEqualTo(2);
+        assertThat(serializer.deserialize(trained)).isEqualTo(samplePerson(0));
+
+        // the dictionaries are reloaded at most once a second, e.g. for the values of a lost dictionary
+        byte[] lost = Arrays.copyOf(trained, trained.length);
+        lost[4] = 99;
+        int loaded = loads.get();
+        for (int i = 0; i < 10; i++) {
+            assertThat(other.deserialize(lost)).isNull();
+        }
+        assertThat(loads.get() - loaded).isLessThanOrEqualTo(1);
+
+        Thread.sleep(1000);
+        assertThat(other.deserialize(serializer.serialize(samplePerson(1)))).isEqualTo(samplePerson(1));
+    }
+
+    private static void awaitVersion(ZstdRedisSerializer<?> serializer, int version) throws InterruptedException {
+        for (int i = 0; serializer.getVersion() < version && i < 100; i++) {
+            Thread.sleep(50);
+        }
+    }
+
+    @Test
+    public void fst_class_registry() {
+        final List<String> classNames = new ArrayList<String>();
+        FstClassRegistry.ClassStore store = new FstClassRegistry.ClassStore() {
+            @Override
+            public List<String> load() {
+                return new ArrayList<String>(classNames);
+            }
+
+            @Override
+            public void add(Collection<String> names) {
+                classNames.addAll(names);
+            }
+        };
+        ClassLoader classLoader = getClass().getClassLoader();
+        FstClassRegistry registry = new FstClassRegistry(store, classLoader);
+        FstClassRegistry other = new FstClassRegistry(store, classLoader);
+
+        registry.register(Arrays.asList(Person.class.getName(), String.class.getName(), "unknown.Class"));
+        assertThat(classNames).containsExactly(Person.class.getName());
+        assertThat(registry.getClassId(Person.class.getName())).isEqualTo(FstClassRegistry.FIRST_CLASS_ID);
+
+        byte[] plain = FstRedisSerializer.getConf().asByteArray(smallPerson);
+        byte[] registered = registry.getConfiguration().asByteArray(smallPerson);
+        assertThat(registered.length).isLessThan(plain.length);
+
+        // another node loads the classes registered by the first one
+        assertThat(other.reload()).isTrue();
+        assertThat(other.getClassId(Person.class.getName())).isEqualTo(FstClassRegistry.FIRST_CLASS_ID);
+        assertThat(other.getConfiguration().asObject(registered)).isEqualTo(smallPerson);
+
+        // classes are appended, so the ids of the registered classes are kept
+        other.register(Event.class);
+        assertThat(registry.reload()).isTrue();
+        assertThat(registry.getClassId(Event.class.getName())).isEqualTo(FstClassRegistry.FIRST_CLASS_ID + 1);
+        assertThat(registry.getConfiguration().asObject(registered)).isEqualTo(smallPerson);
+    }
+
+    private static class Unserializable {
+
+        private final String name;
+
+        private Unserializable(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Unserializable && name.equals(((Unserializable) obj).name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+    }
+
+    private static Person samplePerson(int i) {
+        Person person = new Person();
+        person.setLastname("Lastname-" + i);
+        person.setFirstname("Firstname-" + (i % 7));
+        return person;
+    }
+
     private void stopwatch(String title, int count, Runnable runnable) {
 
         long start = System.nanoTime();